@@ -0,0 +1,315 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class for the copy of the songs and events of a band kept by the client, with the version of each list.
+ * Opening a list again asks the server only the changes made after the version of the copy
+ * ("sync_songs" and "sync_events" commands, see ChangeHub): the whole list is received the first time,
+ * and again only when the copy is too old for the changes kept by the server. The version comes after the list:
+ * it is -1 when the server couldn't send a list to be kept, and the list is then received again next time.
+ * A song or event added keeps the one of the copy with the same name, like the store does.
+ * The client makes a new copy only of the lists small enough (see GuestMainGUI.COPY_MAX_ROWS):
+ * bigger lists are received by pages, as they are viewed.
+ * <p>
+ * The copy can be saved in a binary file of the band under CACHE_DIR and loaded when the client starts again,
+ * so a list is shown at once and then brought up to date; the versions tell the server what the file has.
+ * A file not readable (missing, broken, older format) gives an empty copy and the whole lists are received:
+ * the numbers read from the file are checked against its size before being used.
+ * In the file each author is written once and the songs refer to it by number, like the server keeps them (see SongColumns).
+ *
+ * @author Davide Reverberi
+ */
+public class BandCopy {
+
+	public static final Path CACHE_DIR = Paths.get(System.getProperty("user.home"), ".bandmanager", "cache");	//Files of the copies
+	private static final int MAGIC = 0x424D4331;	//"BMC1", first int of a copy file, changed with the format
+
+	private final String band;
+	private final TreeMap<String, Song> songs = new TreeMap<>();		//Songs of the copy, by name
+	private final TreeMap<String, Event> events = new TreeMap<>();		//Events of the copy, by name
+	private long songsVersion = -1;		//Version of the songs, -1 if never received
+	private long eventsVersion = -1;	//Version of the events, -1 if never received
+
+	/**
+	 * Constructor for the BandCopy class, without songs and events.
+	 *
+	 * @param band The name of the band.
+	 */
+	public BandCopy(String band)
+	{
+		this.band = band;
+	}
+
+	/**
+	 * Gets the name of the band.
+	 *
+	 * @return The band of the copy.
+	 */
+	public String getBand()
+	{
+		return band;
+	}
+
+	/**
+	 * Tells whether the songs have been received, now or by a previous run of the client.
+	 *
+	 * @return true if the copy has a version of the songs.
+	 */
+	public boolean hasSongs()
+	{
+		return songsVersion >= 0;
+	}
+
+	/**
+	 * Tells whether the events have been received, now or by a previous run of the client.
+	 *
+	 * @return true if the copy has a version of the events.
+	 */
+	public boolean hasEvents()
+	{
+		return eventsVersion >= 0;
+	}
+
+	/**
+	 * Gets the songs of the copy.
+	 *
+	 * @return A new list of the songs, sorted by name.
+	 */
+	public List<Song> getSongs()
+	{
+		return new ArrayList<>(songs.values());
+	}
+
+	/**
+	 * Gets the events of the copy.
+	 *
+	 * @return A new list of the events, sorted by name.
+	 */
+	public List<Event> getEvents()
+	{
+		return new ArrayList<>(events.values());
+	}
+
+	/**
+	 * Brings the songs of the copy up to date with a "sync_songs" request.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void syncSongs(BufferedReader is, DataOutputStream os) throws IOException
+	{
+		os.writeBytes("sync_songs\n"+band+"\n"+(songsVersion < 0 ? "" : songsVersion)+"\n");	//Band and version of the copy
+		boolean full = is.readLine().equals("full");	//Else "delta"
+		if (full)
+		{
+			songs.clear();
+		}
+
+		String data_in = is.readLine();
+		while(!data_in.startsWith("endsongs ")) //Getting songs or changes from server until "endsongs" and the version occur.
+		{
+			String[] parts = data_in.split(" ");
+			if (full)
+			{
+				songs.put(parts[0], new Song(parts[0], parts[1], Float.parseFloat(parts[2]), Integer.parseInt(parts[3]), band));
+			}else if (parts[0].equals("song_added"))
+			{
+				songs.putIfAbsent(parts[1], new Song(parts[1], parts[2], Float.parseFloat(parts[3]), Integer.parseInt(parts[4]), band));
+			}else if (parts[0].equals("song_removed"))
+			{
+				songs.remove(parts[1]);
+			}
+			data_in = is.readLine();
+		}
+		songsVersion = Long.parseLong(data_in.substring("endsongs ".length()));	//-1 if the list can't be kept
+	}
+
+	/**
+	 * Brings the events of the copy up to date with a "sync_events" request.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void syncEvents(BufferedReader is, DataOutputStream os) throws IOException
+	{
+		os.writeBytes("sync_events\n"+band+"\n"+(eventsVersion < 0 ? "" : eventsVersion)+"\n");	//Band and version of the copy
+		boolean full = is.readLine().equals("full");	//Else "delta"
+		if (full)
+		{
+			events.clear();
+		}
+
+		String data_in = is.readLine();
+		while(!data_in.startsWith("endevents ")) //Getting events or changes from server until "endevents" and the version occur.
+		{
+			String[] parts = data_in.split(" ");
+			if (full)
+			{
+				events.put(parts[0], new Event(parts[0], parts[1], parts[2], parts[3], band));
+			}else if (parts[0].equals("event_added"))
+			{
+				events.putIfAbsent(parts[1], new Event(parts[1], parts[2], parts[3], parts[4], band));
+			}else if (parts[0].equals("event_removed"))
+			{
+				events.remove(parts[1]);
+			}
+			data_in = is.readLine();
+		}
+		eventsVersion = Long.parseLong(data_in.substring("endevents ".length()));	//-1 if the list can't be kept
+	}
+
+	/**
+	 * Gets the file of the copy of a band. The name of the band is encoded, so that any band gives a valid file name.
+	 *
+	 * @param band The name of the band.
+	 * @return The path of the file under CACHE_DIR.
+	 */
+	private static Path fileOf(String band)
+	{
+		return CACHE_DIR.resolve(URLEncoder.encode(band, StandardCharsets.UTF_8) + ".cache");
+	}
+
+	/**
+	 * Loads the copy of a band saved by save().
+	 *
+	 * @param band The name of the band.
+	 * @return The copy of the file, an empty copy if the file is missing or not readable.
+	 */
+	public static BandCopy load(String band)
+	{
+		BandCopy copy = new BandCopy(band);
+		Path file = fileOf(band);
+		if (!Files.exists(file))
+		{
+			return copy;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			long size = Files.size(file);
+			if (in.readInt() != MAGIC || !in.readUTF().equals(band))
+			{
+				return copy;	//Another format, or another band with the same file name
+			}
+			long songsVersion = in.readLong();
+			String[] authors = new String[readCount(in, size, 2)];		//An author takes at least its length
+			for (int i = 0; i < authors.length; i++)
+			{
+				authors[i] = in.readUTF();
+			}
+			for (int i = readCount(in, size, 14); i > 0; i--)		//Name length, author, length and BPM
+			{
+				String name = in.readUTF();
+				int author = in.readInt();
+				if (author < 0 || author >= authors.length)
+				{
+					throw new IOException("Invalid author: " + author);
+				}
+				Song s = new Song(name, authors[author], in.readFloat(), in.readInt(), band);
+				copy.songs.put(s.getName(), s);
+			}
+			long eventsVersion = in.readLong();
+			for (int i = readCount(in, size, 8); i > 0; i--)		//Lengths of the four strings
+			{
+				Event e = new Event(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), band);
+				copy.events.put(e.getName(), e);
+			}
+			copy.songsVersion = songsVersion;		//Versions set only once the whole file has been read
+			copy.eventsVersion = eventsVersion;
+			return copy;
+		} catch (IOException | RuntimeException e) {
+			return new BandCopy(band);	//Broken file, the lists are received again
+		}
+	}
+
+	/**
+	 * Reads the number of records of a list of a copy file, which can't be more than the file holds.
+	 *
+	 * @param in The stream of the file.
+	 * @param size The size of the file, in bytes.
+	 * @param recordBytes The fewest bytes taken by a record.
+	 * @return The number of records.
+	 * @throws IOException If the number is not valid, or the file can't be read.
+	 */
+	private static int readCount(DataInputStream in, long size, int recordBytes) throws IOException
+	{
+		int count = in.readInt();
+		if (count < 0 || count > size / recordBytes)
+		{
+			throw new IOException("Invalid count: " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Saves the copy in its file. The file is written aside and then renamed, so a client stopped
+	 * while saving leaves the previous file.
+	 *
+	 * @throws IOException If the file can't be written.
+	 */
+	public void save() throws IOException
+	{
+		Files.createDirectories(CACHE_DIR);
+		Path file = fileOf(band);
+		Path written = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(written)))) {
+			out.writeInt(MAGIC);
+			out.writeUTF(band);
+			out.writeLong(songsVersion);
+			Map<String, Integer> authors = new HashMap<>();		//Number of each author, in order of appearance
+			for (Song s : songs.values())
+			{
+				authors.putIfAbsent(s.getAuthor(), authors.size());
+			}
+			String[] byNumber = new String[authors.size()];
+			authors.forEach((author, number) -> byNumber[number] = author);
+			out.writeInt(byNumber.length);
+			for (String author : byNumber)
+			{
+				out.writeUTF(author);
+			}
+			out.writeInt(songs.size());
+			for (Song s : songs.values())
+			{
+				out.writeUTF(s.getName());
+				out.writeInt(authors.get(s.getAuthor()));
+				out.writeFloat(s.getLength());
+				out.writeInt(s.getBpm());
+			}
+			out.writeLong(eventsVersion);
+			out.writeInt(events.size());
+			for (Event e : events.values())
+			{
+				out.writeUTF(e.getName());
+				out.writeUTF(e.getPlace());
+				out.writeUTF(e.getDate());
+				out.writeUTF(e.getType());
+			}
+		}
+		Files.move(written, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
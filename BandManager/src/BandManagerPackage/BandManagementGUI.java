@@ -9,8 +9,10 @@ package BandManagerPackage;
 
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,6 +24,7 @@ import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
@@ -30,6 +33,7 @@ import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.text.Font;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 /**
@@ -46,6 +50,7 @@ public class BandManagementGUI
 
 	private static List<Song> songsList = new ArrayList<>(); 			 //List of the songs per selected band
 	private static List<Event> eventList = new ArrayList<>();			 //List of the events per selected band
+	private static BandCopy bandCopy = null;							 //Songs and events of the band kept between the interfaces, brought up to date by the server
 	
 	public BandManagementGUI() 
 	{
@@ -106,6 +111,94 @@ public class BandManagementGUI
         return tableView;
     }
 	
+	/**
+	 * Sends a batch command to the server: the number of records, then one record per line.
+	 * Returns the result of each record ("ok", "alreadyin" or "notok") in the same order.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param command The batch command (add_songs_batch, remove_songs_batch, add_events_batch, remove_events_batch).
+	 * @param records The records to send, already formatted as the server expects them.
+	 * @return The list of the results sent back by the server.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private static List<String> sendBatch(BufferedReader is, DataOutputStream os, String command, List<String> records) throws IOException
+	{
+		StringBuilder request = new StringBuilder(command).append('\n').append(records.size()).append('\n');
+		for (String record : records)
+		{
+			request.append(record).append('\n');
+		}
+		os.writeBytes(request.toString());	//Whole batch in a single write
+		
+		List<String> results = new ArrayList<>();
+		String data_in = is.readLine();
+		while (!data_in.equals("endbatch"))	//Getting a result for each record until "endbatch" occurs.
+		{
+			results.add(data_in);
+			data_in = is.readLine();
+		}
+		return results;
+	}
+	
+	/**
+	 * Counts how many records of a batch command have been done by the server.
+	 *
+	 * @param results The results of the batch command.
+	 * @return The number of "ok" results.
+	 */
+	private static int countDone(List<String> results)
+	{
+		int done = 0;
+		for (String result : results)
+		{
+			if (result.equals("ok"))
+			{
+				done++;
+			}
+		}
+		return done;
+	}
+	
+	/**
+	 * Imports the songs listed in a text file chosen by the user, with a single batch command.
+	 * Each line of the file is a song in the format "name author length bpm".
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param selectedBand The name of the selected band.
+	 * @param owner The stage opening the file chooser.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private static void importSongs(BufferedReader is, DataOutputStream os, String selectedBand, Stage owner) throws IOException
+	{
+		FileChooser fileChooser = new FileChooser();
+		fileChooser.setTitle("Import songs");
+		File file = fileChooser.showOpenDialog(owner);
+		
+		if (file == null)	//No file chosen
+		{
+			return;
+		}
+		
+		List<String> records = new ArrayList<>();
+		for (String line : Files.readAllLines(file.toPath()))
+		{
+			if (!line.isBlank())
+			{
+				records.add(line.trim() + " " + selectedBand);
+			}
+		}
+		
+		List<String> results = sendBatch(is, os, "add_songs_batch", records);
+		
+		Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle("import songs alert");
+        alert.setHeaderText(null);
+        alert.setContentText(countDone(results) + " of " + records.size() + " songs succesfully added in the list!");
+        alert.showAndWait();
+	}
+	
 	/**
 	 * Displays the interface for adding a new song.
 	 *
@@ -380,8 +473,24 @@ public class BandManagementGUI
         addWindowStage.show();
 	}
 	
+	/**
+	 * Gets the copy of the songs and events of a band kept by the client, a new empty one the first time.
+	 *
+	 * @param selectedBand The name of the band.
+	 * @return The BandCopy of the band.
+	 */
+	private static BandCopy copyOf(String selectedBand)
+	{
+		if (bandCopy == null || !bandCopy.getBand().equals(selectedBand))
+		{
+			bandCopy = new BandCopy(selectedBand);
+		}
+		return bandCopy;
+	}
+	
 	/**
 	 * Displays the interface for managing songs of a selected band.
+	 * Only the changes made after the songs were last shown are asked to the server (see BandCopy).
 	 *
 	 * @param client The Socket for communication with the server.
 	 * @param is The BufferedReader for reading data from the server.
@@ -391,11 +500,9 @@ public class BandManagementGUI
 	 */
 	public static void showManageSongsInterface(Socket client, BufferedReader is, DataOutputStream os, String selectedBand) throws IOException
 	{
-		songsList.clear();
-		os.writeBytes("show_songs\n");  //Telling the server to send the songs
-		GuestMainGUI.getSongsListFromServer(is, os, selectedBand); 		// Function provided by GuestMainGUI
-
-		songsList = GuestMainGUI.getSongsList(); //Function provided by GuestMainGUI
+		BandCopy copy = copyOf(selectedBand);
+		copy.syncSongs(is, os);  //Changes of the songs since they were last shown
+		songsList = copy.getSongs();
 		
 		ObservableList<Song> observableSongsList = FXCollections.observableArrayList(songsList);
 		
@@ -405,14 +512,17 @@ public class BandManagementGUI
 		Button backButton = new Button("Back");
 		Button closeButton = new Button("Close");
 		Button addButton = new Button("Add");
+		Button importButton = new Button("Import");
 		Button deleteButton = new Button("Delete");
 		
         backButton.getStyleClass().add("custom-button");
         closeButton.getStyleClass().add("custom-button");
         addButton.getStyleClass().add("custom-button");
+        importButton.getStyleClass().add("custom-button");
         deleteButton.getStyleClass().add("custom-button");
 		
 		TableView<Song> tableView = createSongsTable(observableSongsList);
+		tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE); //More songs can be deleted at once
         
         Label titleLabel = new Label("Songs currently in the setlist:");
         titleLabel.getStyleClass().add("custom-title");
@@ -430,7 +540,7 @@ public class BandManagementGUI
         
         // Creating an HBox for the buttons
         HBox buttonBox = new HBox(25);	 // Spacing of 25 pixels between the buttons
-        buttonBox.getChildren().addAll(backButton, addButton, deleteButton, closeButton);
+        buttonBox.getChildren().addAll(backButton, addButton, importButton, deleteButton, closeButton);
         buttonBox.setPadding(new Insets(10));
         buttonBox.setStyle("-fx-alignment: CENTER;"); 	// Center the buttons inside the HBox
         
@@ -447,33 +557,48 @@ public class BandManagementGUI
         	showStage.close();
         });
         
+        //import button handler:
+        importButton.setOnAction(e -> {  
+        	try {
+        		BandManagementGUI.importSongs(is, os, selectedBand, showStage);	//Adding all the songs of a file with a single command
+        		showStage.close();
+        		BandManagementGUI.showManageSongsInterface(client, is, os, selectedBand); //Refresh the window by reopening it.
+        		
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+        });
+        
         //delete button handler:
         deleteButton.setOnAction(e -> {  
-        	if (!tableView.getSelectionModel().isEmpty()) //If true, a song in the list shown is selected and ready to be deleted
+        	if (!tableView.getSelectionModel().isEmpty()) //If true, one or more songs in the list shown are selected and ready to be deleted
         	{  
         		try {
-					Song selectedSong = tableView.getSelectionModel().getSelectedItem();
-					songsList.remove(selectedSong);
+					List<Song> selectedSongs = new ArrayList<>(tableView.getSelectionModel().getSelectedItems());
+					List<String> names = new ArrayList<>();
+					for (Song selectedSong : selectedSongs)
+					{
+						songsList.remove(selectedSong);
+						names.add(selectedSong.getName());  // Only the name is required to perform the removal of the song
+					}
 					
-					os.writeBytes("remove_song\n");
-					os.writeBytes(selectedSong.getName()+"\n");  // Only the name is required to perform the removal of the song
+					//Removing all the selected songs with a single command, the server sends back the outcome of each removal
+					List<String> results = BandManagementGUI.sendBatch(is, os, "remove_songs_batch", names);
 										
 					//Creating an alert for displaying to the user the outcome of the removal
 					Alert alert = new Alert(Alert.AlertType.INFORMATION);
 		            alert.setTitle("Song viewer");
 		            alert.setHeaderText(null);
 		            
-		            //Blocking instruction, wait for the outcome of adding the song to the server list:
-		            String serverAnwser = is.readLine();
+		            int removed = BandManagementGUI.countDone(results);
 		            
-		            System.out.println(serverAnwser);
-		            
-		            if(serverAnwser.equals("ok")) //Song has been removed 
+		            if(removed == names.size()) //All the songs have been removed 
 		            {
-						alert.setContentText(selectedSong.getName() + " succesfully removed from the setlist");
+		            	alert.setContentText(names.size() == 1 ? names.get(0) + " succesfully removed from the setlist" 
+		            										   : removed + " songs succesfully removed from the setlist");
 						
 		            }else {
-						alert.setContentText("Operation failed, try again!");
+						alert.setContentText((names.size() - removed) + " of " + names.size() + " removals failed, try again!");
 		            }
 		            
 		            alert.showAndWait(); //Waiting for the user to close the alert
@@ -515,6 +640,7 @@ public class BandManagementGUI
 	
 	/**
 	 * Displays the interface for managing events of a selected band.
+	 * Only the changes made after the events were last shown are asked to the server (see BandCopy).
 	 *
 	 * @param client The Socket for communication with the server.
 	 * @param is The BufferedReader for reading data from the server.
@@ -524,11 +650,9 @@ public class BandManagementGUI
 	 */
 	public static void showManageEventsInterface(Socket client, BufferedReader is, DataOutputStream os, String selectedBand) throws IOException
 	{
-		eventList.clear();
-		os.writeBytes("show_events\n");  //Telling the server to send the events
-		GuestMainGUI.getEventsListFromServer(is, os, selectedBand);   // Function provided by GuestMainGUI
-		
-		eventList = GuestMainGUI.getEventsList();
+		BandCopy copy = copyOf(selectedBand);
+		copy.syncEvents(is, os);  //Changes of the events since they were last shown
+		eventList = copy.getEvents();
 		
 		ObservableList<Event> observableEventsList = FXCollections.observableArrayList(eventList);
 		
@@ -546,6 +670,7 @@ public class BandManagementGUI
         deleteButton.getStyleClass().add("custom-button");
 		
 		TableView<Event> tableView = createEventsTable(observableEventsList);
+		tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE); //More events can be deleted at once
         
         Label titleLabel = new Label("Events currently in the setlist:");
         titleLabel.getStyleClass().add("custom-title");
@@ -582,29 +707,34 @@ public class BandManagementGUI
         });
         
         deleteButton.setOnAction(e -> {  
-        	if (!tableView.getSelectionModel().isEmpty()) //If true, an event in the list shown is selected and ready to be deleted
+        	if (!tableView.getSelectionModel().isEmpty()) //If true, one or more events in the list shown are selected and ready to be deleted
         	{  
         		try {
-					Event selectedEvent = tableView.getSelectionModel().getSelectedItem();
-					eventList.remove(selectedEvent);
+					List<Event> selectedEvents = new ArrayList<>(tableView.getSelectionModel().getSelectedItems());
+					List<String> names = new ArrayList<>();
+					for (Event selectedEvent : selectedEvents)
+					{
+						eventList.remove(selectedEvent);
+						names.add(selectedEvent.getName());  // Only the name is required to perform the removal of the event
+					}
 					
-					os.writeBytes("remove_event\n");
-					os.writeBytes(selectedEvent.getName()+"\n");  // Only the name is required to perform the removal of the event
+					//Removing all the selected events with a single command, the server sends back the outcome of each removal
+					List<String> results = BandManagementGUI.sendBatch(is, os, "remove_events_batch", names);
 								
 					//Creating an alert to display to the user the outcome of the removal
 					Alert alert = new Alert(Alert.AlertType.INFORMATION);
 		            alert.setTitle("Event viewer");
 		            alert.setHeaderText(null);
 		            
-		            //Blocking instruction, wait for the outcome of adding the event to the server list:
-		            String serverAnwser = is.readLine();
+		            int removed = BandManagementGUI.countDone(results);
 		            
-		            if(serverAnwser.equals("ok")) //event has been removed 
+		            if(removed == names.size()) //All the events have been removed 
 		            {
-						alert.setContentText(selectedEvent.getName() + " succesfully removed ");
+		            	alert.setContentText(names.size() == 1 ? names.get(0) + " succesfully removed " 
+		            										   : removed + " events succesfully removed ");
 						
 		            }else {
-						alert.setContentText("Operation failed, try again!");
+						alert.setContentText((names.size() - removed) + " of " + names.size() + " removals failed, try again!");
 		            }
 		            
 		            alert.showAndWait(); //Waiting for the user to close the alert
@@ -0,0 +1,128 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Class for everything a guest sees about a band: its songs, its events and a few figures about them
+ * (number of songs, total length of the setlist, date of the next event), sent by the "show_band" command.
+ *
+ * @author Davide Reverberi
+ */
+public class BandOverview {
+
+	static final DateTimeFormatter DATE_FORMAT = Event.DATE_FORMAT;	//Format of the event dates ("15-08-2024")
+
+	private final String performer;
+	private final List<Song> songs;
+	private final List<Event> events;
+
+	/**
+	 * Constructor for the BandOverview class.
+	 *
+	 * @param performer The name of the band.
+	 * @param songs The songs of the band.
+	 * @param events The events of the band.
+	 */
+	public BandOverview(String performer, List<Song> songs, List<Event> events)
+	{
+		this.performer = performer;
+		this.songs = songs;
+		this.events = events;
+	}
+
+	/**
+	 * Gets the name of the band.
+	 *
+	 * @return The name of the band.
+	 */
+	public String getPerformer()
+	{
+		return performer;
+	}
+
+	/**
+	 * Gets the songs of the band.
+	 *
+	 * @return The list of songs.
+	 */
+	public List<Song> getSongs()
+	{
+		return songs;
+	}
+
+	/**
+	 * Gets the events of the band.
+	 *
+	 * @return The list of events.
+	 */
+	public List<Event> getEvents()
+	{
+		return events;
+	}
+
+	/**
+	 * Gets the number of songs of the band.
+	 *
+	 * @return The number of songs.
+	 */
+	public int getSongCount()
+	{
+		return songs.size();
+	}
+
+	/**
+	 * Gets the length of the whole setlist.
+	 *
+	 * @return The sum of the lengths of the songs, in seconds.
+	 */
+	public int getTotalSeconds()
+	{
+		int total = 0;
+		for (Song s : songs)
+		{
+			total += DataAcces.lengthToSeconds(s.getLength());
+		}
+		return total;
+	}
+
+	/**
+	 * Gets the length of the whole setlist in the minutes.seconds format of the songs, always with two digits
+	 * for the seconds ("47.05").
+	 *
+	 * @return The total length.
+	 */
+	public String getTotalLength()
+	{
+		int total = getTotalSeconds();
+		return String.format("%d.%02d", total / 60, total % 60);
+	}
+
+	/**
+	 * Gets the date of the first event from a given day on. Events with a date in another format are ignored.
+	 *
+	 * @param from The first day considered, usually today.
+	 * @return The date of the next event, null if there isn't one.
+	 */
+	public LocalDate getNextEventDate(LocalDate from)
+	{
+		LocalDate next = null;
+		for (Event e : events)
+		{
+			LocalDate date = e.getLocalDate();	//null if not a date, skipped
+			if (date != null && !date.isBefore(from) && (next == null || date.isBefore(next)))
+			{
+				next = date;
+			}
+		}
+		return next;
+	}
+}
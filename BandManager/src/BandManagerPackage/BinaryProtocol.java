@@ -0,0 +1,320 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for the binary version of the client/server protocol.
+ * A client asks for it by sending "binary" as first line instead of "guest"/"noguest"; the server
+ * answers "ok" and from then on both sides only exchange frames. Old clients keep using the text protocol.
+ *
+ * Every frame is the payload length (int) followed by the payload: an opcode (byte) and its typed fields.
+ * Strings are written in modified UTF-8 with their length, so names can contain spaces, and lists
+ * start with the number of records, so no end sentinel like "endsongs" is needed.
+ * The methods are used by ClientSession on the server side and can be used by any client.
+ *
+ * @author Davide Reverberi
+ */
+public class BinaryProtocol {
+
+	public static final String HANDSHAKE = "binary";	//First line sent by a client asking for the binary protocol
+	public static final int MAX_FRAME = 16 * 1024 * 1024;	//Frames bigger than this are refused
+
+	//Requests (client --> server)
+	public static final byte LOGIN = 1;					//boolean guest, String user, String password
+	public static final byte GET_BANDS = 2;				//no fields
+	public static final byte SHOW_SONGS = 3;			//String band
+	public static final byte SHOW_EVENTS = 4;			//String band
+	public static final byte ADD_SONG = 5;				//Song
+	public static final byte ADD_EVENT = 6;				//Event
+	public static final byte REMOVE_SONG = 7;			//String name
+	public static final byte REMOVE_EVENT = 8;			//String name
+	public static final byte ADD_SONGS_BATCH = 9;		//int count, count Songs
+	public static final byte REMOVE_SONGS_BATCH = 10;	//int count, count names
+	public static final byte ADD_EVENTS_BATCH = 11;		//int count, count Events
+	public static final byte REMOVE_EVENTS_BATCH = 12;	//int count, count names
+	public static final byte CLOSE = 13;				//no fields
+	public static final byte QUIT = 14;					//no fields
+
+	//Responses (server --> client)
+	public static final byte STATUS = 100;				//String status ("ok", "notok", "alreadyin")
+	public static final byte BANDS = 101;				//int count, count names
+	public static final byte SONGS = 102;				//int count, count Songs
+	public static final byte EVENTS = 103;				//int count, count Events
+	public static final byte RESULTS = 104;				//int count, count statuses
+
+	private BinaryProtocol()
+	{
+		//Only static methods
+	}
+
+	/**
+	 * Reads the next frame.
+	 *
+	 * @param in The stream connected to the other side.
+	 * @return A stream over the payload of the frame, positioned on the opcode.
+	 * @throws IOException If the connection drops or the frame is too big.
+	 */
+	public static DataInputStream readFrame(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length <= 0 || length > MAX_FRAME)
+		{
+			throw new IOException("Invalid frame length: " + length);
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return new DataInputStream(new ByteArrayInputStream(payload));
+	}
+
+	/**
+	 * Represents a frame being built: the fields are written on it and send() writes
+	 * the whole frame with its length in a single write.
+	 */
+	public static class FrameWriter extends DataOutputStream {
+
+		/**
+		 * Starts a new frame with the given opcode.
+		 *
+		 * @param opcode The opcode of the frame.
+		 */
+		public FrameWriter(byte opcode)
+		{
+			super(new ByteArrayOutputStream());
+			try {
+				writeByte(opcode);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);	//Can't happen writing in memory
+			}
+		}
+
+		/**
+		 * Writes the frame (length and payload) on the stream and flushes it.
+		 *
+		 * @param out The stream connected to the other side.
+		 * @throws IOException If an error occurs while using the output stream.
+		 */
+		public void send(DataOutputStream out) throws IOException
+		{
+			ByteArrayOutputStream payload = (ByteArrayOutputStream) this.out;
+			out.writeInt(payload.size());
+			payload.writeTo(out);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes a song as typed fields.
+	 *
+	 * @param out The stream where the song is written.
+	 * @param s The song.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public static void writeSong(DataOutputStream out, Song s) throws IOException
+	{
+		out.writeUTF(s.getName());
+		out.writeUTF(s.getAuthor());
+		out.writeFloat(s.getLength());
+		out.writeInt(s.getBpm());
+		out.writeUTF(s.getPerformer());
+	}
+
+	/**
+	 * Reads a song written by writeSong().
+	 *
+	 * @param in The stream where the song is read.
+	 * @return The song.
+	 * @throws IOException If the data is truncated.
+	 */
+	public static Song readSong(DataInputStream in) throws IOException
+	{
+		String name = in.readUTF();
+		String author = in.readUTF();
+		float length = in.readFloat();
+		int bpm = in.readInt();
+		String performer = in.readUTF();
+		return new Song(name, author, length, bpm, performer);
+	}
+
+	/**
+	 * Writes an event as typed fields.
+	 *
+	 * @param out The stream where the event is written.
+	 * @param e The event.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public static void writeEvent(DataOutputStream out, Event e) throws IOException
+	{
+		out.writeUTF(e.getName());
+		out.writeUTF(e.getPlace());
+		out.writeUTF(e.getDate());
+		out.writeUTF(e.getType());
+		out.writeUTF(e.getPerformer());
+	}
+
+	/**
+	 * Reads an event written by writeEvent().
+	 *
+	 * @param in The stream where the event is read.
+	 * @return The event.
+	 * @throws IOException If the data is truncated.
+	 */
+	public static Event readEvent(DataInputStream in) throws IOException
+	{
+		return new Event(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF());
+	}
+
+	/**
+	 * Sends a status frame ("ok", "notok", "alreadyin").
+	 *
+	 * @param out The stream connected to the other side.
+	 * @param status The status.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public static void sendStatus(DataOutputStream out, String status) throws IOException
+	{
+		FrameWriter frame = new FrameWriter(STATUS);
+		frame.writeUTF(status);
+		frame.send(out);
+	}
+
+	/**
+	 * Sends a list of strings (band names or batch results) with the count up front.
+	 *
+	 * @param out The stream connected to the other side.
+	 * @param opcode BANDS, RESULTS, or a batch request working on names.
+	 * @param list The strings to send.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public static void sendStrings(DataOutputStream out, byte opcode, List<String> list) throws IOException
+	{
+		FrameWriter frame = new FrameWriter(opcode);
+		frame.writeInt(list.size());
+		for (String s : list)
+		{
+			frame.writeUTF(s);
+		}
+		frame.send(out);
+	}
+
+	/**
+	 * Sends a list of songs with the count up front.
+	 *
+	 * @param out The stream connected to the other side.
+	 * @param opcode SONGS, or ADD_SONGS_BATCH when sent by a client.
+	 * @param songs The songs to send.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public static void sendSongs(DataOutputStream out, byte opcode, List<Song> songs) throws IOException
+	{
+		FrameWriter frame = new FrameWriter(opcode);
+		frame.writeInt(songs.size());
+		for (Song s : songs)
+		{
+			writeSong(frame, s);
+		}
+		frame.send(out);
+	}
+
+	/**
+	 * Sends a list of events with the count up front.
+	 *
+	 * @param out The stream connected to the other side.
+	 * @param opcode EVENTS, or ADD_EVENTS_BATCH when sent by a client.
+	 * @param events The events to send.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public static void sendEvents(DataOutputStream out, byte opcode, List<Event> events) throws IOException
+	{
+		FrameWriter frame = new FrameWriter(opcode);
+		frame.writeInt(events.size());
+		for (Event e : events)
+		{
+			writeEvent(frame, e);
+		}
+		frame.send(out);
+	}
+
+	/**
+	 * Reads the number of items of a list, sent by the other side: between 0 and ClientSession.MAX_BATCH.
+	 *
+	 * @param payload The payload of the frame.
+	 * @return The number of items.
+	 * @throws IOException If the number is not valid.
+	 */
+	private static int readCount(DataInputStream payload) throws IOException
+	{
+		int count = payload.readInt();
+		if (count < 0 || count > ClientSession.MAX_BATCH)
+		{
+			throw new IOException("Invalid list length: " + count);
+		}
+		return count;
+	}
+
+	/**
+	 * Reads a list of strings written with the count up front.
+	 *
+	 * @param payload The payload of the frame, after the opcode.
+	 * @return The list of strings.
+	 * @throws IOException If the data is truncated or the count is not valid.
+	 */
+	public static List<String> readStrings(DataInputStream payload) throws IOException
+	{
+		int count = readCount(payload);
+		List<String> list = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			list.add(payload.readUTF());
+		}
+		return list;
+	}
+
+	/**
+	 * Reads a list of songs written with the count up front.
+	 *
+	 * @param payload The payload of the frame, after the opcode.
+	 * @return The list of songs.
+	 * @throws IOException If the data is truncated or the count is not valid.
+	 */
+	public static List<Song> readSongs(DataInputStream payload) throws IOException
+	{
+		int count = readCount(payload);
+		List<Song> list = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			list.add(readSong(payload));
+		}
+		return list;
+	}
+
+	/**
+	 * Reads a list of events written with the count up front.
+	 *
+	 * @param payload The payload of the frame, after the opcode.
+	 * @return The list of events.
+	 * @throws IOException If the data is truncated or the count is not valid.
+	 */
+	public static List<Event> readEvents(DataInputStream payload) throws IOException
+	{
+		int count = readCount(payload);
+		List<Event> list = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			list.add(readEvent(payload));
+		}
+		return list;
+	}
+}
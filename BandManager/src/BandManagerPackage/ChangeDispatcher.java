@@ -0,0 +1,318 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Class for the thread sending the changes of the bands (see ChangeHub) to the clients subscribed
+ * through the blocking front end (ServerLogic.service()).
+ * The session of a "subscribe" connection only hands the connection over, so a client
+ * viewing a band doesn't hold a worker thread of the sessions: a single thread waits on a Selector for every
+ * subscribed connection, writes the changes when the connection is ready and closes the dropped ones.
+ * A client not reading keeps its changes in its bounded subscription and gets "reload" when they are too many,
+ * like on the non-blocking front end. After PING_SECONDS without changes a client gets "ping",
+ * so that a dropped connection is noticed and its subscription removed.
+ *
+ * @author Davide Reverberi
+ */
+public class ChangeDispatcher implements Runnable {
+
+	private static final int PING_SECONDS = 30;		//Silence after which a subscribed client gets "ping", to find dropped connections
+
+	/**
+	 * Represents a subscribed connection: the changes of its band and the bytes not written yet.
+	 */
+	private static class Subscriber {
+		final SocketChannel channel;
+		final ChangeHub.Subscription subscription;
+		ByteBuffer output = ByteBuffer.wrap("ok\n".getBytes(StandardCharsets.UTF_8));	//Lines being written, null if everything has been written
+		long lastWrite = System.currentTimeMillis();	//Time (ms) of the last line queued, for the pings
+		boolean closing = false;	//True once "reload" is queued, the connection is closed when it's written
+
+		Subscriber(SocketChannel channel, ChangeHub.Subscription subscription)
+		{
+			this.channel = channel;
+			this.subscription = subscription;
+		}
+	}
+
+	private final ChangeHub changes;
+	private final Selector selector;
+	private final Queue<Subscriber> added = new ConcurrentLinkedQueue<>();		//Connections handed over by the sessions
+	private final Queue<Subscriber> changed = new ConcurrentLinkedQueue<>();	//Subscribers with new changes
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(256);			//What the clients send is thrown away
+	private volatile boolean closed = false;	//Set by close(), the thread stops
+
+	/**
+	 * Constructor for the ChangeDispatcher class.
+	 *
+	 * @param changes The changes published by the sessions.
+	 * @throws IOException If the selector can't be opened.
+	 */
+	public ChangeDispatcher(ChangeHub changes) throws IOException
+	{
+		this.changes = changes;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Subscribes a connection to the changes of a band and answers "ok" on it. Called by the session thread,
+	 * which doesn't use the connection anymore.
+	 *
+	 * @param channel The connection of the client.
+	 * @param band The band followed.
+	 * @throws IOException If the connection can't be made non-blocking.
+	 */
+	public void subscribe(SocketChannel channel, String band) throws IOException
+	{
+		channel.configureBlocking(false);
+		Subscriber[] subscriber = new Subscriber[1];
+		subscriber[0] = new Subscriber(channel, changes.subscribe(band, () -> {
+			changed.add(subscriber[0]);
+			selector.wakeup();	//The dispatcher thread writes the changes
+		}));
+		added.add(subscriber[0]);
+		selector.wakeup();
+	}
+
+	/**
+	 * Serves the subscribed connections until close() is called.
+	 */
+	@Override
+	public void run()
+	{
+		try {
+			while (!closed)
+			{
+				selector.select(1000);	//Woken up by the changes, at least once a second for the pings
+				register();
+				writeChanges();
+				ping();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isReadable())
+						{
+							readBuffer.clear();
+							if (((SocketChannel) key.channel()).read(readBuffer) == -1)
+							{
+								close(key);	//Client gone
+								continue;
+							}
+						}
+						if (key.isValid() && key.isWritable())
+						{
+							write(key);
+						}
+					} catch (IOException e) {
+						close(key);	//Connection dropped
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys())
+			{
+				close(key);
+			}
+			Subscriber s;
+			while ((s = added.poll()) != null)
+			{
+				changes.unsubscribe(s.subscription);
+				closeChannel(s.channel);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops the thread: every subscribed connection is closed by the dispatcher thread.
+	 */
+	public void close()
+	{
+		closed = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * Registers the connections handed over by the sessions, and writes their "ok" and the changes published meanwhile.
+	 */
+	private void register()
+	{
+		Subscriber s;
+		while ((s = added.poll()) != null)
+		{
+			SelectionKey key;
+			try {
+				key = s.channel.register(selector, SelectionKey.OP_READ, s);
+			} catch (IOException e) {
+				changes.unsubscribe(s.subscription);
+				closeChannel(s.channel);
+				continue;
+			}
+			try {
+				write(key);
+			} catch (IOException e) {
+				close(key);	//Connection dropped
+			}
+		}
+	}
+
+	/**
+	 * Queues the changes of the subscribers woken up by a publication.
+	 */
+	private void writeChanges()
+	{
+		Subscriber s;
+		while ((s = changed.poll()) != null)
+		{
+			SelectionKey key = s.channel.keyFor(selector);
+			if (key != null && key.isValid())
+			{
+				queueChanges(key);
+			}
+		}
+	}
+
+	/**
+	 * Sends "ping" to the subscribers that got nothing for PING_SECONDS.
+	 */
+	private void ping()
+	{
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : selector.keys())
+		{
+			Subscriber s = (Subscriber) key.attachment();
+			if (key.isValid() && s.output == null && now - s.lastWrite >= PING_SECONDS * 1000L)
+			{
+				queue(key, "ping\n");
+			}
+		}
+	}
+
+	/**
+	 * Queues the changes of a subscriber, if its previous output has been written;
+	 * otherwise they wait in the subscription and are queued by write() when the output is done.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void queueChanges(SelectionKey key)
+	{
+		Subscriber s = (Subscriber) key.attachment();
+		if (s.output != null || s.closing)
+		{
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		String change;
+		while ((change = s.subscription.poll()) != null)
+		{
+			lines.append(change).append('\n');
+			if (change.equals(ChangeHub.RELOAD))
+			{
+				s.closing = true;	//Changes lost, the client asks the lists again and subscribes again
+				break;
+			}
+		}
+		if (lines.length() > 0)
+		{
+			queue(key, lines.toString());
+		}
+	}
+
+	/**
+	 * Writes lines to a subscriber as far as the connection accepts them, the rest when it's ready.
+	 *
+	 * @param key The key of the connection.
+	 * @param lines The lines to write.
+	 */
+	private void queue(SelectionKey key, String lines)
+	{
+		Subscriber s = (Subscriber) key.attachment();
+		s.output = ByteBuffer.wrap(lines.getBytes(StandardCharsets.UTF_8));
+		s.lastWrite = System.currentTimeMillis();
+		try {
+			write(key);
+		} catch (IOException e) {
+			close(key);	//Connection dropped
+		}
+	}
+
+	/**
+	 * Writes the output of a subscriber; once written, queues the changes published meanwhile.
+	 *
+	 * @param key The key of the connection ready to be written.
+	 * @throws IOException If the connection drops.
+	 */
+	private void write(SelectionKey key) throws IOException
+	{
+		Subscriber s = (Subscriber) key.attachment();
+		if (s.output != null)
+		{
+			s.channel.write(s.output);
+			if (s.output.hasRemaining())
+			{
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);	//Socket buffer full, wait for OP_WRITE
+				return;
+			}
+			s.output = null;
+		}
+		key.interestOps(SelectionKey.OP_READ);
+		if (s.closing)
+		{
+			close(key);
+		}else {
+			queueChanges(key);
+		}
+	}
+
+	/**
+	 * Closes a subscribed connection and removes its subscription.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void close(SelectionKey key)
+	{
+		changes.unsubscribe(((Subscriber) key.attachment()).subscription);
+		key.cancel();
+		closeChannel((SocketChannel) key.channel());
+	}
+
+	/**
+	 * Closes a connection.
+	 *
+	 * @param channel The connection.
+	 */
+	private static void closeChannel(SocketChannel channel)
+	{
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Class for the changes of the repertoire pushed to the clients viewing a band.
+ * A client opens a connection whose first lines are "subscribe" and the band (see ChangeDispatcher
+ * and NioServer), then receives one line for each song or event added or removed:
+ * <pre>
+ * song_added name author length bpm
+ * song_removed name
+ * event_added name place date type
+ * event_removed name
+ * reload             changes were lost (the client was too slow), the lists must be asked again
+ * </pre>
+ * The sessions publish a change after the store has done it, holding the lock of the band (see locked())
+ * from the write to the publication: the changes of a band are logged and sent in the order the store made them.
+ * Each subscription keeps at most QUEUE_MAX changes not sent yet: a client not reading them gets "reload"
+ * instead of making the server wait or grow.
+ * <p>
+ * The songs and the events of each band also have a version, raised by every change, and a log of their
+ * last LOG_MAX changes, so that a client keeping a copy of a list only asks the changes made after the
+ * version of its copy ("sync_songs" and "sync_events" commands, see BandCopy). Versions are numbered
+ * from the start time of the server, so that the versions of a previous run are older than every log
+ * and the clients keeping them get the whole list again.
+ *
+ * @author Davide Reverberi
+ */
+public class ChangeHub {
+
+	public static final String RELOAD = "reload";	//Sent instead of the changes lost by a slow client
+	private static final int QUEUE_MAX = 1024;		//Changes waiting for each client, then "reload"
+	private static final int LOG_MAX = 512;			//Changes kept for each list of each band, older clients get the whole list
+
+	/**
+	 * Represents a client receiving the changes of a band.
+	 */
+	public static class Subscription {
+		private final String performer;
+		private final Runnable wakeup;
+		private final BlockingQueue<String> changes = new ArrayBlockingQueue<>(QUEUE_MAX);
+		private volatile boolean lost = false;	//True once changes have been dropped, only "reload" is sent then
+
+		/**
+		 * Constructor for the Subscription class.
+		 *
+		 * @param performer The band followed.
+		 * @param wakeup Called after every change queued.
+		 */
+		Subscription(String performer, Runnable wakeup)
+		{
+			this.performer = performer;
+			this.wakeup = wakeup;
+		}
+
+		/**
+		 * Queues a change, or "reload" if the queue is full.
+		 *
+		 * @param change The line of the change.
+		 */
+		void offer(String change)
+		{
+			if (lost)
+			{
+				return;
+			}
+			if (!changes.offer(change))
+			{
+				lost = true;
+				changes.clear();
+				changes.offer(RELOAD);
+			}
+			if (wakeup != null)
+			{
+				wakeup.run();
+			}
+		}
+
+		/**
+		 * Gets the next change, without waiting.
+		 *
+		 * @return The line of the change, null if there are no changes queued.
+		 */
+		public String poll()
+		{
+			return changes.poll();
+		}
+
+		/**
+		 * Gets the band followed.
+		 *
+		 * @return The performer of the subscription.
+		 */
+		public String getPerformer()
+		{
+			return performer;
+		}
+	}
+
+	/**
+	 * Represents the last changes of a list (songs or events) of a band and its version.
+	 */
+	private static class ChangeLog {
+		private final ArrayDeque<Long> versions = new ArrayDeque<>();		//Version reached by each change
+		private final ArrayDeque<String> changes = new ArrayDeque<>();		//Line of each change
+		private long version;	//Version of the list, the one of its last change
+		private long oldest;	//The log has every change after this version
+
+		ChangeLog(long start)
+		{
+			version = start;
+			oldest = start;
+		}
+
+		/**
+		 * Adds a change, forgetting the oldest one if the log is full. The caller holds the lock of the log.
+		 *
+		 * @param v The version reached by the change.
+		 * @param change The line of the change.
+		 */
+		void add(long v, String change)
+		{
+			if (changes.size() == LOG_MAX)
+			{
+				oldest = versions.poll();
+				changes.poll();
+			}
+			versions.add(v);
+			changes.add(change);
+			version = v;
+		}
+
+		/**
+		 * Gets the changes made after a version. The caller holds the lock of the log.
+		 *
+		 * @param since The version of the copy kept by the client.
+		 * @return The lines of the changes, in order; null if they are not all in the log anymore.
+		 */
+		List<String> since(long since)
+		{
+			if (since < oldest || since > version)
+			{
+				return null;	//Older than the log, or from another run of the server
+			}
+			List<String> found = new ArrayList<>();
+			Iterator<Long> v = versions.iterator();
+			for (String change : changes)
+			{
+				if (v.next() > since)
+				{
+					found.add(change);
+				}
+			}
+			return found;
+		}
+	}
+
+	/**
+	 * Represents the changes of a list made after a version, as sent to a client.
+	 */
+	public static class Delta {
+		private final long version;
+		private final List<String> changes;
+
+		Delta(long version, List<String> changes)
+		{
+			this.version = version;
+			this.changes = changes;
+		}
+
+		/**
+		 * Gets the version of the list.
+		 *
+		 * @return The version reached by the last change.
+		 */
+		public long getVersion()
+		{
+			return version;
+		}
+
+		/**
+		 * Gets the changes.
+		 *
+		 * @return The lines of the changes in order, null if the whole list must be sent.
+		 */
+		public List<String> getChanges()
+		{
+			return changes;
+		}
+	}
+
+	private final Map<String, Set<Subscription>> subscriptions = new ConcurrentHashMap<>();	//Clients of each band
+	private final long start = System.currentTimeMillis() << 20;		//Version of the lists not changed since the server started
+	private final AtomicLong sequence = new AtomicLong(start);			//Last version given to a change
+	private final Map<String, ChangeLog> songLogs = new ConcurrentHashMap<>();	//Changes of the songs of each band
+	private final Map<String, ChangeLog> eventLogs = new ConcurrentHashMap<>();	//Changes of the events of each band
+	private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();		//Lock of the writes of each band
+
+	/**
+	 * Starts sending the changes of a band to a client.
+	 *
+	 * @param performer The band.
+	 * @param wakeup Called after every change queued (by the publishing thread).
+	 * @return The subscription, to be passed to unsubscribe() when the client leaves.
+	 */
+	public Subscription subscribe(String performer, Runnable wakeup)
+	{
+		Subscription s = new Subscription(performer, wakeup);
+		subscriptions.computeIfAbsent(performer, p -> new CopyOnWriteArraySet<>()).add(s);
+		return s;
+	}
+
+	/**
+	 * Stops sending the changes to a client.
+	 *
+	 * @param s The subscription.
+	 */
+	public void unsubscribe(Subscription s)
+	{
+		subscriptions.computeIfPresent(s.getPerformer(), (p, set) -> {
+			set.remove(s);
+			return set.isEmpty() ? null : set;
+		});
+	}
+
+	/**
+	 * Runs a write of some bands holding their locks: the write does the changes on the store and publishes them
+	 * before any other session writes the same bands. The bands are locked in order of name,
+	 * so sessions writing more bands at once don't wait for each other forever.
+	 *
+	 * @param <T> The type of the result of the write.
+	 * @param performers The bands written.
+	 * @param write The changes of the store and their publication.
+	 * @return The result of the write.
+	 */
+	public <T> T locked(Collection<String> performers, Supplier<T> write)
+	{
+		List<ReentrantLock> held = new ArrayList<>();
+		try {
+			for (String performer : new TreeSet<>(performers))
+			{
+				ReentrantLock lock = locks.computeIfAbsent(performer, p -> new ReentrantLock());
+				lock.lock();
+				held.add(lock);
+			}
+			return write.get();
+		} finally {
+			for (int i = held.size() - 1; i >= 0; i--)
+			{
+				held.get(i).unlock();
+			}
+		}
+	}
+
+	/**
+	 * Logs a change with a new version and sends it to the clients of the band. The lock of the log
+	 * keeps the changes of a list in the same order in the log and in the subscriptions.
+	 *
+	 * @param logs The logs of the list changed (songs or events).
+	 * @param performer The band changed.
+	 * @param change The line of the change.
+	 */
+	private void publish(Map<String, ChangeLog> logs, String performer, String change)
+	{
+		ChangeLog log = logs.computeIfAbsent(performer, p -> new ChangeLog(start));
+		synchronized (log) {
+			log.add(sequence.incrementAndGet(), change);
+			Set<Subscription> set = subscriptions.get(performer);
+			if (set == null)
+			{
+				return;		//Nobody is viewing the band
+			}
+			for (Subscription s : set)
+			{
+				s.offer(change);
+			}
+		}
+	}
+
+	/**
+	 * Gets the changes of a list made after a version.
+	 *
+	 * @param logs The logs of the list (songs or events).
+	 * @param performer The band.
+	 * @param since The version of the copy kept by the client, -1 if the client has no copy.
+	 * @return The version of the list and the changes, without changes if the whole list must be sent.
+	 */
+	private Delta since(Map<String, ChangeLog> logs, String performer, long since)
+	{
+		ChangeLog log = logs.get(performer);
+		if (log == null)
+		{
+			log = new ChangeLog(start);		//Not changed since the server started, not kept
+		}
+		synchronized (log) {
+			return new Delta(log.version, log.since(since));
+		}
+	}
+
+	/**
+	 * Gets the changes of the songs of a band made after a version. The version is read before
+	 * the whole list, if needed, is read from the store: changes made meanwhile come again with the
+	 * next changes, and adding or removing a song twice doesn't change a copy.
+	 *
+	 * @param performer The band.
+	 * @param since The version of the copy kept by the client, -1 if the client has no copy.
+	 * @return The version of the songs and the changes, without changes if the whole list must be sent.
+	 */
+	public Delta songsSince(String performer, long since)
+	{
+		return since(songLogs, performer, since);
+	}
+
+	/**
+	 * Gets the changes of the events of a band made after a version (see songsSince()).
+	 *
+	 * @param performer The band.
+	 * @param since The version of the copy kept by the client, -1 if the client has no copy.
+	 * @return The version of the events and the changes, without changes if the whole list must be sent.
+	 */
+	public Delta eventsSince(String performer, long since)
+	{
+		return since(eventLogs, performer, since);
+	}
+
+	/**
+	 * Sends a song added.
+	 *
+	 * @param s The song.
+	 */
+	public void songAdded(Song s)
+	{
+		publish(songLogs, s.getPerformer(), "song_added " + s.getName() + " " + s.getAuthor() + " " + s.getLength() + " " + s.getBpm());
+	}
+
+	/**
+	 * Sends a song removed.
+	 *
+	 * @param performer The band of the song.
+	 * @param name The name of the song.
+	 */
+	public void songRemoved(String performer, String name)
+	{
+		publish(songLogs, performer, "song_removed " + name);
+	}
+
+	/**
+	 * Sends an event added.
+	 *
+	 * @param e The event.
+	 */
+	public void eventAdded(Event e)
+	{
+		publish(eventLogs, e.getPerformer(), "event_added " + e.getName() + " " + e.getPlace() + " " + e.getDate() + " " + e.getType());
+	}
+
+	/**
+	 * Sends an event removed.
+	 *
+	 * @param performer The band of the event.
+	 * @param name The name of the event.
+	 */
+	public void eventRemoved(String performer, String name)
+	{
+		publish(eventLogs, performer, "event_removed " + name);
+	}
+}
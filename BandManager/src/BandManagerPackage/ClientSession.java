@@ -0,0 +1,1740 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Class for a single client connection.
+ * Each connected client (guest or band profile) gets its own ClientSession, run by the server
+ * on a worker thread, so that more clients can use the service at the same time.
+ * Every piece of state bound to a client (authentication, last songs/events/bands sent) lives
+ * here and not in the shared ServerLogic instance, so sessions can't clobber each other.
+ * The client can speak the line based text protocol or the binary one (see BinaryProtocol):
+ * both are served by the same operations, only the encoding of requests and responses changes.
+ *
+ * @author Davide Reverberi
+ */
+public class ClientSession implements Runnable {
+
+	public static final int MAX_BATCH = 10000;			//Most records of a batch command, bigger batches are refused
+	private static final int OUTPUT_BUFFER = 64 * 1024;	//Bytes of a response gathered before writing them on the socket
+	private static final int PAGE_MAX = 1000;			//Most rows sent for a page, whatever the client asks
+	private static final int BAND_ROWS = 200;			//Songs and events sent by "show_band", the others are asked by pages
+	private static final int SEARCH_ROWS = 100;			//Most songs and events sent for a search
+
+	private final ServerLogic server;		//Server owning the session (accounts and service shutdown)
+	private final Socket client;			//Socket connected to the client
+	private final RepertoireStore store;	//Storage of songs, events and performers
+
+	private boolean authentication = false;					//True once the client is allowed to use the service
+	private String songsBand = null;						//Band of the songs last sent to this client.
+	private String eventsBand = null;						//Band of the events last sent to this client.
+	private Set<String> songsSent = new HashSet<>();		//Names of the songs last sent to this client, for duplicate checks and removals
+	private Set<String> eventsSent = new HashSet<>();		//Names of the events last sent to this client, for duplicate checks and removals
+	private long songsVersion = -1;							//Version of the songs in songsSent, -1 if not sent by "sync_songs"
+	private long eventsVersion = -1;						//Version of the events in eventsSent, -1 if not sent by "sync_events"
+	private List<String> bandsList = new ArrayList<>();		//Local list of the bands last sent to this client.
+
+	/**
+	 * Constructor for the ClientSession class.
+	 *
+	 * @param server The ServerLogic instance that accepted the connection.
+	 * @param client The Socket connected to the client.
+	 */
+	public ClientSession(ServerLogic server, Socket client)
+	{
+		this.server = server;
+		this.client = client;
+		this.store = server.getStore();
+	}
+
+	/**
+	 * Constructor for a session whose connection is handled by the NIO front end (NioServer),
+	 * which only uses the session for its state and its commands (execute()).
+	 *
+	 * @param server The ServerLogic instance that accepted the connection.
+	 */
+	public ClientSession(ServerLogic server)
+	{
+		this(server, null);
+	}
+
+	/**
+	 * Function to check if a song is in the songs last sent to the client.
+	 *
+	 * @param name String name of the song to check
+	 * @return true if song is found, false if not
+	 */
+	public boolean isInSongsList(String name)
+	{
+		return songsSent.contains(name);
+	}
+
+	/**
+	 * Function to check if an event is in the events last sent to the client.
+	 *
+	 * @param name String name of the event to check
+	 * @return true if event is found, false if not
+	 */
+	public boolean isInEventsList(String name)
+	{
+		return eventsSent.contains(name);
+	}
+
+	/**
+	 * Function to check the credentials of a band profile.
+	 *
+	 * @param user The name of the band.
+	 * @param password The password entered.
+	 * @return true if the credentials are right, false if not.
+	 */
+	public boolean login(String user, String password)
+	{
+		String expected = server.profileMap.get(user);  //Direct lookup of the account
+		return expected != null && expected.equals(password);
+	}
+
+	/**
+	 * Function to get all band names available in the database.
+	 *
+	 * @return The list of band names.
+	 */
+	public List<String> bands()
+	{
+		bandsList = store.getPerformers();  //Getting the performers from the store
+		if (bandsList == null)
+		{
+			bandsList = new ArrayList<>();
+		}
+		return bandsList;
+	}
+
+	/**
+	 * Function to start sending the songs of a band: what was sent before is forgotten,
+	 * the names of the songs are remembered as they are sent.
+	 *
+	 * @param bandName The name of the band.
+	 */
+	private void startSongs(String bandName)
+	{
+		songsBand = bandName;
+		songsSent = new HashSet<>();
+		eventsBand = null;
+		eventsSent = new HashSet<>();
+		songsVersion = -1;
+		eventsVersion = -1;
+	}
+
+	/**
+	 * Function to start sending the events of a band: what was sent before is forgotten,
+	 * the names of the events are remembered as they are sent.
+	 *
+	 * @param bandName The name of the band.
+	 */
+	private void startEvents(String bandName)
+	{
+		eventsBand = bandName;
+		eventsSent = new HashSet<>();
+		songsBand = null;
+		songsSent = new HashSet<>();
+		songsVersion = -1;
+		eventsVersion = -1;
+	}
+
+	/**
+	 * Function to start sending both the songs and the events of a band (see startSongs()).
+	 *
+	 * @param bandName The name of the band.
+	 */
+	private void startBand(String bandName)
+	{
+		songsBand = bandName;
+		songsSent = new HashSet<>();
+		eventsBand = bandName;
+		eventsSent = new HashSet<>();
+		songsVersion = -1;
+		eventsVersion = -1;
+	}
+
+	/**
+	 * Function to get the songs of a band, whose names are remembered for the next removals.
+	 *
+	 * @param bandName The name of the band.
+	 * @return The list of songs of the band.
+	 */
+	public List<Song> songsOf(String bandName)
+	{
+		startSongs(bandName);
+		List<Song> songs = store.getSongs(bandName);
+		if (songs == null)
+		{
+			songs = new ArrayList<>();
+		}
+		for (Song s : songs)
+		{
+			songsSent.add(s.getName());
+		}
+		return songs;
+	}
+
+	/**
+	 * Function to get the events of a band, whose names are remembered for the next removals.
+	 *
+	 * @param bandName The name of the band.
+	 * @return The list of events of the band.
+	 */
+	public List<Event> eventsOf(String bandName)
+	{
+		startEvents(bandName);
+		List<Event> events = store.getEvents(bandName);
+		if (events == null)
+		{
+			events = new ArrayList<>();
+		}
+		for (Event e : events)
+		{
+			eventsSent.add(e.getName());
+		}
+		return events;
+	}
+
+	/**
+	 * Function to get a song last sent to the client, to remove it.
+	 * Removals only need the name and the performer of the song.
+	 *
+	 * @param name The name of the song.
+	 * @return The song, null if it hasn't been sent to the client.
+	 */
+	private Song sentSong(String name)
+	{
+		return songsSent.contains(name) ? new Song(name, "", 0, 0, songsBand) : null;
+	}
+
+	/**
+	 * Function to get an event last sent to the client, to remove it.
+	 * Removals only need the name and the performer of the event.
+	 *
+	 * @param name The name of the event.
+	 * @return The event, null if it hasn't been sent to the client.
+	 */
+	private Event sentEvent(String name)
+	{
+		return eventsSent.contains(name) ? new Event(name, "", "", "", eventsBand) : null;
+	}
+
+	/**
+	 * Function to add a song to the database, if not already in the songs list.
+	 *
+	 * @param song The song to add.
+	 * @return "ok" if added, "alreadyin" if a song with the same name already exist,
+	 *         "notok" if the length is not valid (seconds from 60 on) or the store can't be written.
+	 */
+	public String addSong(Song song)
+	{
+		if(!DataAcces.isValidLength(song.getLength()))
+		{
+			return "notok"; 	//Not minutes.seconds, it would be stored as another length
+		}
+		if(isInSongsList(song.getName()))
+		{
+			return "alreadyin"; 	//Song already exist, can't perform the adding
+		}
+		return server.getChanges().locked(Collections.singleton(song.getPerformer()), () -> {
+			int changed = store.addSong(song); 	//Updating the store with the new song
+			if(changed > 0)
+			{
+				server.getChanges().songAdded(song);
+				return "ok";
+			}
+			return changed == 0 ? "alreadyin" : "notok"; 	//Added meanwhile by another client, or store not writable
+		});
+	}
+
+	/**
+	 * Function to add an event to the database, if not already in the events list.
+	 *
+	 * @param event The event to add.
+	 * @return "ok" if added, "alreadyin" if an event with the same name already exist,
+	 *         "notok" if the date is not valid or the store can't be written.
+	 */
+	public String addEvent(Event event)
+	{
+		if(Event.parseDate(event.getDate()) == null)
+		{
+			return "notok"; 	//Not a date like "15-08-2024", the database couldn't keep it
+		}
+		if(isInEventsList(event.getName()))
+		{
+			return "alreadyin"; 	//Event already exist, can't perform the adding
+		}
+		return server.getChanges().locked(Collections.singleton(event.getPerformer()), () -> {
+			int changed = store.addEvent(event); 	//Updating the store with the new event
+			if(changed > 0)
+			{
+				server.getChanges().eventAdded(event);
+				return "ok";
+			}
+			return changed == 0 ? "alreadyin" : "notok"; 	//Added meanwhile by another client, or store not writable
+		});
+	}
+
+	/**
+	 * Function to remove a song of the songs list from the database.
+	 *
+	 * @param song_name The name of the song to remove.
+	 * @return "ok" if removed, "notok" if the song is not in the list or the store can't remove it.
+	 */
+	public String removeSong(String song_name)
+	{
+		Song p = sentSong(song_name);
+		if(p == null)
+		{
+			return "notok"; 	//Not in the list sent to the client
+		}
+		return server.getChanges().locked(Collections.singleton(p.getPerformer()), () -> {
+			if(store.removeSong(p) > 0)
+			{
+				server.getChanges().songRemoved(p.getPerformer(), p.getName());
+				return "ok";
+			}
+			return "notok"; 	// can't remove the song from the setlist
+		});
+	}
+
+	/**
+	 * Function to remove an event of the events list from the database.
+	 *
+	 * @param event_name The name of the event to remove.
+	 * @return "ok" if removed, "notok" if the event is not in the list or the store can't remove it.
+	 */
+	public String removeEvent(String event_name)
+	{
+		Event p = sentEvent(event_name);
+		if(p == null)
+		{
+			return "notok"; 	//Not in the list sent to the client
+		}
+		return server.getChanges().locked(Collections.singleton(p.getPerformer()), () -> {
+			if(store.removeEvent(p) > 0)
+			{
+				server.getChanges().eventRemoved(p.getPerformer(), p.getName());
+				return "ok";
+			}
+			return "notok"; 	// can't remove the event from events list
+		});
+	}
+
+	/**
+	 * Function to add many songs to the database in one transaction.
+	 *
+	 * @param songs The songs to add, null for a malformed song.
+	 * @return The result of each song ("ok", "alreadyin" or "notok"), in the same order.
+	 */
+	public String[] addSongs(List<Song> songs)
+	{
+		String[] results = new String[songs.size()];
+		List<Song> toAdd = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();	//Position in the batch of each song sent to the database
+
+		for (int i = 0; i < songs.size(); i++)
+		{
+			Song song = songs.get(i);
+			if (song == null || !DataAcces.isValidLength(song.getLength()))
+			{
+				results[i] = "notok";	//Malformed song, or length not in minutes.seconds
+			}else if (isInSongsList(song.getName()))
+			{
+				results[i] = "alreadyin";
+			}else {
+				toAdd.add(song);
+				positions.add(i);
+			}
+		}
+
+		return server.getChanges().locked(performersOfSongs(toAdd), () -> {
+			int[] counts = toAdd.isEmpty() ? new int[0] : store.addSongs(toAdd);
+			for (int j = 0; j < positions.size(); j++)
+			{
+				results[positions.get(j)] = counts == null ? "notok" : (counts[j] > 0 ? "ok" : "alreadyin");
+				if (counts != null && counts[j] > 0)
+				{
+					server.getChanges().songAdded(toAdd.get(j));
+				}
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Function to remove many songs of the songs list from the database in one transaction.
+	 *
+	 * @param names The names of the songs to remove.
+	 * @return The result of each removal ("ok" or "notok"), in the same order.
+	 */
+	public String[] removeSongs(List<String> names)
+	{
+		String[] results = new String[names.size()];
+		List<Song> toRemove = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+
+		for (int i = 0; i < names.size(); i++)
+		{
+			Song p = sentSong(names.get(i));
+			if (p == null)
+			{
+				results[i] = "notok";	//Song not in the list, can't remove it
+			}else {
+				toRemove.add(p);
+				positions.add(i);
+			}
+		}
+
+		return server.getChanges().locked(performersOfSongs(toRemove), () -> {
+			int[] counts = toRemove.isEmpty() ? new int[0] : store.removeSongs(toRemove);
+			for (int j = 0; j < positions.size(); j++)
+			{
+				results[positions.get(j)] = counts != null && counts[j] > 0 ? "ok" : "notok";
+				if (counts != null && counts[j] > 0)
+				{
+					server.getChanges().songRemoved(toRemove.get(j).getPerformer(), toRemove.get(j).getName());
+				}
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Function to add many events to the database in one transaction.
+	 *
+	 * @param events The events to add, null for a malformed event.
+	 * @return The result of each event ("ok", "alreadyin" or "notok" for a malformed event or date), in the same order.
+	 */
+	public String[] addEvents(List<Event> events)
+	{
+		String[] results = new String[events.size()];
+		List<Event> toAdd = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+
+		for (int i = 0; i < events.size(); i++)
+		{
+			Event event = events.get(i);
+			if (event == null || Event.parseDate(event.getDate()) == null)
+			{
+				results[i] = "notok";	//Malformed event or date
+			}else if (isInEventsList(event.getName()))
+			{
+				results[i] = "alreadyin";
+			}else {
+				toAdd.add(event);
+				positions.add(i);
+			}
+		}
+
+		return server.getChanges().locked(performersOfEvents(toAdd), () -> {
+			int[] counts = toAdd.isEmpty() ? new int[0] : store.addEvents(toAdd);
+			for (int j = 0; j < positions.size(); j++)
+			{
+				results[positions.get(j)] = counts == null ? "notok" : (counts[j] > 0 ? "ok" : "alreadyin");
+				if (counts != null && counts[j] > 0)
+				{
+					server.getChanges().eventAdded(toAdd.get(j));
+				}
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Function to remove many events of the events list from the database in one transaction.
+	 *
+	 * @param names The names of the events to remove.
+	 * @return The result of each removal ("ok" or "notok"), in the same order.
+	 */
+	public String[] removeEvents(List<String> names)
+	{
+		String[] results = new String[names.size()];
+		List<Event> toRemove = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+
+		for (int i = 0; i < names.size(); i++)
+		{
+			Event p = sentEvent(names.get(i));
+			if (p == null)
+			{
+				results[i] = "notok";	//Event not in the list, can't remove it
+			}else {
+				toRemove.add(p);
+				positions.add(i);
+			}
+		}
+
+		return server.getChanges().locked(performersOfEvents(toRemove), () -> {
+			int[] counts = toRemove.isEmpty() ? new int[0] : store.removeEvents(toRemove);
+			for (int j = 0; j < positions.size(); j++)
+			{
+				results[positions.get(j)] = counts != null && counts[j] > 0 ? "ok" : "notok";
+				if (counts != null && counts[j] > 0)
+				{
+					server.getChanges().eventRemoved(toRemove.get(j).getPerformer(), toRemove.get(j).getName());
+				}
+			}
+			return results;
+		});
+	}
+
+	/**
+	 * Function to get the bands of the songs of a batch, to lock their writes (see ChangeHub.locked()).
+	 *
+	 * @param songs The songs written.
+	 * @return The performers of the songs.
+	 */
+	private static Set<String> performersOfSongs(List<Song> songs)
+	{
+		Set<String> performers = new HashSet<>();
+		for (Song song : songs)
+		{
+			performers.add(song.getPerformer());
+		}
+		return performers;
+	}
+
+	/**
+	 * Function to get the bands of the events of a batch, to lock their writes (see ChangeHub.locked()).
+	 *
+	 * @param events The events written.
+	 * @return The performers of the events.
+	 */
+	private static Set<String> performersOfEvents(List<Event> events)
+	{
+		Set<String> performers = new HashSet<>();
+		for (Event event : events)
+		{
+			performers.add(event.getPerformer());
+		}
+		return performers;
+	}
+
+	/**
+	 * Function to parse a song sent as text: "name author length bpm performer".
+	 *
+	 * @param line The line sent by the client.
+	 * @return The song, null if the line is malformed.
+	 */
+	private static Song parseSong(String line)
+	{
+		try {
+			String[] parts = line.split(" ");
+			return new Song(parts[0], parts[1], Float.parseFloat(parts[2]), Integer.parseInt(parts[3]), parts[4]);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Function to parse an event sent as text: "name place date type performer".
+	 *
+	 * @param line The line sent by the client.
+	 * @return The event, null if the line is malformed.
+	 */
+	private static Event parseEvent(String line)
+	{
+		try {
+			String[] parts = line.split(" ");
+			return new Event(parts[0], parts[1], parts[2], parts[3], parts[4]);
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Function to remove the song requested by the user from the songs last sent to the client.
+	 *
+	 * @param os DataOutputStream object used to send the result to the client.
+	 * @param is BufferedReader object used to receive the name of the song from the client.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public void song_removeFromList(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String song_name = is.readLine(); //Server is waiting for the name of the song to remove
+
+		os.writeBytes(removeSong(song_name) + "\n");
+	}
+
+	/**
+	 * Function to remove the event requested by the user from the events last sent to the client.
+	 *
+	 * @param os DataOutputStream object used to send the result to the client.
+	 * @param is BufferedReader object used to receive the name of the event from the client.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public void event_removeFromList(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String event_name = is.readLine(); //Server is waiting for the name of the event to remove
+
+		os.writeBytes(removeEvent(event_name) + "\n");
+	}
+
+	/**
+	 * Function to add a song to the Songs list.
+	 * This method is called by a client to add a new song to the list.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public void song_addToList(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String temp_song = is.readLine(); // Reading the song sent by the client
+
+		Song temp_Song2 = parseSong(temp_song);
+
+		os.writeBytes((temp_Song2 == null ? "notok" : addSong(temp_Song2)) + "\n");
+	}
+
+	/**
+	 * Function to add an event to the Events list.
+	 * This method is called by a client to add a new event to the list.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public void event_addToList(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String temp_event = is.readLine();
+
+		Event temp_Event2 = parseEvent(temp_event);
+
+		os.writeBytes((temp_Event2 == null ? "notok" : addEvent(temp_Event2)) + "\n");
+	}
+
+	/**
+	 * Function to read the records of a batch command: first the number of records, then one record per line.
+	 * The number comes from the client: it must be between 0 and MAX_BATCH, and the list grows with the
+	 * records actually received.
+	 *
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @return The list of the received lines, null if the number of records is not valid.
+	 * @throws IOException If an error occurs during the reading of data through the stream.
+	 */
+	private static List<String> readBatch(BufferedReader is) throws IOException
+	{
+		String line = is.readLine();
+		int count;
+		try {
+			count = line == null ? -1 : Integer.parseInt(line.trim());
+		} catch (NumberFormatException e) {
+			count = -1;
+		}
+		if (count < 0 || count > MAX_BATCH)
+		{
+			return null;
+		}
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			String record = is.readLine();
+			if (record == null)
+			{
+				break;	//Client disconnected
+			}
+			lines.add(record);
+		}
+		return lines;
+	}
+
+	/**
+	 * Function to answer a batch command whose number of records is not valid: a single "notok" result,
+	 * so that the client reading the results until "endbatch" gets an answer.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	private static void refuseBatch(DataOutputStream os) throws IOException
+	{
+		writeBatchResults(os, new String[] {"notok"});
+	}
+
+	/**
+	 * Function to send the result of every record of a batch command, one per line in the same
+	 * order of the records, followed by "endbatch".
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param results The result of each record ("ok", "alreadyin" or "notok").
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	private static void writeBatchResults(DataOutputStream os, String[] results) throws IOException
+	{
+		StringBuilder response = new StringBuilder();
+		for (String result : results)
+		{
+			response.append(result).append('\n');
+		}
+		response.append("endbatch\n");
+		os.writeBytes(response.toString());
+	}
+
+	/**
+	 * Function to add many songs with a single command.
+	 * The client sends the number of songs and then each song in the same format of "add_song";
+	 * all the new songs are added to the database in one transaction.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public void songs_addBatch(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		List<String> lines = readBatch(is);
+		if (lines == null)
+		{
+			refuseBatch(os);
+			return;
+		}
+		List<Song> songs = new ArrayList<>();
+		for (String line : lines)
+		{
+			songs.add(parseSong(line));
+		}
+		writeBatchResults(os, addSongs(songs));
+	}
+
+	/**
+	 * Function to remove many songs with a single command.
+	 * The client sends the number of songs and then the name of each song to remove;
+	 * all the songs are removed from the database in one transaction.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public void songs_removeBatch(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		List<String> names = readBatch(is);
+		if (names == null)
+		{
+			refuseBatch(os);
+			return;
+		}
+		writeBatchResults(os, removeSongs(names));
+	}
+
+	/**
+	 * Function to add many events with a single command.
+	 * The client sends the number of events and then each event in the same format of "add_event";
+	 * all the new events are added to the database in one transaction.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public void events_addBatch(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		List<String> lines = readBatch(is);
+		if (lines == null)
+		{
+			refuseBatch(os);
+			return;
+		}
+		List<Event> events = new ArrayList<>();
+		for (String line : lines)
+		{
+			events.add(parseEvent(line));
+		}
+		writeBatchResults(os, addEvents(events));
+	}
+
+	/**
+	 * Function to remove many events with a single command.
+	 * The client sends the number of events and then the name of each event to remove;
+	 * all the events are removed from the database in one transaction.
+	 *
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public void events_removeBatch(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		List<String> names = readBatch(is);
+		if (names == null)
+		{
+			refuseBatch(os);
+			return;
+		}
+		writeBatchResults(os, removeEvents(names));
+	}
+
+	/**
+	 * Function to send every song or event about a specific communicated band name to the client, depending on the request.
+	 * Each song or event is sent as a string text to the client as soon as it is read from the database
+	 * (see RepertoireStore.streamSongs()), so the first rows arrive before the whole list is read.
+	 *
+	 * @param os DataOutputStream object used to send each product contained in the Productslist to the client.
+	 * @param is BufferedReader for reading data sent by the client.
+	 * @param mode Int specifies if songs have been requested (mode=1) or events have been requested (mode=0)
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public void sendDataToClient(DataOutputStream os, BufferedReader is, int mode) throws IOException
+	{
+		String bandName = is.readLine();
+		if (bandName == null)
+		{
+			os.writeBytes("notok\n");	//Connection closed before the band name
+			return;
+		}
+
+		if (mode == 1) // mode 1 means that songs have been requested from the client
+		{
+			startSongs(bandName);
+			store.streamSongs(bandName, song -> {
+				songsSent.add(song.getName());
+				os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n"); 	//Performer is useless, it's bandName
+			});
+			os.writeBytes("endsongs\n"); 	//end of iteration
+
+		}else  		   // mode 0 means that events have been requested from the client
+		{
+			startEvents(bandName);
+			store.streamEvents(bandName, event -> {
+				eventsSent.add(event.getName());
+				os.writeBytes(event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n"); 	//Performer is useless, it's bandName
+			});
+			os.writeBytes("endevents\n");	//end of iteration
+		}
+	}
+
+	/**
+	 * Function to bring up to date the copy of the songs or of the events of a band kept by the client (see BandCopy).
+	 * The client sends the band and the version of its copy (empty if it has none). The response is
+	 * "delta" followed by the changes made after the version of the copy (lines like the ones pushed
+	 * to the subscribed clients, see ChangeHub), or "full" followed by the whole list like sendDataToClient()
+	 * when the changes are not all in the log anymore; then "endsongs" or "endevents" and the version of the list.
+	 * The version comes after the list so that it is -1 when the whole list couldn't be read, or was read
+	 * from a snapshot of a previous run (see RepertoireStore.isCurrent()): the client must not keep such a list.
+	 * Unlike show_songs and show_events, the copy of the other list is not forgotten: the client keeps both.
+	 *
+	 * @param os DataOutputStream for sending the changes or the list to the client.
+	 * @param is BufferedReader for reading the band and the version sent by the client.
+	 * @param mode Int specifies if songs have been requested (mode=1) or events have been requested (mode=0)
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public void sendSyncToClient(DataOutputStream os, BufferedReader is, int mode) throws IOException
+	{
+		String bandName = is.readLine();
+		String versionLine = is.readLine();
+		long since;
+		try {
+			since = versionLine == null ? -1 : Long.parseLong(versionLine.trim());
+		} catch (NumberFormatException e) {
+			since = -1;		//No copy, the whole list
+		}
+		if (bandName == null)
+		{
+			os.writeBytes("notok\n");	//Connection closed before the band name
+			return;
+		}
+
+		if (mode == 1) // mode 1 means that songs have been requested from the client
+		{
+			ChangeHub.Delta delta = server.getChanges().songsSince(bandName, since);
+			Set<String> names = new HashSet<>();
+			long version = delta.getVersion();
+			if (delta.getChanges() == null)
+			{
+				os.writeBytes("full\n");
+				boolean current = store.isCurrent();	//Asked before reading, a snapshot lacks the last changes
+				boolean read = store.streamSongs(bandName, song -> {
+					names.add(song.getName());
+					os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n");
+				});
+				if (!read || !current)
+				{
+					version = -1;	//The client can't keep the list
+				}
+			}else {
+				os.writeBytes("delta\n");
+				for (String change : delta.getChanges())
+				{
+					os.writeBytes(change+"\n");
+				}
+				if (bandName.equals(songsBand) && since == songsVersion)
+				{
+					names.addAll(songsSent);	//Names of the copy, changed like the copy
+					applyChanges(names, delta.getChanges());
+				}else {
+					store.streamSongs(bandName, song -> names.add(song.getName()));	//Copy made in another session: the names of the store
+				}
+			}
+			songsBand = bandName;
+			songsSent = names;
+			songsVersion = version;
+			os.writeBytes("endsongs "+version+"\n");
+
+		}else  		   // mode 0 means that events have been requested from the client
+		{
+			ChangeHub.Delta delta = server.getChanges().eventsSince(bandName, since);
+			Set<String> names = new HashSet<>();
+			long version = delta.getVersion();
+			if (delta.getChanges() == null)
+			{
+				os.writeBytes("full\n");
+				boolean current = store.isCurrent();	//Asked before reading, a snapshot lacks the last changes
+				boolean read = store.streamEvents(bandName, event -> {
+					names.add(event.getName());
+					os.writeBytes(event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n");
+				});
+				if (!read || !current)
+				{
+					version = -1;	//The client can't keep the list
+				}
+			}else {
+				os.writeBytes("delta\n");
+				for (String change : delta.getChanges())
+				{
+					os.writeBytes(change+"\n");
+				}
+				if (bandName.equals(eventsBand) && since == eventsVersion)
+				{
+					names.addAll(eventsSent);	//Names of the copy, changed like the copy
+					applyChanges(names, delta.getChanges());
+				}else {
+					store.streamEvents(bandName, event -> names.add(event.getName()));	//Copy made in another session: the names of the store
+				}
+			}
+			eventsBand = bandName;
+			eventsSent = names;
+			eventsVersion = version;
+			os.writeBytes("endevents "+version+"\n");
+		}
+	}
+
+	/**
+	 * Function to apply changes (see ChangeHub) to the names of a list.
+	 *
+	 * @param names The names of the songs or of the events.
+	 * @param changes The lines of the changes, in order.
+	 */
+	private static void applyChanges(Set<String> names, List<String> changes)
+	{
+		for (String change : changes)
+		{
+			String[] parts = change.split(" ");
+			if (parts[0].endsWith("_added"))
+			{
+				names.add(parts[1]);
+			}else {
+				names.remove(parts[1]);
+			}
+		}
+	}
+
+	/**
+	 * Function to send everything about a band with a single command: a line with the number of songs,
+	 * the total length of the setlist and the date of the next event ("none" if there isn't one),
+	 * then the first BAND_ROWS songs ending with "endsongs" and the first BAND_ROWS events ending with "endevents",
+	 * sorted by name; the client asks for the others by pages (see sendPageToClient()).
+	 * The store reads songs and events together (see RepertoireStore.getBand()).
+	 *
+	 * @param os DataOutputStream object used to send the data to the client.
+	 * @param is BufferedReader for reading the band name sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendBandToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+		if (bandName == null)
+		{
+			os.writeBytes("notok\n");	//Connection closed before the band name
+			return;
+		}
+
+		startBand(bandName);
+		BandOverview band = store.getBand(bandName);
+		if (band == null)
+		{
+			band = new BandOverview(bandName, new ArrayList<>(), new ArrayList<>());	//Store not readable, nothing to show
+		}
+		LocalDate next = band.getNextEventDate(LocalDate.now());
+		os.writeBytes(band.getSongCount()+" "+band.getTotalLength()+" "+(next == null ? "none" : next.format(BandOverview.DATE_FORMAT))+"\n");
+
+		List<Song> songs = band.getSongs();	//Sorted by name by the store, like the pages
+		for (Song song : songs.subList(0, Math.min(BAND_ROWS, songs.size())))
+		{
+			songsSent.add(song.getName());
+			os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n");
+		}
+		os.writeBytes("endsongs\n");
+		List<Event> events = band.getEvents();
+		for (Event event : events.subList(0, Math.min(BAND_ROWS, events.size())))
+		{
+			eventsSent.add(event.getName());
+			os.writeBytes(event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n");
+		}
+		os.writeBytes("endevents\n");
+	}
+
+	/**
+	 * Function to send a page of the songs or events of a band, sorted by name, as sendDataToClient() does.
+	 * The client sends the band name, where the page starts and the maximum number of rows (at most PAGE_MAX).
+	 * The start is a number of rows to skip ("show_songs_page", "show_events_page") or the name of the last row
+	 * of the previous page, empty for the first one ("show_songs_after", "show_events_after"): the latter doesn't
+	 * skip or repeat rows when the list changes between pages and doesn't read the skipped rows.
+	 * The names sent are remembered for the next removals, together with the previous pages of the same band.
+	 *
+	 * @param os DataOutputStream object used to send the rows to the client.
+	 * @param is BufferedReader for reading the arguments sent by the client.
+	 * @param mode Int specifies if songs have been requested (mode=1) or events have been requested (mode=0)
+	 * @param keyset true if the page starts after a name, false if it starts after a number of rows.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendPageToClient(DataOutputStream os, BufferedReader is, int mode, boolean keyset) throws IOException
+	{
+		String bandName = is.readLine();
+		String start = is.readLine();
+		String limitLine = is.readLine();
+		if (bandName == null)
+		{
+			os.writeBytes("notok\n");	//Connection closed before the band name
+			return;
+		}
+
+		String after = null;
+		int offset = 0;
+		int limit = 0;	//Empty page if the connection closed before the start or the limit
+		if (start != null && limitLine != null)
+		{
+			try {
+				if (keyset)
+				{
+					after = start;	//Empty for the first page, before every name
+				}else {
+					offset = Math.max(0, Integer.parseInt(start.trim()));
+				}
+				limit = Math.min(PAGE_MAX, Math.max(0, Integer.parseInt(limitLine.trim())));
+			} catch (NumberFormatException e) {
+				limit = 0;	//Invalid request, empty page
+			}
+		}
+
+		if (mode == 1) // mode 1 means that songs have been requested from the client
+		{
+			if (!bandName.equals(songsBand))
+			{
+				startSongs(bandName);
+			}
+			List<Song> page = limit == 0 ? null : store.getSongsPage(bandName, after, offset, limit);
+			for (Song song : page == null ? new ArrayList<Song>() : page)
+			{
+				songsSent.add(song.getName());
+				os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n");
+			}
+			os.writeBytes("endsongs\n");
+
+		}else  		   // mode 0 means that events have been requested from the client
+		{
+			if (!bandName.equals(eventsBand))
+			{
+				startEvents(bandName);
+			}
+			List<Event> page = limit == 0 ? null : store.getEventsPage(bandName, after, offset, limit);
+			for (Event event : page == null ? new ArrayList<Event>() : page)
+			{
+				eventsSent.add(event.getName());
+				os.writeBytes(event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n");
+			}
+			os.writeBytes("endevents\n");
+		}
+	}
+
+	/**
+	 * Function to send the songs of a band satisfying a filter, in the order it asks (see SongFilter).
+	 * The client sends the band name and the filter; the answer is "notok" if the filter is not valid,
+	 * otherwise "ok" followed by the songs as sent by sendDataToClient(), at most PAGE_MAX.
+	 * The names sent are remembered for the next removals, together with the songs of the same band sent before.
+	 *
+	 * @param os DataOutputStream object used to send the songs to the client.
+	 * @param is BufferedReader for reading the arguments sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendFilteredToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+		String filterLine = is.readLine();
+		if (bandName == null)
+		{
+			os.writeBytes("notok\n");	//Connection closed before the band name
+			return;
+		}
+
+		SongFilter filter;
+		try {
+			filter = SongFilter.parse(filterLine == null ? "" : filterLine, PAGE_MAX);
+		} catch (IllegalArgumentException e) {
+			os.writeBytes("notok\n");	//Invalid filter
+			return;
+		}
+		os.writeBytes("ok\n");
+
+		if (!bandName.equals(songsBand))
+		{
+			startSongs(bandName);
+		}
+		List<Song> songs = store.findSongs(bandName, filter);
+		for (Song song : songs == null ? new ArrayList<Song>() : songs)
+		{
+			songsSent.add(song.getName());
+			os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n");
+		}
+		os.writeBytes("endsongs\n");
+	}
+
+	/**
+	 * Function to send the songs and events whose words begin with every term of a query (see SearchIndex).
+	 * The client sends the band searched, empty for every band, and the query; the answer is a line for each
+	 * song ("song performer name author length bpm") and event ("event performer name place date type") found,
+	 * at most SEARCH_ROWS, ending with "end".
+	 *
+	 * @param os DataOutputStream object used to send the results to the client.
+	 * @param is BufferedReader for reading the arguments sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendSearchToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+		String query = is.readLine();
+
+		List<SearchIndex.Hit> hits = query == null ? null : store.search(query, bandOrAll(bandName), SEARCH_ROWS);
+		for (SearchIndex.Hit hit : hits == null ? new ArrayList<SearchIndex.Hit>() : hits)
+		{
+			Song song = hit.getSong();
+			Event event = hit.getEvent();
+			if (song != null)
+			{
+				os.writeBytes("song "+song.getPerformer()+" "+song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n");
+			}else {
+				os.writeBytes("event "+event.getPerformer()+" "+event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n");
+			}
+		}
+		os.writeBytes("end\n");
+	}
+
+	/**
+	 * Function to send a setlist built for a band (see SetlistBuilder and SetlistRequest).
+	 * The client sends the band name and the request; the answer is "notok" if the request is not valid
+	 * or its opening or closing song is not a song of the band, otherwise "ok", a line with the number of songs,
+	 * the length of the setlist and its score, then the songs in the order they are played, as sent by
+	 * sendDataToClient(), ending with "endsongs".
+	 *
+	 * @param os DataOutputStream object used to send the setlist to the client.
+	 * @param is BufferedReader for reading the arguments sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendSetlistToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+		String requestLine = is.readLine();
+		if (bandName == null)
+		{
+			os.writeBytes("notok\n");	//Connection closed before the band name
+			return;
+		}
+
+		SetlistBuilder.Setlist setlist;
+		try {
+			SetlistRequest request = SetlistRequest.parse(requestLine == null ? "" : requestLine);
+			List<Song> songs = store.getSongs(bandName);
+			setlist = server.getSetlists().build(bandName, songs == null ? new ArrayList<Song>() : songs, request);
+		} catch (IllegalArgumentException e) {
+			os.writeBytes("notok\n");	//Invalid request
+			return;
+		}
+		os.writeBytes("ok\n");
+		os.writeBytes(setlist.getSongs().size()+" "+setlist.getTotalLength()+" "+String.format(Locale.ROOT, "%.3f", setlist.getScore())+"\n");
+		for (Song song : setlist.getSongs())
+		{
+			os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n");
+		}
+		os.writeBytes("endsongs\n");
+	}
+
+	/**
+	 * Function to send events of the calendar, which can span every band: a line for each event
+	 * ("performer name place date type") ending with "endevents".
+	 *
+	 * @param os DataOutputStream object used to send the events to the client.
+	 * @param events The events, null if the store can't be read (nothing is sent but the end).
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	private static void writeCalendar(DataOutputStream os, List<Event> events) throws IOException
+	{
+		for (Event event : events == null ? new ArrayList<Event>() : events)
+		{
+			os.writeBytes(event.getPerformer()+" "+event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n");
+		}
+		os.writeBytes("endevents\n");
+	}
+
+	/**
+	 * Function to send the next events of a band or of every band, from today, sorted by date (see EventCalendar).
+	 * The client sends the band name, empty for every band, and the number of events (at most PAGE_MAX);
+	 * the events are sent as by writeCalendar(), none if the number is not valid.
+	 *
+	 * @param os DataOutputStream object used to send the events to the client.
+	 * @param is BufferedReader for reading the arguments sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendUpcomingToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+		String countLine = is.readLine();
+
+		int count;
+		try {
+			count = countLine == null ? 0 : Math.min(PAGE_MAX, Math.max(0, Integer.parseInt(countLine.trim())));
+		} catch (NumberFormatException e) {
+			count = 0;	//Invalid request, no events
+		}
+		writeCalendar(os, count == 0 ? null : store.getUpcomingEvents(bandOrAll(bandName), LocalDate.now(), count));
+	}
+
+	/**
+	 * Function to send the events of a band or of every band between two dates, sorted by date (see EventCalendar).
+	 * The client sends the band name, empty for every band, and the first and last day ("15-08-2024");
+	 * the answer is "notok" if a day is not a date, otherwise "ok" followed by at most PAGE_MAX events
+	 * sent as by writeCalendar().
+	 *
+	 * @param os DataOutputStream object used to send the events to the client.
+	 * @param is BufferedReader for reading the arguments sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendBetweenToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+		LocalDate from = Event.parseDate(is.readLine());
+		LocalDate to = Event.parseDate(is.readLine());
+
+		if (from == null || to == null)
+		{
+			os.writeBytes("notok\n");	//Not a date
+			return;
+		}
+		os.writeBytes("ok\n");
+		writeCalendar(os, store.getEventsBetween(bandOrAll(bandName), from, to, PAGE_MAX));
+	}
+
+	/**
+	 * Function to send the double bookings of a band or of every band from today: the events on a day
+	 * when their band has other events (see EventCalendar). The client sends the band name, empty for every band;
+	 * at most PAGE_MAX events are sent as by writeCalendar(), sorted by band, date and name.
+	 *
+	 * @param os DataOutputStream object used to send the events to the client.
+	 * @param is BufferedReader for reading the band name sent by the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	public void sendConflictsToClient(DataOutputStream os, BufferedReader is) throws IOException
+	{
+		String bandName = is.readLine();
+
+		writeCalendar(os, store.getEventConflicts(bandOrAll(bandName), LocalDate.now(), PAGE_MAX));
+	}
+
+	/**
+	 * Reads the band of a query spanning every band when the client sends an empty name.
+	 *
+	 * @param bandName The name sent by the client.
+	 * @return The name, null for every band.
+	 */
+	private static String bandOrAll(String bandName)
+	{
+		return bandName == null || bandName.isEmpty() ? null : bandName;
+	}
+
+	/**
+	 * Function to send all band names available in the database.
+	 *
+	 * @param os DataOutputStream object used to send each product contained in the Productslist to the client.
+	 * @throws IOException If an error occurs while using the output stream.
+	 */
+	public void sendNamesToClient(DataOutputStream os) throws IOException
+	{
+		for (String name : bands())
+		{
+			os.writeBytes(name+"\n");
+		}
+		os.writeBytes("end\n");
+	}
+
+	/**
+	 * Executes a command of the text protocol, reading its arguments from the client and sending the response.
+	 * Used by the blocking service (run()) and by the NIO front end (NioServer), so both offer the same commands.
+	 *
+	 * @param command The command sent by the client.
+	 * @param os DataOutputStream for sending the response back to the client.
+	 * @param is BufferedReader for reading the arguments of the command.
+	 * @return false if the client asked to end the session ("back", "close", "quit"), true otherwise.
+	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 */
+	public boolean execute(String command, DataOutputStream os, BufferedReader is) throws IOException
+	{
+		switch (command) {
+		case "getbands":
+		{
+			//Function to send the band names to the client
+			this.sendNamesToClient(os);
+			break;
+		}
+		case "back":
+		{
+			//Return back to the main login interface
+			return false;
+		}
+		case "show_songs":
+		{
+			//Show songs of the specified band by the client (guest mode)
+			this.sendDataToClient(os, is, 1);
+			break;
+		}
+		case "show_events":
+		{
+			//Show events of the specified band by the client (guest mode)
+			this.sendDataToClient(os, is, 0);
+			break;
+		}
+		case "show_songs_page":
+		{
+			//Show a page of the songs of the specified band, by position
+			this.sendPageToClient(os, is, 1, false);
+			break;
+		}
+		case "show_songs_after":
+		{
+			//Show a page of the songs of the specified band, after a name
+			this.sendPageToClient(os, is, 1, true);
+			break;
+		}
+		case "show_events_page":
+		{
+			//Show a page of the events of the specified band, by position
+			this.sendPageToClient(os, is, 0, false);
+			break;
+		}
+		case "show_events_after":
+		{
+			//Show a page of the events of the specified band, after a name
+			this.sendPageToClient(os, is, 0, true);
+			break;
+		}
+		case "sync_songs":
+		{
+			//Send the changes of the songs of the specified band since the copy of the client
+			this.sendSyncToClient(os, is, 1);
+			break;
+		}
+		case "sync_events":
+		{
+			//Send the changes of the events of the specified band since the copy of the client
+			this.sendSyncToClient(os, is, 0);
+			break;
+		}
+		case "filter_songs":
+		{
+			//Show the songs of the specified band satisfying a filter, in the order it asks
+			this.sendFilteredToClient(os, is);
+			break;
+		}
+		case "search":
+		{
+			//Search songs and events of a band or of every band by the words they contain
+			this.sendSearchToClient(os, is);
+			break;
+		}
+		case "build_setlist":
+		{
+			//Build a setlist of the specified band for a gig
+			this.sendSetlistToClient(os, is);
+			break;
+		}
+		case "upcoming_events":
+		{
+			//Show the next events of the specified band, or of every band
+			this.sendUpcomingToClient(os, is);
+			break;
+		}
+		case "events_between":
+		{
+			//Show the events of the specified band, or of every band, between two dates
+			this.sendBetweenToClient(os, is);
+			break;
+		}
+		case "event_conflicts":
+		{
+			//Show the events booked on the same day by the specified band, or by every band
+			this.sendConflictsToClient(os, is);
+			break;
+		}
+		case "show_band":
+		{
+			//Show songs, events and figures of the specified band with one command (guest mode)
+			this.sendBandToClient(os, is);
+			break;
+		}
+		case "add_song":
+		{
+			//Add the specified song to the local list of songs
+			this.song_addToList(os, is);
+			break;
+		}
+		case "add_event":
+		{
+			//Add the specified event to the local list of events
+			this.event_addToList(os,is);
+			break;
+		}
+		case "remove_song":
+		{
+			//Remove the specified song to the local list of songs
+			this.song_removeFromList(os,is);
+			break;
+		}
+		case "remove_event":
+		{
+			//Remove the specified event to the local list of events
+			this.event_removeFromList(os,is);
+			break;
+		}
+		case "add_songs_batch":
+		{
+			//Add a list of songs with a single command
+			this.songs_addBatch(os, is);
+			break;
+		}
+		case "remove_songs_batch":
+		{
+			//Remove a list of songs with a single command
+			this.songs_removeBatch(os, is);
+			break;
+		}
+		case "add_events_batch":
+		{
+			//Add a list of events with a single command
+			this.events_addBatch(os, is);
+			break;
+		}
+		case "remove_events_batch":
+		{
+			//Remove a list of events with a single command
+			this.events_removeBatch(os, is);
+			break;
+		}
+		case "close":
+		{
+			//Close the client connection
+			return false;
+		}
+		case "quit":
+		{
+			//Close the service (and the connected client)
+			server.shutdown();
+			return false;
+		}
+		default:
+			//The invalid command is handled by the client
+			break;
+		}
+		return true;
+	}
+
+	/**
+	 * Tells how many lines a text command needs, the command itself included, so that a front end
+	 * reading the lines without blocking knows when the whole command has been received.
+	 *
+	 * @param lines The lines received so far, the first one is the command.
+	 * @return The number of lines of the whole command, -1 if it can't be known yet.
+	 */
+	public static int linesNeeded(List<String> lines)
+	{
+		switch (lines.get(0)) {
+		case "show_songs":
+		case "show_events":
+		case "show_band":
+		case "event_conflicts":
+		case "add_song":
+		case "add_event":
+		case "remove_song":
+		case "remove_event":
+			return 2;	//Command and one argument line
+		case "show_songs_page":
+		case "show_songs_after":
+		case "show_events_page":
+		case "show_events_after":
+			return 4;	//Command, band, start and limit
+		case "sync_songs":
+		case "sync_events":
+			return 3;	//Command, band and version of the copy
+		case "filter_songs":
+			return 3;	//Command, band and filter
+		case "search":
+			return 3;	//Command, band and query
+		case "build_setlist":
+			return 3;	//Command, band and request
+		case "upcoming_events":
+			return 3;	//Command, band and number of events
+		case "events_between":
+			return 4;	//Command, band, first and last day
+		case "add_songs_batch":
+		case "remove_songs_batch":
+		case "add_events_batch":
+		case "remove_events_batch":
+			if (lines.size() < 2)
+			{
+				return -1;	//Number of records not received yet
+			}
+			try {
+				int count = Integer.parseInt(lines.get(1).trim());
+				return count < 0 || count > MAX_BATCH ? 2 : 2 + count;	//Not valid: only the count is read, and refused
+			} catch (NumberFormatException e) {
+				return 2;
+			}
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * Function to read the first line sent by the client directly from the byte stream, so that
+	 * nothing after it is consumed and the stream can still be used by the binary protocol.
+	 *
+	 * @param in The input stream of the client.
+	 * @return The first line, null if the client disconnected before sending it.
+	 * @throws IOException If an error occurs while reading the stream.
+	 */
+	private static String readFirstLine(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) != '\n')
+		{
+			if (b == -1)
+			{
+				return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+			}
+			if (b != '\r')
+			{
+				line.write(b);
+			}
+		}
+		return line.toString(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Provides the service to a client speaking the binary protocol (see BinaryProtocol).
+	 * The first frame must be the login, then every request frame gets exactly one response frame.
+	 *
+	 * @param in DataInputStream for reading the frames sent by the client.
+	 * @param os DataOutputStream for sending the frames to the client.
+	 * @throws IOException If an error occurs while using the streams.
+	 */
+	private void serveBinary(DataInputStream in, DataOutputStream os) throws IOException
+	{
+		DataInputStream request = BinaryProtocol.readFrame(in);
+		if (request.readByte() != BinaryProtocol.LOGIN)
+		{
+			BinaryProtocol.sendStatus(os, "notok");
+			return;
+		}
+		boolean guest = request.readBoolean();
+		String user = request.readUTF();
+		String password = request.readUTF();
+
+		authentication = guest || login(user, password);  //Guest mode limitations are handled in the client side
+		BinaryProtocol.sendStatus(os, authentication ? "ok" : "notok");
+
+		while (authentication)
+		{
+			try {
+				request = BinaryProtocol.readFrame(in);
+			} catch (EOFException e) {
+				return;	//Client disconnected
+			}
+
+			switch (request.readByte()) {
+			case BinaryProtocol.GET_BANDS:
+				BinaryProtocol.sendStrings(os, BinaryProtocol.BANDS, bands());
+				break;
+			case BinaryProtocol.SHOW_SONGS:
+				BinaryProtocol.sendSongs(os, BinaryProtocol.SONGS, songsOf(request.readUTF()));
+				break;
+			case BinaryProtocol.SHOW_EVENTS:
+				BinaryProtocol.sendEvents(os, BinaryProtocol.EVENTS, eventsOf(request.readUTF()));
+				break;
+			case BinaryProtocol.ADD_SONG:
+				BinaryProtocol.sendStatus(os, addSong(BinaryProtocol.readSong(request)));
+				break;
+			case BinaryProtocol.ADD_EVENT:
+				BinaryProtocol.sendStatus(os, addEvent(BinaryProtocol.readEvent(request)));
+				break;
+			case BinaryProtocol.REMOVE_SONG:
+				BinaryProtocol.sendStatus(os, removeSong(request.readUTF()));
+				break;
+			case BinaryProtocol.REMOVE_EVENT:
+				BinaryProtocol.sendStatus(os, removeEvent(request.readUTF()));
+				break;
+			case BinaryProtocol.ADD_SONGS_BATCH:
+				BinaryProtocol.sendStrings(os, BinaryProtocol.RESULTS, Arrays.asList(addSongs(BinaryProtocol.readSongs(request))));
+				break;
+			case BinaryProtocol.REMOVE_SONGS_BATCH:
+				BinaryProtocol.sendStrings(os, BinaryProtocol.RESULTS, Arrays.asList(removeSongs(BinaryProtocol.readStrings(request))));
+				break;
+			case BinaryProtocol.ADD_EVENTS_BATCH:
+				BinaryProtocol.sendStrings(os, BinaryProtocol.RESULTS, Arrays.asList(addEvents(BinaryProtocol.readEvents(request))));
+				break;
+			case BinaryProtocol.REMOVE_EVENTS_BATCH:
+				BinaryProtocol.sendStrings(os, BinaryProtocol.RESULTS, Arrays.asList(removeEvents(BinaryProtocol.readStrings(request))));
+				break;
+			case BinaryProtocol.CLOSE:
+				return;
+			case BinaryProtocol.QUIT:
+				server.shutdown();	//Close the service (and the connected client)
+				return;
+			default:
+				BinaryProtocol.sendStatus(os, "notok");	//Unknown request
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Provides the service to the connected client.
+	 * The method handles authentication, allowing only authenticated users to use the service. Once authenticated,
+	 * the method processes client commands, such as displaying the list of available songs or events, sending requested
+	 * songs or events to the client, and adding new songs or events to the server's local lists.
+	 * The session ends when the client sends "back", "close" or "quit", or when the connection drops.
+	 * A connection opened with "subscribe" and a band is not a session: it is handed to the ChangeDispatcher,
+	 * which sends it the changes of the band, and this thread is free for another client.
+	 * Responses are gathered in a buffer and flushed once per command, so a long list costs a few
+	 * socket writes instead of one per line; Nagle's algorithm is disabled since every flush is a whole response.
+	 */
+	@Override
+	public void run()
+	{
+		boolean handedOver = false;  //True once the connection belongs to the ChangeDispatcher
+		try
+		{
+			client.setTcpNoDelay(true);  //Responses are already coalesced by the buffer, no need to delay them
+
+			InputStream      in = new BufferedInputStream(client.getInputStream());
+			DataOutputStream os = new DataOutputStream(new BufferedOutputStream(client.getOutputStream(), OUTPUT_BUFFER));
+
+			String guest_mode = readFirstLine(in);  //Reading if user is in guest mode or not, or wants the binary protocol
+
+			if(guest_mode == null)  //Client disconnected before saying anything
+			{
+				return;
+			}
+
+			if(guest_mode.equals(BinaryProtocol.HANDSHAKE))  //From now on only binary frames
+			{
+				os.writeBytes("ok\n");
+				os.flush();
+				serveBinary(new DataInputStream(in), os);  //Every frame is flushed when sent
+				return;
+			}
+
+			if(guest_mode.equals("subscribe"))  //Not a session: the changes of a band are pushed on this connection
+			{
+				String band = readFirstLine(in);
+				if(band != null && client.getChannel() != null && server.getDispatcher() != null)
+				{
+					server.getDispatcher().subscribe(client.getChannel(), band);  //The dispatcher answers "ok"
+					handedOver = true;
+				}
+				return;
+			}
+
+			BufferedReader   is = new BufferedReader(new InputStreamReader(in));
+
+			if(guest_mode.equals("noguest"))  //If user is not in guest mode, check if he's entered right credentials.
+			{
+				String client_user = is.readLine();
+				String password_client = is.readLine();
+
+				//Checking if user has entered the right credentials
+				authentication = login(client_user, password_client);
+				if(authentication)
+				{
+					os.writeBytes("ok\n");
+					os.flush();
+				}
+
+			}else // guest mode
+			{
+				authentication = true;  //If in guest mode, user can enter the service. Limitations are handled in the client side
+			}
+
+			if(authentication) //if authentication is propertly done or guest mode is active, service is ready to be used
+			{
+				boolean closed_client = false;
+				while(!closed_client)
+				{
+					String command = is.readLine(); //Input from the client
+
+					if(command == null) //Client disconnected without saying goodbye
+					{
+						break;
+					}
+
+					closed_client = !this.execute(command, os, is);
+					os.flush();  //The whole response in as few writes as possible
+				}
+
+			}else
+			{
+				os.writeBytes("notok\n");
+				os.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			if(!client.isClosed())  //Closed by the server when the service closes, nothing to report
+			{
+				e.printStackTrace();
+			}
+		}
+		finally
+		{
+			try {
+				if(!handedOver)
+				{
+					client.close();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
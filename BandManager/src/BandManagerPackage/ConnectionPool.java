@@ -0,0 +1,326 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for a pool of database connections.
+ * Instead of a single connection shared by every query, DataAcces borrows a connection from the pool
+ * for each operation and gives it back when done, so parallel client sessions don't wait on each other.
+ * The pool keeps between minSize and maxSize connections, validates a connection before lending it
+ * if it stayed idle longer than VALIDATION_IDLE (a round trip with the database, not paid by the busy ones),
+ * waits at most borrowTimeout for a free one and reports connections kept longer than leakThreshold;
+ * the place of the borrow is reported too only if traceBorrows is set, since capturing it costs a stack walk.
+ * Broken connections are thrown away and the pool is filled again up to minSize in background,
+ * so that after a restart of the database the pool gets back to its size.
+ * Works with any JDBC url (MySQL, or an embedded database for testing).
+ *
+ * @author Davide Reverberi
+ */
+public class ConnectionPool {
+
+	private static final int VALIDATION_TIMEOUT = 2;		//Seconds to wait for a connection to answer the validation
+	private static final long VALIDATION_IDLE = 5000;		//Idle time (ms) after which a connection is validated before lending it
+
+	static volatile boolean traceBorrows = false;	//Keep the stack of every borrow, to show where a leaked connection was borrowed
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final long borrowTimeoutMillis;
+	private final long leakThresholdMillis;
+	private final int minSize;
+
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();	//Connections ready to be borrowed
+	private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();			//Connections in use
+	private final Semaphore permits;	//One permit for every connection that can still be lent (maxSize in total)
+	private final ScheduledExecutorService leakDetector;
+	private volatile boolean closed = false;	//True once the pool has been closed
+
+	private final AtomicLong borrowCount = new AtomicLong();	//Number of borrows served
+	private final AtomicLong waitNanos = new AtomicLong();		//Total time spent waiting for a connection
+	private final AtomicLong maxWaitNanos = new AtomicLong();	//Longest wait for a connection
+	private final AtomicLong timeouts = new AtomicLong();		//Number of borrows failed for timeout
+	private final AtomicLong leaks = new AtomicLong();			//Number of leaked connections reported
+
+	/**
+	 * Constructor for the ConnectionPool class.
+	 * Opens minSize connections immediately and starts the leak detection.
+	 *
+	 * @param url JDBC url of the database.
+	 * @param user User of the database.
+	 * @param password Password of the user.
+	 * @param minSize Number of connections opened at startup and always kept.
+	 * @param maxSize Maximum number of connections open at the same time.
+	 * @param borrowTimeoutMillis Maximum time (ms) to wait for a free connection.
+	 * @param leakThresholdMillis Time (ms) after which a borrowed connection not given back is reported as leaked.
+	 * @throws SQLException If the first connections can't be opened.
+	 */
+	public ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+			long borrowTimeoutMillis, long leakThresholdMillis) throws SQLException
+	{
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.minSize = minSize;
+		this.permits = new Semaphore(maxSize, true);
+
+		for (int i = 0; i < minSize; i++)
+		{
+			idle.add(new PooledConnection(this, DriverManager.getConnection(url, user, password)));
+		}
+
+		leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pool-leak-detector");
+			t.setDaemon(true);
+			return t;
+		});
+		leakDetector.scheduleAtFixedRate(this::detectLeaks, leakThresholdMillis, leakThresholdMillis / 2, TimeUnit.MILLISECONDS);
+		leakDetector.scheduleAtFixedRate(this::refill, leakThresholdMillis, leakThresholdMillis, TimeUnit.MILLISECONDS);	//Retried until the database is back
+	}
+
+	/**
+	 * Borrows a connection from the pool, waiting at most borrowTimeout if all connections are in use.
+	 * A connection idle for longer than VALIDATION_IDLE is validated before being lent; broken ones are closed and replaced.
+	 * The connection must be given back by closing it (try-with-resources).
+	 *
+	 * @return A valid PooledConnection.
+	 * @throws SQLException If no connection gets free in time or a new one can't be opened.
+	 */
+	public PooledConnection borrow() throws SQLException
+	{
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS))
+			{
+				timeouts.incrementAndGet();
+				throw new SQLException("Connection pool: no connection available after " + borrowTimeoutMillis + " ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Connection pool: interrupted while waiting for a connection", e);
+		}
+
+		long waited = System.nanoTime() - start;
+		waitNanos.addAndGet(waited);
+		maxWaitNanos.accumulateAndGet(waited, Math::max);
+		borrowCount.incrementAndGet();
+
+		try {
+			PooledConnection pc;
+			while ((pc = idle.pollFirst()) != null)
+			{
+				if (System.currentTimeMillis() - pc.getReleaseTime() <= VALIDATION_IDLE
+						|| pc.getConnection().isValid(VALIDATION_TIMEOUT))  //Validation on borrow, only after a long idle time
+				{
+					break;
+				}
+				pc.closePhysically();  //Broken connection, throw it away
+				refillLater();
+			}
+			if (pc == null)  //No idle connection, opening a new one
+			{
+				pc = new PooledConnection(this, DriverManager.getConnection(url, user, password));
+			}
+			pc.markBorrowed(traceBorrows ? new Throwable("Connection borrowed here") : null);
+			borrowed.add(pc);
+			return pc;
+
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a borrowed connection back to the pool, where it stays open for the next borrow.
+	 * Called by PooledConnection.close(), not directly by the users of the pool.
+	 *
+	 * @param pc The connection to give back.
+	 */
+	void release(PooledConnection pc)
+	{
+		if (!borrowed.remove(pc))
+		{
+			return;  //Already given back
+		}
+		try {
+			if (closed || pc.getConnection().isClosed())
+			{
+				pc.closePhysically();
+				refillLater();
+			}else {
+				if (!pc.getConnection().getAutoCommit())
+				{
+					pc.getConnection().rollback();
+					pc.getConnection().setAutoCommit(true);
+				}
+				pc.markReleased();
+				idle.addFirst(pc);  //Most recently used first, keeps the warm connections busy
+			}
+		} catch (SQLException e) {
+			pc.closePhysically();
+			refillLater();
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Asks the background thread of the pool to fill it again, after a connection has been thrown away.
+	 * The borrower or the releaser doesn't wait for the new connection to be opened.
+	 */
+	private void refillLater()
+	{
+		if (!closed)
+		{
+			leakDetector.execute(this::refill);
+		}
+	}
+
+	/**
+	 * Opens idle connections until the pool has minSize connections again. If the database can't be reached
+	 * the pool stays smaller, and the next refill (on schedule or after another broken connection) tries again.
+	 */
+	private void refill()
+	{
+		try {
+			while (!closed && idle.size() + borrowed.size() < minSize)
+			{
+				idle.addLast(new PooledConnection(this, DriverManager.getConnection(url, user, password)));
+			}
+		} catch (SQLException e) {
+			//Database not reachable yet
+		}
+	}
+
+	/**
+	 * Reports every connection borrowed for longer than leakThreshold, with the place where it was borrowed
+	 * if traceBorrows is set.
+	 */
+	private void detectLeaks()
+	{
+		long now = System.currentTimeMillis();
+		for (PooledConnection pc : borrowed)
+		{
+			if (!pc.isLeakReported() && now - pc.getBorrowTime() > leakThresholdMillis)
+			{
+				pc.setLeakReported();
+				leaks.incrementAndGet();
+				System.out.println("Connection pool: connection borrowed " + (now - pc.getBorrowTime()) + " ms ago not given back");
+				if (pc.getBorrowStack() != null)
+				{
+					pc.getBorrowStack().printStackTrace();
+				}else {
+					System.out.println("Connection pool: start with \"pooltrace=true\" to see where it was borrowed");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Closes every idle connection and stops the leak detection.
+	 * Borrowed connections are closed when given back.
+	 */
+	public void close()
+	{
+		closed = true;
+		leakDetector.shutdownNow();
+		PooledConnection pc;
+		while ((pc = idle.pollFirst()) != null)
+		{
+			pc.closePhysically();
+		}
+	}
+
+	/**
+	 * Gets the number of connections currently borrowed.
+	 *
+	 * @return The number of active connections.
+	 */
+	public int getActiveCount()
+	{
+		return borrowed.size();
+	}
+
+	/**
+	 * Gets the number of open connections ready to be borrowed.
+	 *
+	 * @return The number of idle connections.
+	 */
+	public int getIdleCount()
+	{
+		return idle.size();
+	}
+
+	/**
+	 * Gets the average time spent by a borrow waiting for a free connection.
+	 *
+	 * @return The average wait time in milliseconds.
+	 */
+	public double getAverageWaitMillis()
+	{
+		long count = borrowCount.get();
+		return count == 0 ? 0 : waitNanos.get() / 1_000_000.0 / count;
+	}
+
+	/**
+	 * Gets the longest time spent by a borrow waiting for a free connection.
+	 *
+	 * @return The maximum wait time in milliseconds.
+	 */
+	public double getMaxWaitMillis()
+	{
+		return maxWaitNanos.get() / 1_000_000.0;
+	}
+
+	/**
+	 * Gets the number of borrows failed because no connection got free in time.
+	 *
+	 * @return The number of timeouts.
+	 */
+	public long getTimeoutCount()
+	{
+		return timeouts.get();
+	}
+
+	/**
+	 * Gets the number of leaked connections reported so far.
+	 *
+	 * @return The number of leaks.
+	 */
+	public long getLeakCount()
+	{
+		return leaks.get();
+	}
+
+	/**
+	 * Returns a string representation of the pool metrics.
+	 *
+	 * @return A string with active, idle, borrows, wait times, timeouts and leaks.
+	 */
+	@Override
+	public String toString() {
+		return "active=" + getActiveCount() + " idle=" + getIdleCount() + " borrows=" + borrowCount.get()
+			+ " avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) + " maxWaitMs=" + String.format("%.3f", getMaxWaitMillis())
+			+ " timeouts=" + getTimeoutCount() + " leaks=" + getLeakCount();
+	}
+}
@@ -16,11 +16,14 @@ package BandManagerPackage;
  * 
  */
 
+import java.io.IOException;
 import java.sql.*;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class for Database operation.
@@ -31,21 +34,84 @@ import java.util.List;
  */
 public class DataAcces {
 	
-	static Connection connection = null;
-	public static List<Song> songsList = new ArrayList<>(); 	//List of songs passed to the server Logic 
-	public static List<Event> eventsList = new ArrayList<>();	//List og events passed to the server Logic
-	public static List<String> performers = new ArrayList<>();	//List of performers available 
+	private static final int POOL_MIN_SIZE = 2;				//Connections opened at startup
+	private static final int POOL_MAX_SIZE = 20;			//Maximum connections open at the same time
+	private static final long POOL_BORROW_TIMEOUT = 5000;	//Maximum wait (ms) for a free connection
+	private static final long POOL_LEAK_THRESHOLD = 30000;	//Time (ms) after which a borrowed connection is reported as leaked
+	
+	static ConnectionPool pool = null;	//Pool of connections used by every query
+	
+	private static final int CACHE_MAX_BANDS = 256;				//Maximum number of performers kept in each cache
+	private static final long CACHE_TTL = 5 * 60 * 1000;		//Time (ms) after which a cached list is read again from the database
+	
+	//Songs and events lists already read from the database, by performer
+	static final RepertoireCache<Song> songsCache = new RepertoireCache<>(CACHE_MAX_BANDS, CACHE_TTL);
+	static final RepertoireCache<Event> eventsCache = new RepertoireCache<>(CACHE_MAX_BANDS, CACHE_TTL);
+	
+	//Read queries, parameterized so that each connection prepares them once
+	private static final String SONGS_QUERY = "SELECT Name, Author, Length, BPM FROM songs WHERE Performer = ? ORDER BY Name";
+	private static final String EVENTS_QUERY = "SELECT Name, Place, DATE_FORMAT(Date, '%e-%m-%Y') AS Date, Type FROM events WHERE Performer = ? ORDER BY Name";
+	private static final String PERFORMERS_QUERY = "SELECT Performer, COUNT(*) AS Total FROM "
+			+ "(SELECT Performer FROM songs UNION ALL SELECT Performer FROM events) AS p GROUP BY Performer";
+	//Songs and events of a band in one round trip, Kind tells them apart ('S' or 'E')
+	private static final String BAND_QUERY = "SELECT 'S' AS Kind, Name, Author AS Info, Length, BPM, NULL AS Date, NULL AS Type FROM songs WHERE Performer = ? "
+			+ "UNION ALL SELECT 'E', Name, Place, NULL, NULL, DATE_FORMAT(Date, '%e-%m-%Y'), Type FROM events WHERE Performer = ? ORDER BY Name";
+	//Pages of a band, read through the (Performer, Name) key: by position, or after a name (keyset)
+	private static final String SONGS_PAGE_QUERY = "SELECT Name, Author, Length, BPM FROM songs WHERE Performer = ? ORDER BY Name LIMIT ? OFFSET ?";
+	private static final String SONGS_AFTER_QUERY = "SELECT Name, Author, Length, BPM FROM songs WHERE Performer = ? AND Name > ? ORDER BY Name LIMIT ?";
+	private static final String EVENTS_PAGE_QUERY = "SELECT Name, Place, DATE_FORMAT(Date, '%e-%m-%Y') AS Date, Type FROM events WHERE Performer = ? ORDER BY Name LIMIT ? OFFSET ?";
+	private static final String EVENTS_AFTER_QUERY = "SELECT Name, Place, DATE_FORMAT(Date, '%e-%m-%Y') AS Date, Type FROM events WHERE Performer = ? AND Name > ? ORDER BY Name LIMIT ?";
+	
+	static int streamFetchSize = 500;				//Rows read with each connection borrowed while streaming a list
+	static int streamCacheLimit = 2000;				//Streamed lists up to this size are also kept in the cache
+	
+	public static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/bandmanagerdb?"; 	//Database used when no other is given
+	
+	//Songs added inconditionally *****REMOVE IF NOT IN DEMO MODE*****
+	static final Song[] DEMO_SONGS = {
+		new Song("Confortably_Numb", "Pink_Floyd", 6.19f, 127, "Whisky&Lo"),
+		new Song("StrongerThanMe", "AmyWinehouse", 3.34f, 91, "SkyGround"),
+		new Song("Trouble", "JoseJames", 3.29f, 89, "SkyGround"),
+		new Song("Crazy", "ScaryPockets", 2.44f, 98, "SkyGround"),
+		new Song("BillieJean", "MichealJackson", 4.54f, 117, "PollyValentine"),
+		new Song("Golden_Hour", "Yuji", 3.25f, 82, "PollyValentine"),
+		new Song("As_It_Was", "HarryStyles", 2.47f, 174, "PollyValentine"),
+		new Song("Mortiz", "RenouxSanchez", 3.45f, 90, "BassaNuova"),
+		new Song("DomingoSol", "JohnGood", 2.20f, 80, "BassaNuova"),
+		new Song("Imaginating", "BassaNuova", 5.20f, 70, "BassaNuova"),
+		new Song("Stand_By_Me", "Weezer", 3.01f, 119, "FreshCyl"),
+	};
+	
+	//Events added inconditionally *****REMOVE IF NOT IN DEMO MODE*****
+	static final Event[] DEMO_EVENTS = {
+		new Event("Manifesto_Rock", "ViaFrancia_Milano", "1-07-2024", "Concerto", "BassaNuova"),
+		new Event("MagretaInFestival", "Magreta_Modena", "15-08-2024", "FieraDiPaese", "BassaNuova"),
+		new Event("Matrimonio_Maf", "Agriturismo_QuerciaRossa", "15-06-2024", "Matrimonio", "PollyValentine"),
+		new Event("LouFestival", "ViaCorazzata_Modena", "23-09-2024", "Festival", "BassaNuova"),
+		new Event("ManzoMusic", "ViaBrigate_Reggio", "21-10-2024", "Concerto", "FreshCyl"),
+	};
+	
+	/**
+	 * Costructor used for making the the connection with the default database.
+	 */
+	public DataAcces()
+	{
+		this(DEFAULT_URL);
+	}
 	
 	/**
 	 * Costructor used for making the the connection with the database.
-	 * If database not exist, a new one is been created.
+	 * If database not exist, a new one is been created; the tables are created or brought to the
+	 * latest schema by SchemaMigrator: if the migration fails the pool is closed and the startup stops,
+	 * the server must not serve a schema changed halfway.
 	 * If the connection goes bad, higher levels are informed.	
 	 * 
+	 * @param url The JDBC url of the database, ending with '?' or '&' so the connection arguments can follow.
 	 */
-    public DataAcces()
+    public DataAcces(String url)
     {
-    	String url = "jdbc:mysql://localhost:3306/bandmanagerdb?"; 	//Change this to change the referenced database
-    	String ARGS = "createDatabaseIfNotExist=true&serverTimezone=UTC"; 	//Feature used to create a new database if not exist
+    	String ARGS = "createDatabaseIfNotExist=true&serverTimezone=UTC" 	//Feature used to create a new database if not exist
+    			+ "&useServerPrepStmts=true"; 	//Prepared statements parsed once by the server, reused through the statement cache
         String user = "root";
         String password = "";  
 
@@ -53,51 +119,21 @@ public class DataAcces {
             // Load the JDBC driver
             Class.forName("com.mysql.cj.jdbc.Driver");
 
-            // Making the connection
-            connection = DriverManager.getConnection(url + ARGS, user, password);
-            Statement stmt = connection.createStatement();
-            
-            String create1 = "CREATE TABLE IF NOT EXISTS songs (Name CHAR(40) PRIMARY KEY, Author CHAR(40), Length FLOAT, BPM INT(3), Performer CHAR(40))";
-            String create2 = "CREATE TABLE IF NOT EXISTS events (Name CHAR(40) PRIMARY KEY, Place CHAR(70), Date CHAR(15), Type CHAR(60), Performer CHAR(40))";
+            // Making the pool of connections
+            pool = new ConnectionPool(url + ARGS, user, password, POOL_MIN_SIZE, POOL_MAX_SIZE, POOL_BORROW_TIMEOUT, POOL_LEAK_THRESHOLD);
             
-            stmt.executeUpdate(create1);
-            stmt.executeUpdate(create2);
-            
-            // Songs to add inconditionally *****REMOVE IF NOT IN DEMO MODE*****
-            String[] songsToAdd = {
-            	    "('Confortably_Numb', 'Pink_Floyd', '6.19', '127', 'Whisky&Lo')",
-            	    "('StrongerThanMe', 'AmyWinehouse', '3.34', '91', 'SkyGround')",
-            	    "('Trouble', 'JoseJames', '3.29', '89', 'SkyGround')",
-            	    "('Crazy', 'ScaryPockets', '2.44', '98', 'SkyGround')",
-            	    "('BillieJean', 'MichealJackson', '4.54', '117', 'PollyValentine')",
-            	    "('Golden_Hour', 'Yuji', '3.25', '82', 'PollyValentine')",
-            	    "('As_It_Was', 'HarryStyles', '2.47', '174', 'PollyValentine')",
-            	    "('Mortiz', 'RenouxSanchez', '3.45', '90', 'BassaNuova')",
-            	    "('DomingoSol', 'JohnGood', '2.20', '80', 'BassaNuova')",
-            	    "('Imaginating', 'BassaNuova', '5.20', '70', 'BassaNuova')",
-            	    "('Stand_By_Me', 'Weezer', '3.01', '119', 'FreshCyl')",
-            	};
-
-            //*****REMOVE IF NOT IN DEMO MODE*****
-            for (String songData : songsToAdd) {
-            	String insertEvent = "INSERT IGNORE INTO songs (Name, Author, Length, BPM, Performer) VALUES " + songData;
-            	stmt.executeUpdate(insertEvent);
+            try (PooledConnection connection = pool.borrow()) {
+            	SchemaMigrator.migrate(connection.getConnection()); 	//Creating or updating the tables
+            } catch (SQLException e) {
+            	System.out.println("Database schema migration: FAILED");
+            	pool.close();
+            	pool = null;
+            	throw new IllegalStateException("The database schema can't be brought to the latest version", e);
             }
             
-            // Events to add inconditionally *****REMOVE IF NOT IN DEMO MODE*****
-            String[] eventsToAdd = {
-            	    "('Manifesto_Rock', 'ViaFrancia_Milano', '1-07-2024', 'Concerto', 'BassaNuova')",
-            	    "('MagretaInFestival', 'Magreta_Modena', '15-08-2024', 'FieraDiPaese', 'BassaNuova')",
-            	    "('Matrimonio_Maf', 'Agriturismo_QuerciaRossa', '15-06-2024', 'Matrimonio', 'PollyValentine')",
-            	    "('LouFestival', 'ViaCorazzata_Modena', '23-09-2024', 'Festival', 'BassaNuova')",
-            	    "('ManzoMusic', 'ViaBrigate_Reggio', '21-10-2024', 'Concerto', 'FreshCyl')"
-            	};
-
             //*****REMOVE IF NOT IN DEMO MODE*****
-            for (String eventData : eventsToAdd) {
-            	String insertEvent2 = "INSERT IGNORE INTO events (Name, Place, Date, Type, Performer) VALUES " + eventData;
-            	stmt.executeUpdate(insertEvent2);
-            }
+            addSongsBatchQuery(Arrays.asList(DEMO_SONGS));
+            addEventsBatchQuery(Arrays.asList(DEMO_EVENTS));
             
             System.out.println("Connection with database: DONE");
             
@@ -111,45 +147,55 @@ public class DataAcces {
     /**
      * Removes a song from the database based on the provided Song object.
      * This method executes a SQL DELETE query to remove the song from the 'songs' table
-     * where the name of the song matches the provided Song object's name.
+     * where the performer and the name of the song match the provided Song object's ones.
      *
      * @param s The Song object representing the song to be removed.
+     * @return The number of songs removed, 0 if not found, -1 if an SQL exception occurs.
      */
-    public static void removeSongQuery(Song s)
+    public static int removeSongQuery(Song s)
     {
-    	String remove_query = "DELETE FROM songs WHERE Name = ?";
+    	String remove_query = "DELETE FROM songs WHERE Performer = ? AND Name = ?";
     	
-    	try {
-    		PreparedStatement preparedStatement = connection.prepareStatement(remove_query);
-    		preparedStatement.setString(1, s.getName());
+    	try (PooledConnection connection = pool.borrow()) {
+    		PreparedStatement preparedStatement = connection.prepare(remove_query); 	//Cached statement of the connection
+    		preparedStatement.setString(1, s.getPerformer());
+    		preparedStatement.setString(2, s.getName());
     		
-    		preparedStatement.executeUpdate(); //Removing the song from the songs table in the db
+    		int changed = preparedStatement.executeUpdate(); //Removing the song from the songs table in the db
+    		songsCache.invalidate(s.getPerformer());
+    		return changed;
     		
     	}catch (SQLException e) {
 			e.printStackTrace();
 		}
+    	return -1;
     }
     
     /**
      * Removes an event from the database based on the provided Event object.
      * This method executes a SQL DELETE query to remove the event from the 'events' table
-     * where the name of the event matches the provided Event object's name.
+     * where the performer and the name of the event match the provided Event object's ones.
      *
      * @param s The Event object representing the event to be removed.
+     * @return The number of events removed, 0 if not found, -1 if an SQL exception occurs.
      */
-    public static void removeEventQuery(Event s)
+    public static int removeEventQuery(Event s)
     {
-    	String remove_query = "DELETE FROM events WHERE Name = ?";
+    	String remove_query = "DELETE FROM events WHERE Performer = ? AND Name = ?";
     	
-    	try {
-    		PreparedStatement preparedStatement = connection.prepareStatement(remove_query);
-    		preparedStatement.setString(1, s.getName());
+    	try (PooledConnection connection = pool.borrow()) {
+    		PreparedStatement preparedStatement = connection.prepare(remove_query); 	//Cached statement of the connection
+    		preparedStatement.setString(1, s.getPerformer());
+    		preparedStatement.setString(2, s.getName());
     		
-    		preparedStatement.executeUpdate(); //Removing the event from the events table in the db
+    		int changed = preparedStatement.executeUpdate(); //Removing the event from the events table in the db
+    		eventsCache.invalidate(s.getPerformer());
+    		return changed;
     		
     	}catch (SQLException e) {
 			e.printStackTrace();
 		}
+    	return -1;
     }
     
     /**
@@ -158,24 +204,30 @@ public class DataAcces {
      * with the specified attributes such as name, author, length, BPM, and performer.
      *
      * @param s The Song object representing the song to be added to the database.
+     * @return 1 if the song has been added, 0 if the song is already in the database, -1 if another SQL exception occurs.
      */
-    public static void addSongQuery(Song s)
+    public static int addSongQuery(Song s)
     {
     	String add_query = "INSERT INTO songs (Name, Author, Length, BPM, Performer) VALUES (?, ?, ?, ?, ?)";
     	
-    	try {
-    		PreparedStatement preparedStatement = connection.prepareStatement(add_query);
+    	try (PooledConnection connection = pool.borrow()) {
+    		PreparedStatement preparedStatement = connection.prepare(add_query); 	//Cached statement of the connection
     		preparedStatement.setString(1, s.getName());
     		preparedStatement.setString(2, s.getAuthor());
-    		preparedStatement.setFloat(3, s.getLength());
+    		preparedStatement.setInt(3, lengthToSeconds(s.getLength())); 	//Stored in seconds
     		preparedStatement.setInt(4, s.getBpm());
     		preparedStatement.setString(5, s.getPerformer());
     		
-    		preparedStatement.executeUpdate(); //Adding the song to the songs table in the DB
+    		int changed = preparedStatement.executeUpdate(); //Adding the song to the songs table in the DB
+    		songsCache.invalidate(s.getPerformer());
+    		return changed;
     		
+    	}catch (SQLIntegrityConstraintViolationException e) {
+    		return 0; 	//Same name already in the table
     	}catch (SQLException e) {
 			e.printStackTrace();
 		}
+    	return -1;
     }
     
     /**
@@ -184,56 +236,226 @@ public class DataAcces {
      * with the specified attributes such as name, place, date, type, and performer.
      *
      * @param s The Event object representing the event to be added to the database.
+     * @return 1 if the event has been added, 0 if the event is already in the database, -1 if another SQL exception occurs.
      */
-    public static void addEventQuery(Event s)
+    public static int addEventQuery(Event s)
     {
-    	String add_query = "INSERT INTO events (Name, Place, Date, Type, Performer) VALUES (?, ?, ?, ?, ?)";
+    	String add_query = "INSERT INTO events (Name, Place, Date, Type, Performer) VALUES (?, ?, STR_TO_DATE(?, '%d-%m-%Y'), ?, ?)";
     	
-    	try {
-    		PreparedStatement preparedStatement = connection.prepareStatement(add_query);
+    	try (PooledConnection connection = pool.borrow()) {
+    		PreparedStatement preparedStatement = connection.prepare(add_query); 	//Cached statement of the connection
     		preparedStatement.setString(1, s.getName());
     		preparedStatement.setString(2, s.getPlace());
-    		preparedStatement.setString(3, s.getDate());
+    		preparedStatement.setString(3, s.getDate()); 	//Converted to DATE by the query
     		preparedStatement.setString(4, s.getType());
     		preparedStatement.setString(5, s.getPerformer());
     		
-    		preparedStatement.executeUpdate(); //Adding the song to the songs table in the DB
+    		int changed = preparedStatement.executeUpdate(); //Adding the event to the events table in the DB
+    		eventsCache.invalidate(s.getPerformer());
+    		return changed;
+    		
+    	}catch (SQLIntegrityConstraintViolationException e) {
+    		return 0; 	//Same name already in the table
+    	}catch (SQLException e) {
+			e.printStackTrace();
+		}
+    	return -1;
+    }
+    
+    /**
+     * Adds a list of songs to the database in a single transaction.
+     * The songs are sent to the database as one JDBC batch of INSERT IGNORE queries, so a song
+     * already in the table is skipped without failing the others.
+     *
+     * @param songs The Song objects to be added to the database.
+     * @return For each song, 1 if added, 0 if already in the database; null if the whole batch failed.
+     */
+    public static int[] addSongsBatchQuery(List<Song> songs)
+    {
+    	String add_query = "INSERT IGNORE INTO songs (Name, Author, Length, BPM, Performer) VALUES (?, ?, ?, ?, ?)";
+    	
+    	try (PooledConnection connection = pool.borrow()) {
+    		connection.getConnection().setAutoCommit(false); 	//Single transaction for the whole batch
+    		PreparedStatement preparedStatement = connection.prepare(add_query);
+    		
+    		for (Song s : songs)
+    		{
+    			preparedStatement.setString(1, s.getName());
+    			preparedStatement.setString(2, s.getAuthor());
+    			preparedStatement.setInt(3, lengthToSeconds(s.getLength())); 	//Stored in seconds
+    			preparedStatement.setInt(4, s.getBpm());
+    			preparedStatement.setString(5, s.getPerformer());
+    			preparedStatement.addBatch();
+    		}
+    		int[] results = preparedStatement.executeBatch(); //Adding all the songs to the songs table in the DB
+    		connection.getConnection().commit();
+    		connection.getConnection().setAutoCommit(true);
+    		
+    		for (Song s : songs)
+    		{
+    			songsCache.invalidate(s.getPerformer());
+    		}
+    		return results;
+    		
+    	}catch (SQLException e) {
+			e.printStackTrace();
+		}
+    	return null;
+    }
+    
+    /**
+     * Removes a list of songs from the database in a single transaction.
+     * The songs are sent to the database as one JDBC batch of DELETE queries.
+     *
+     * @param songs The Song objects representing the songs to be removed.
+     * @return For each song, the number of rows removed (0 if it wasn't in the database); null if the whole batch failed.
+     */
+    public static int[] removeSongsBatchQuery(List<Song> songs)
+    {
+    	String remove_query = "DELETE FROM songs WHERE Performer = ? AND Name = ?";
+    	
+    	try (PooledConnection connection = pool.borrow()) {
+    		connection.getConnection().setAutoCommit(false); 	//Single transaction for the whole batch
+    		PreparedStatement preparedStatement = connection.prepare(remove_query);
+    		
+    		for (Song s : songs)
+    		{
+    			preparedStatement.setString(1, s.getPerformer());
+    			preparedStatement.setString(2, s.getName());
+    			preparedStatement.addBatch();
+    		}
+    		int[] results = preparedStatement.executeBatch(); //Removing all the songs from the songs table in the DB
+    		connection.getConnection().commit();
+    		connection.getConnection().setAutoCommit(true);
+    		
+    		for (Song s : songs)
+    		{
+    			songsCache.invalidate(s.getPerformer());
+    		}
+    		return results;
     		
     	}catch (SQLException e) {
 			e.printStackTrace();
 		}
+    	return null;
+    }
+    
+    /**
+     * Adds a list of events to the database in a single transaction.
+     * The events are sent to the database as one JDBC batch of INSERT IGNORE queries, so an event
+     * already in the table is skipped without failing the others.
+     *
+     * @param events The Event objects to be added to the database.
+     * @return For each event, 1 if added, 0 if already in the database; null if the whole batch failed.
+     */
+    public static int[] addEventsBatchQuery(List<Event> events)
+    {
+    	String add_query = "INSERT IGNORE INTO events (Name, Place, Date, Type, Performer) VALUES (?, ?, STR_TO_DATE(?, '%d-%m-%Y'), ?, ?)";
+    	
+    	try (PooledConnection connection = pool.borrow()) {
+    		connection.getConnection().setAutoCommit(false); 	//Single transaction for the whole batch
+    		PreparedStatement preparedStatement = connection.prepare(add_query);
+    		
+    		for (Event s : events)
+    		{
+    			preparedStatement.setString(1, s.getName());
+    			preparedStatement.setString(2, s.getPlace());
+    			preparedStatement.setString(3, s.getDate()); 	//Converted to DATE by the query
+    			preparedStatement.setString(4, s.getType());
+    			preparedStatement.setString(5, s.getPerformer());
+    			preparedStatement.addBatch();
+    		}
+    		int[] results = preparedStatement.executeBatch(); //Adding all the events to the events table in the DB
+    		connection.getConnection().commit();
+    		connection.getConnection().setAutoCommit(true);
+    		
+    		for (Event s : events)
+    		{
+    			eventsCache.invalidate(s.getPerformer());
+    		}
+    		return results;
+    		
+    	}catch (SQLException e) {
+			e.printStackTrace();
+		}
+    	return null;
+    }
+    
+    /**
+     * Removes a list of events from the database in a single transaction.
+     * The events are sent to the database as one JDBC batch of DELETE queries.
+     *
+     * @param events The Event objects representing the events to be removed.
+     * @return For each event, the number of rows removed (0 if it wasn't in the database); null if the whole batch failed.
+     */
+    public static int[] removeEventsBatchQuery(List<Event> events)
+    {
+    	String remove_query = "DELETE FROM events WHERE Performer = ? AND Name = ?";
+    	
+    	try (PooledConnection connection = pool.borrow()) {
+    		connection.getConnection().setAutoCommit(false); 	//Single transaction for the whole batch
+    		PreparedStatement preparedStatement = connection.prepare(remove_query);
+    		
+    		for (Event s : events)
+    		{
+    			preparedStatement.setString(1, s.getPerformer());
+    			preparedStatement.setString(2, s.getName());
+    			preparedStatement.addBatch();
+    		}
+    		int[] results = preparedStatement.executeBatch(); //Removing all the events from the events table in the DB
+    		connection.getConnection().commit();
+    		connection.getConnection().setAutoCommit(true);
+    		
+    		for (Event s : events)
+    		{
+    			eventsCache.invalidate(s.getPerformer());
+    		}
+    		return results;
+    		
+    	}catch (SQLException e) {
+			e.printStackTrace();
+		}
+    	return null;
     }
     
     /**
      * Retrieves a list of songs from the database for a specific performer.
-     * This method executes a SQL SELECT query to fetch songs from the 'songs' table
-     * where the performer matches the provided performer name.
+     * The list is taken from the songs cache if present, otherwise this method executes a SQL SELECT 
+     * query to fetch songs from the 'songs' table where the performer matches the provided performer name,
+     * and caches the result.
      *
      * @param performer The name of the performer whose songs are to be retrieved.
-     * @return A list of Song objects representing the songs performed by the specified performer, null if an SQL exception occurs.
+     * @return A read only list of Song objects representing the songs performed by the specified performer, null if an SQL exception occurs.
      */
     public static List<Song> getSongsQuery(String performer)
     {
-    	songsList.clear();
-		try {
+    	List<Song> cached = songsCache.get(performer);
+    	if (cached != null)
+    	{
+    		return cached;
+    	}
+    	long stamp = songsCache.stamp();
+    	
+    	List<Song> songsList = new ArrayList<>(); 	//List of songs passed to the server Logic, one per call so sessions don't share it
+		try (PooledConnection connection = pool.borrow()) {
 			
-	        Statement statement = connection.createStatement();
-	        ResultSet result = statement.executeQuery("SELECT * FROM songs WHERE performer = '"+ performer +"'");
+	        PreparedStatement statement = connection.prepare(SONGS_QUERY);
+	        statement.setString(1, performer);
+	        ResultSet result = statement.executeQuery();
 	        
             while (result.next()) {
                 String songName = result.getString("Name");
                 String songAuthor = result.getString("Author");
-                Float songLength = Float.parseFloat(result.getString("Length"));
-                Integer songBpm = Integer.parseInt(result.getString("BPM"));
+                float songLength = secondsToLength(result.getInt("Length"));
+                int songBpm = result.getInt("BPM");
 
                 //Adding the song in the local list.
                 Song song = new Song(songName, songAuthor, songLength, songBpm, performer); //Adding the songs in the local list.
                 songsList.add(song);
             }
-            statement.close();
             result.close();
             
-            return songsList; //returning the songs list to server
+            return songsCache.put(performer, songsList, stamp); //returning the songs list to server
             
 		} catch (SQLException e)
 		{
@@ -244,19 +466,28 @@ public class DataAcces {
     
     /**
      * Retrieves a list of events from the database for a specific performer.
-     * This method executes a SQL SELECT query to fetch events from the 'events' table
-     * where the performer matches the provided performer name.
+     * The list is taken from the events cache if present, otherwise this method executes a SQL SELECT 
+     * query to fetch events from the 'events' table where the performer matches the provided performer name,
+     * and caches the result.
      *
      * @param performer The name of the performer whose events are to be retrieved.
-     * @return A list of Song objects representing the events performed by the specified performer, null if an SQL exception occurs.
+     * @return A read only list of Event objects representing the events performed by the specified performer, null if an SQL exception occurs.
      */
     public static List<Event> getEventsQuery(String performer)
     {
-    	eventsList.clear();
-		try {
+    	List<Event> cached = eventsCache.get(performer);
+    	if (cached != null)
+    	{
+    		return cached;
+    	}
+    	long stamp = eventsCache.stamp();
+    	
+    	List<Event> eventsList = new ArrayList<>();	//List of events passed to the server Logic, one per call so sessions don't share it
+		try (PooledConnection connection = pool.borrow()) {
 			
-	        Statement statement = connection.createStatement();
-	        ResultSet result = statement.executeQuery("SELECT * FROM events WHERE performer = '"+ performer +"'");
+	        PreparedStatement statement = connection.prepare(EVENTS_QUERY);
+	        statement.setString(1, performer);
+	        ResultSet result = statement.executeQuery();
 	        
             while (result.next()) {
                 String eventName = result.getString("Name");
@@ -268,10 +499,9 @@ public class DataAcces {
                 Event event = new Event(eventName, eventPlace, eventDate, eventType, performer);
                 eventsList.add(event);
             }
-            statement.close();
             result.close();
             
-            return eventsList; //returning the songs list to server
+            return eventsCache.put(performer, eventsList, stamp); //returning the events list to server
             
 		} catch (SQLException e)
 		{
@@ -281,27 +511,320 @@ public class DataAcces {
     }
     
     /**
-     * Retrieves a list of performers from the database.
-     * This method executes a SQL SELECT query to fetch distinct performer names
-     * from the 'songs' table.
+     * Retrieves the songs and the events of a specific performer together.
+     * If both lists are in the caches nothing is read; otherwise both are read with a single query
+     * (one round trip to the database) and cached.
      *
-     * @return A list of strings representing the names of performers, returns null if an SQL exception occurs.
+     * @param performer The name of the performer whose songs and events are to be retrieved.
+     * @return The overview of the performer, null if an SQL exception occurs.
      */
-    public static List<String> getPerformers()
+    public static BandOverview getBandQuery(String performer)
     {
-    	performers.clear();
-		try {
+    	List<Song> cachedSongs = songsCache.get(performer);
+    	List<Event> cachedEvents = eventsCache.get(performer);
+    	if (cachedSongs != null && cachedEvents != null)
+    	{
+    		return new BandOverview(performer, cachedSongs, cachedEvents);
+    	}
+    	long songsStamp = songsCache.stamp();
+    	long eventsStamp = eventsCache.stamp();
+    	
+    	List<Song> songsList = new ArrayList<>();
+    	List<Event> eventsList = new ArrayList<>();
+		try (PooledConnection connection = pool.borrow()) {
 			
-	        Statement statement = connection.createStatement();
-	        ResultSet result = statement.executeQuery("SELECT DISTINCT performer FROM songs");
+	        PreparedStatement statement = connection.prepare(BAND_QUERY);
+	        statement.setString(1, performer);
+	        statement.setString(2, performer);
+	        try (ResultSet result = statement.executeQuery()) {
+	        	
+	        	while (result.next()) {
+	        		if (result.getString("Kind").equals("S"))
+	        		{
+	        			songsList.add(new Song(result.getString("Name"), result.getString("Info"),
+	        					secondsToLength(result.getInt("Length")), result.getInt("BPM"), performer));
+	        		}else {
+	        			eventsList.add(new Event(result.getString("Name"), result.getString("Info"),
+	        					result.getString("Date"), result.getString("Type"), performer));
+	        		}
+	        	}
+	        }
+	        
+	        return new BandOverview(performer, songsCache.put(performer, songsList, songsStamp),
+	        		eventsCache.put(performer, eventsList, eventsStamp));
+            
+		} catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+    }
+    
+    /**
+     * Retrieves a page of the songs of a specific performer, sorted by name.
+     * Pages are always read from the database, not from the cache: the order of the names is the one of the
+     * database collation, so the cursor of a page must be compared by the database.
+     * With a cursor only the rows of the page are read, through the (Performer, Name) key; a page by position
+     * also walks the rows it skips, so the cursor is preferable for far pages.
+     *
+     * @param performer The name of the performer whose songs are to be retrieved.
+     * @param after The name of the last song of the previous page, null to use the offset.
+     * @param offset The number of songs to skip, used without cursor.
+     * @param limit The maximum number of songs of the page.
+     * @return A list of at most limit songs, null if an SQL exception occurs.
+     */
+    public static List<Song> getSongsPageQuery(String performer, String after, int offset, int limit)
+    {
+    	List<Song> songsList = new ArrayList<>();
+		try (PooledConnection connection = pool.borrow()) {
+			
+	        PreparedStatement statement = connection.prepare(after == null ? SONGS_PAGE_QUERY : SONGS_AFTER_QUERY);
+	        statement.setString(1, performer);
+	        if (after == null)
+	        {
+	        	statement.setInt(2, limit);
+	        	statement.setInt(3, offset);
+	        }else {
+	        	statement.setString(2, after);
+	        	statement.setInt(3, limit);
+	        }
+	        try (ResultSet result = statement.executeQuery()) {
+	        	
+	        	while (result.next()) {
+	        		songsList.add(new Song(result.getString("Name"), result.getString("Author"),
+	        				secondsToLength(result.getInt("Length")), result.getInt("BPM"), performer));
+	        	}
+	        }
+	        return songsList;
+            
+		} catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+    }
+    
+    /**
+     * Retrieves a page of the events of a specific performer, sorted by name. Works like getSongsPageQuery().
+     *
+     * @param performer The name of the performer whose events are to be retrieved.
+     * @param after The name of the last event of the previous page, null to use the offset.
+     * @param offset The number of events to skip, used without cursor.
+     * @param limit The maximum number of events of the page.
+     * @return A list of at most limit events, null if an SQL exception occurs.
+     */
+    public static List<Event> getEventsPageQuery(String performer, String after, int offset, int limit)
+    {
+    	List<Event> eventsList = new ArrayList<>();
+		try (PooledConnection connection = pool.borrow()) {
+			
+	        PreparedStatement statement = connection.prepare(after == null ? EVENTS_PAGE_QUERY : EVENTS_AFTER_QUERY);
+	        statement.setString(1, performer);
+	        if (after == null)
+	        {
+	        	statement.setInt(2, limit);
+	        	statement.setInt(3, offset);
+	        }else {
+	        	statement.setString(2, after);
+	        	statement.setInt(3, limit);
+	        }
+	        try (ResultSet result = statement.executeQuery()) {
+	        	
+	        	while (result.next()) {
+	        		eventsList.add(new Event(result.getString("Name"), result.getString("Place"),
+	        				result.getString("Date"), result.getString("Type"), performer));
+	        	}
+	        }
+	        return eventsList;
+            
+		} catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+    }
+    
+    /**
+     * Retrieves the songs of a specific performer satisfying a filter (BPM and length ranges, author, name prefix),
+     * in the order it asks. If the songs of the performer are in the cache they are filtered there; otherwise
+     * the filter becomes a parameterized query, so only the matching songs are read from the database.
+     *
+     * @param performer The name of the performer whose songs are to be retrieved.
+     * @param filter The conditions, order and maximum number of the songs.
+     * @return A list of the matching songs, null if an SQL exception occurs.
+     */
+    public static List<Song> findSongsQuery(String performer, SongFilter filter)
+    {
+    	List<Song> cached = songsCache.get(performer);
+    	if (cached != null)
+    	{
+    		return filter.apply(cached);
+    	}
+    	
+    	List<Object> parameters = new ArrayList<>();
+    	String query = "SELECT Name, Author, Length, BPM FROM songs WHERE Performer = ?" + filter.toSql(parameters);
+    	List<Song> songsList = new ArrayList<>();
+		try (PooledConnection connection = pool.borrow()) {
+			
+	        PreparedStatement statement = connection.prepare(query); 	//One cached statement for each shape of filter
+	        statement.setString(1, performer);
+	        for (int i = 0; i < parameters.size(); i++)
+	        {
+	        	statement.setObject(i + 2, parameters.get(i));
+	        }
+	        try (ResultSet result = statement.executeQuery()) {
+	        	
+	        	while (result.next()) {
+	        		songsList.add(new Song(result.getString("Name"), result.getString("Author"),
+	        				secondsToLength(result.getInt("Length")), result.getInt("BPM"), performer));
+	        	}
+	        }
+	        return songsList;
+            
+		} catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+    }
+    
+    /**
+     * Streams the songs of a specific performer: each song is passed to the handler as soon as it is read,
+     * without building the whole list first. The rows are read streamFetchSize at a time, each piece through
+     * the (Performer, Name) key after the last name of the previous one (like getSongsPageQuery()), and the
+     * connection goes back to the pool before the piece is passed to the handler: a slow client only keeps
+     * the rows of one piece, not a connection of the pool.
+     * A cached list is streamed from the cache; otherwise the list read is cached only if it has
+     * at most streamCacheLimit songs.
+     *
+     * @param performer The name of the performer whose songs are to be streamed.
+     * @param handler The receiver of the songs.
+     * @return true if every song has been streamed, false if an SQL exception occurs.
+     * @throws IOException If the handler fails sending a song.
+     */
+    public static boolean streamSongsQuery(String performer, RepertoireStore.RowHandler<Song> handler) throws IOException
+    {
+    	List<Song> cached = songsCache.get(performer);
+    	if (cached != null)
+    	{
+    		for (Song song : cached)
+    		{
+    			handler.handle(song);
+    		}
+    		return true;
+    	}
+    	long stamp = songsCache.stamp();
+    	
+    	List<Song> songsList = new ArrayList<>();	//Copy for the cache, dropped once the limit is passed
+    	String after = null;	//Last name streamed, null before the first piece
+    	List<Song> piece;
+    	do {
+    		piece = getSongsPageQuery(performer, after, 0, streamFetchSize);	//Connection borrowed only while reading
+    		if (piece == null)
+    		{
+    			return false;
+    		}
+    		for (Song song : piece)
+    		{
+    			handler.handle(song);
+    			
+    			if (songsList != null)
+    			{
+    				songsList.add(song);
+    				if (songsList.size() > streamCacheLimit)
+    				{
+    					songsList = null;	//Too big for the cache
+    				}
+    			}
+    		}
+    		if (!piece.isEmpty())
+    		{
+    			after = piece.get(piece.size() - 1).getName();
+    		}
+    	} while (piece.size() == streamFetchSize);
+    	
+    	if (songsList != null)
+    	{
+    		songsCache.put(performer, songsList, stamp);
+    	}
+    	return true;
+    }
+    
+    /**
+     * Streams the events of a specific performer: each event is passed to the handler as soon as it is read,
+     * without building the whole list first. Works like streamSongsQuery().
+     *
+     * @param performer The name of the performer whose events are to be streamed.
+     * @param handler The receiver of the events.
+     * @return true if every event has been streamed, false if an SQL exception occurs.
+     * @throws IOException If the handler fails sending an event.
+     */
+    public static boolean streamEventsQuery(String performer, RepertoireStore.RowHandler<Event> handler) throws IOException
+    {
+    	List<Event> cached = eventsCache.get(performer);
+    	if (cached != null)
+    	{
+    		for (Event event : cached)
+    		{
+    			handler.handle(event);
+    		}
+    		return true;
+    	}
+    	long stamp = eventsCache.stamp();
+    	
+    	List<Event> eventsList = new ArrayList<>();	//Copy for the cache, dropped once the limit is passed
+    	String after = null;	//Last name streamed, null before the first piece
+    	List<Event> piece;
+    	do {
+    		piece = getEventsPageQuery(performer, after, 0, streamFetchSize);	//Connection borrowed only while reading
+    		if (piece == null)
+    		{
+    			return false;
+    		}
+    		for (Event event : piece)
+    		{
+    			handler.handle(event);
+    			
+    			if (eventsList != null)
+    			{
+    				eventsList.add(event);
+    				if (eventsList.size() > streamCacheLimit)
+    				{
+    					eventsList = null;	//Too big for the cache
+    				}
+    			}
+    		}
+    		if (!piece.isEmpty())
+    		{
+    			after = piece.get(piece.size() - 1).getName();
+    		}
+    	} while (piece.size() == streamFetchSize);
+    	
+    	if (eventsList != null)
+    	{
+    		eventsCache.put(performer, eventsList, stamp);
+    	}
+    	return true;
+    }
+    
+    /**
+     * Retrieves the performers from the database, with the number of their rows.
+     * This method executes a SQL SELECT query counting the songs and events of every performer
+     * in the 'songs' and 'events' tables, so performers having only events are included too.
+     *
+     * @return The number of songs plus events of each performer, null if an SQL exception occurs.
+     */
+    public static Map<String, Integer> getPerformerRows()
+    {
+    	Map<String, Integer> performers = new HashMap<>();	//Performers available and their rows
+		try (PooledConnection connection = pool.borrow()) {
+			
+	        PreparedStatement statement = connection.prepare(PERFORMERS_QUERY);
+	        ResultSet result = statement.executeQuery();
 	        
 	        while (result.next()) {
-                String performerName = result.getString("performer");
-                
-                //Adding the performer (band) in the local list.
-                performers.add(performerName);
+                performers.put(result.getString("Performer"), result.getInt("Total"));
             }
-            statement.close();
             result.close();
 	        
 	        return performers;
@@ -312,4 +835,90 @@ public class DataAcces {
 		}
 		return null;
     }
+    
+    /**
+     * Converts a song length as used by the program (minutes.seconds, 3.25 is 3 minutes and 25 seconds)
+     * to the seconds stored in the database.
+     * The length must be valid (see isValidLength()): the lengths sent by the clients are checked before,
+     * otherwise 3.75 would become 4 minutes and 15 seconds.
+     *
+     * @param length The length in minutes.seconds.
+     * @return The length in seconds.
+     */
+    static int lengthToSeconds(float length)
+    {
+    	int minutes = (int) length;
+    	return minutes * 60 + Math.round((length - minutes) * 100);
+    }
+    
+    /**
+     * Checks a song length as used by the program (minutes.seconds).
+     *
+     * @param length The length in minutes.seconds.
+     * @return true if the length is not negative and its seconds are below 60, false if not.
+     */
+    static boolean isValidLength(float length)
+    {
+    	int minutes = (int) length;
+    	return length >= 0 && Math.round((length - minutes) * 100) < 60;
+    }
+    
+    /**
+     * Reads a length written as minutes.seconds, like the filters and the setlist requests do.
+     *
+     * @param text The length, like "3.25".
+     * @return The length in seconds.
+     * @throws NumberFormatException If the text is not a number.
+     * @throws IllegalArgumentException If the length is not valid (see isValidLength()).
+     */
+    static int parseLength(String text)
+    {
+    	float length = Float.parseFloat(text);
+    	if (!isValidLength(length))
+    	{
+    		throw new IllegalArgumentException("Not a length in minutes.seconds: " + text);
+    	}
+    	return lengthToSeconds(length);
+    }
+    
+    /**
+     * Converts the seconds stored in the database to a song length as used by the program (minutes.seconds).
+     *
+     * @param seconds The length in seconds.
+     * @return The length in minutes.seconds.
+     */
+    static float secondsToLength(int seconds)
+    {
+    	return seconds / 60 + (seconds % 60) / 100f;
+    }
+    
+    /**
+     * Gets the pool of connections, to read its metrics (active, idle, wait time...).
+     *
+     * @return The ConnectionPool used by the queries, null if the connection with the database failed.
+     */
+    public static ConnectionPool getPool()
+    {
+    	return pool;
+    }
+    
+    /**
+     * Gets the cache of the songs lists, to read its counters (hits, misses, evictions).
+     *
+     * @return The RepertoireCache of the songs.
+     */
+    public static RepertoireCache<Song> getSongsCache()
+    {
+    	return songsCache;
+    }
+    
+    /**
+     * Gets the cache of the events lists, to read its counters (hits, misses, evictions).
+     *
+     * @return The RepertoireCache of the events.
+     */
+    public static RepertoireCache<Event> getEventsCache()
+    {
+    	return eventsCache;
+    }
 }
@@ -7,6 +7,11 @@
  */
 package BandManagerPackage;
 
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+
 /**
 * Represents a Event with a name, place, date, type and performer.
 * The class provides constructors for creating instances of the event,
@@ -15,11 +20,16 @@ package BandManagerPackage;
 */
 public class Event {
 	
+	static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("d-M-uuuu")
+			.withResolverStyle(ResolverStyle.STRICT);	//Format of the dates ("15-08-2024"), days not in the month refused
+	
 	private String name = null;
 	private String place = null;
 	private String date = null;
 	private String type = null;
 	private String performer = null;
+	private LocalDate localDate = null;		//Date read from the string, when first asked
+	private boolean dateRead = false;
 
 	public Event()
 	{
@@ -74,6 +84,40 @@ public class Event {
 		return this.date;
 	}
 	
+	 /**
+     * Gets the date of the event as a LocalDate, read from the string the first time.
+     *
+     * @return The date of the event, null if the string is not a date like "15-08-2024".
+     */
+	public LocalDate getLocalDate()
+	{
+		if (!dateRead)
+		{
+			localDate = parseDate(this.date);
+			dateRead = true;
+		}
+		return localDate;
+	}
+	
+	 /**
+     * Reads a date written like the dates of the events.
+     *
+     * @param text The date ("15-08-2024").
+     * @return The date, null if the text is not a date.
+     */
+	public static LocalDate parseDate(String text)
+	{
+		if (text == null)
+		{
+			return null;	//No date
+		}
+		try {
+			return LocalDate.parse(text, DATE_FORMAT);
+		} catch (DateTimeParseException e) {
+			return null;	//Not a date
+		}
+	}
+	
 	 /**
      * Gets the type of the event.
      *
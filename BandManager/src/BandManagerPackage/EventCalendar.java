@@ -0,0 +1,268 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class for the events of a store sorted by date, for every band together and for each band,
+ * used by the calendar commands: the next events, the events between two dates and the double bookings
+ * (events of a band on the same day). Each day points to its events, so a range of days is found
+ * without reading the others and its cost depends on the events returned.
+ * Events whose date is not a date like "15-08-2024" are left out.
+ * The calendar is changed by the store after every change (see IndexedRepertoireStore).
+ *
+ * @author Davide Reverberi
+ */
+public class EventCalendar {
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();	//Queries run together, changes alone
+	private final TreeMap<LocalDate, TreeMap<String, Event>> days = new TreeMap<>();	//Events of each day, by performer and name
+	private final Map<String, TreeMap<LocalDate, TreeMap<String, Event>>> bands = new HashMap<>();	//Events of each day of each performer, by name
+	private final Map<String, LocalDate> dates = new HashMap<>();		//Day of each event, by performer and name
+
+	/**
+	 * Builds the key of an event, unique in the store.
+	 *
+	 * @param performer The performer of the event.
+	 * @param name The name of the event.
+	 * @return The key, sorted by performer then by name.
+	 */
+	private static String key(String performer, String name)
+	{
+		return performer + "\n" + name;
+	}
+
+	/**
+	 * Adds an event, unless an event with the same performer and name is already in the calendar.
+	 *
+	 * @param e The event.
+	 */
+	public void add(Event e)
+	{
+		LocalDate date = e.getLocalDate();
+		if (date == null)
+		{
+			return;		//Not a date, not in the calendar
+		}
+		String key = key(e.getPerformer(), e.getName());
+		lock.writeLock().lock();
+		try {
+			if (dates.putIfAbsent(key, date) != null)
+			{
+				return;		//Already in, like in the store
+			}
+			days.computeIfAbsent(date, d -> new TreeMap<>()).put(key, e);
+			bands.computeIfAbsent(e.getPerformer(), p -> new TreeMap<>()).computeIfAbsent(date, d -> new TreeMap<>()).put(e.getName(), e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the event with the performer and the name of the given one (its date is not needed).
+	 *
+	 * @param e The event.
+	 */
+	public void remove(Event e)
+	{
+		String key = key(e.getPerformer(), e.getName());
+		lock.writeLock().lock();
+		try {
+			LocalDate date = dates.remove(key);
+			if (date == null)
+			{
+				return;
+			}
+			removeFrom(days, date, key);
+			TreeMap<LocalDate, TreeMap<String, Event>> band = bands.get(e.getPerformer());
+			removeFrom(band, date, e.getName());
+			if (band.isEmpty())
+			{
+				bands.remove(e.getPerformer());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an event from a day, and the day if it has no other events.
+	 *
+	 * @param calendar The events by day.
+	 * @param date The day.
+	 * @param key The key of the event in the day.
+	 */
+	private static void removeFrom(TreeMap<LocalDate, TreeMap<String, Event>> calendar, LocalDate date, String key)
+	{
+		TreeMap<String, Event> day = calendar.get(date);
+		day.remove(key);
+		if (day.isEmpty())
+		{
+			calendar.remove(date);
+		}
+	}
+
+	/**
+	 * Gets the days of a performer or of every performer. The caller holds the lock.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @return The events by day, null if the performer has no events.
+	 */
+	private TreeMap<LocalDate, TreeMap<String, Event>> calendarOf(String performer)
+	{
+		return performer == null ? days : bands.get(performer);
+	}
+
+	/**
+	 * Gets the events between two days.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @param from The first day.
+	 * @param to The last day, included.
+	 * @param limit The maximum number of events.
+	 * @return The first events between the days, at most limit, sorted by date, performer and name.
+	 */
+	public List<Event> between(String performer, LocalDate from, LocalDate to, int limit)
+	{
+		List<Event> found = new ArrayList<>();
+		if (to.isBefore(from))
+		{
+			return found;
+		}
+		lock.readLock().lock();
+		try {
+			TreeMap<LocalDate, TreeMap<String, Event>> calendar = calendarOf(performer);
+			if (calendar != null)
+			{
+				collect(calendar.subMap(from, true, to, true), limit, found);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the next events from a day.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @param from The first day (today).
+	 * @param count The maximum number of events.
+	 * @return The first count events from the day, sorted by date, performer and name.
+	 */
+	public List<Event> upcoming(String performer, LocalDate from, int count)
+	{
+		List<Event> found = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			TreeMap<LocalDate, TreeMap<String, Event>> calendar = calendarOf(performer);
+			if (calendar != null)
+			{
+				collect(calendar.tailMap(from, true), count, found);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	 * Copies the events of consecutive days until the limit.
+	 *
+	 * @param range The days, in order.
+	 * @param limit The maximum number of events.
+	 * @param found Receives the events.
+	 */
+	private static void collect(NavigableMap<LocalDate, TreeMap<String, Event>> range, int limit, List<Event> found)
+	{
+		for (TreeMap<String, Event> day : range.values())
+		{
+			for (Event e : day.values())
+			{
+				if (found.size() >= limit)
+				{
+					return;
+				}
+				found.add(e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the double bookings: the events of a performer on a day when the performer has other events.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @param from The first day checked (today, past bookings don't matter anymore).
+	 * @param limit The maximum number of events.
+	 * @return The events booked on the same day as another event of their performer, at most limit,
+	 *         sorted by performer, date and name.
+	 */
+	public List<Event> conflicts(String performer, LocalDate from, int limit)
+	{
+		List<Event> found = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			List<String> performers = new ArrayList<>();
+			if (performer != null)
+			{
+				performers.add(performer);
+			}else {
+				performers.addAll(bands.keySet());
+				performers.sort(null);
+			}
+			for (String p : performers)
+			{
+				TreeMap<LocalDate, TreeMap<String, Event>> band = bands.get(p);
+				if (band == null)
+				{
+					continue;
+				}
+				for (TreeMap<String, Event> day : band.tailMap(from, true).values())
+				{
+					if (day.size() > 1)
+					{
+						for (Event e : day.values())
+						{
+							if (found.size() >= limit)
+							{
+								return found;
+							}
+							found.add(e);
+						}
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	/**
+	 * Gets the number of events in the calendar.
+	 *
+	 * @return The number of events with a valid date.
+	 */
+	public int size()
+	{
+		lock.readLock().lock();
+		try {
+			return dates.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
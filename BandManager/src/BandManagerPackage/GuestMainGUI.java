@@ -10,20 +10,34 @@ package BandManagerPackage;
 import java.io.BufferedReader;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
@@ -44,6 +58,12 @@ public class GuestMainGUI
 	private static List<String> bandNamesList = new ArrayList<>();		 //List of the band names
 	private static List<Song> songsList = new ArrayList<>(); 			 //List of the songs per selected band
 	private static List<Event> eventList = new ArrayList<>();			 //List of the events per selected band
+	private static String overviewBand = null;							 //Band whose songs and events lists were received with "show_band", null if none
+	private static String bandFigures = "";								 //Figures of overviewBand, shown in the choice interface
+	private static final Map<String, BandCopy> copies = new HashMap<>();	 //Copies of the bands viewed, read from their files the first time
+	
+	private static final int PAGE_SIZE = 200;	//Rows asked to the server at a time, the next ones are asked while scrolling
+	private static final int COPY_MAX_ROWS = 5000;	//A list not kept yet gets a copy (see BandCopy) only up to this size, a bigger one is paged
 	
 	public GuestMainGUI()
 	{
@@ -74,6 +94,40 @@ public class GuestMainGUI
 		}
 	}
 	
+	/**
+	 * Asks the server for the songs and events of every band whose words begin with the words of a query.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param query The words searched.
+	 * @return The description of each song or event found, with the band it belongs to, in the order sent by the server.
+	 */
+	private static Map<String, String> getSearchFromServer(BufferedReader is, DataOutputStream os, String query)
+	{
+		Map<String, String> results = new LinkedHashMap<>();
+		try {
+			os.writeBytes("search\n\n"+query+"\n");	//Empty band: searching every band
+			
+			String data_in = is.readLine();
+			while(!data_in.equals("end")) //Getting the results from server
+			{
+				String[] parts = data_in.split(" ");
+				if (parts.length == 6 && parts[0].equals("song"))
+				{
+					results.put(parts[2]+" (song by "+parts[3]+") - "+parts[1], parts[1]);
+				}else if (parts.length == 6)
+				{
+					results.put(parts[2]+" ("+parts[5]+" at "+parts[3]+", "+parts[4]+") - "+parts[1], parts[1]);
+				}
+				data_in = is.readLine();
+			}
+		} catch (IOException e) 
+		{
+			e.printStackTrace();
+		}
+		return results;
+	}
+	
 	/**
 	 * Retrieves the list of songs.
 	 * Useful function for other client's methods
@@ -106,6 +160,7 @@ public class GuestMainGUI
 	public static void getSongsListFromServer (BufferedReader is, DataOutputStream os, String selectedBand)
 	{
 		songsList.clear();
+		overviewBand = null;
 		String data_in;
 		try {
 			
@@ -139,6 +194,7 @@ public class GuestMainGUI
 	public static void getEventsListFromServer (BufferedReader is, DataOutputStream os, String selectedBand)
 	{
 		eventList.clear();
+		overviewBand = null;
 		String data_in;
 		try {
 			
@@ -163,6 +219,381 @@ public class GuestMainGUI
 		}
 	}
 	
+	/**
+	 * Retrieves figures and the first songs and events of the selected band with a single "show_band" request
+	 * and populates songsList and eventList, so the songs and events interfaces only ask for the next pages.
+	 * The "show_band" command must have been sent already.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param selectedBand The name of the selected band.
+	 */
+	private static void getBandFromServer(BufferedReader is, DataOutputStream os, String selectedBand)
+	{
+		songsList.clear();
+		eventList.clear();
+		overviewBand = null;
+		try {
+			
+			os.writeBytes(selectedBand+"\n");	//Sending the band name to server
+			String[] figures = is.readLine().split(" ");	//Number of songs, total length, next event date
+			bandFigures = figures[0]+" songs, "+figures[1]+" minutes of setlist, next event: "+figures[2];
+			
+			String data_in = is.readLine();
+			while(!data_in.equals("endsongs")) //Getting songs List from server until "endsongs" occurs.
+			{
+				String[] parts = data_in.split(" ");
+				songsList.add(new Song(parts[0], parts[1], Float.parseFloat(parts[2]), Integer.parseInt(parts[3]), selectedBand));
+				data_in = is.readLine();
+			}
+			
+			data_in = is.readLine();
+			while(!data_in.equals("endevents")) //Getting events List from server until "endevents" occurs.
+			{
+				String[] parts = data_in.split(" ");
+				eventList.add(new Event(parts[0], parts[1], parts[2], parts[3], selectedBand));
+				data_in = is.readLine();
+			}
+			overviewBand = selectedBand;
+			
+		} catch (IOException e) 
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Asks the server for the next page of songs of the selected band, the ones after the last song of the table,
+	 * and adds them to the table once received. The page is received on a background thread; the connection
+	 * must not be used until onDone runs.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param selectedBand The name of the selected band for which songs are to be retrieved.
+	 * @param target The list shown by the table, filled in the JavaFX thread.
+	 * @param onDone Called in the JavaFX thread with the number of songs received.
+	 */
+	private static void fetchSongsPage(BufferedReader is, DataOutputStream os, String selectedBand, ObservableList<Song> target, IntConsumer onDone)
+	{
+		String after = target.isEmpty() ? "" : target.get(target.size() - 1).getName();	//Empty for the first page
+		Thread receiver = new Thread(() -> {
+			List<Song> page = new ArrayList<>();
+			try {
+				
+				os.writeBytes("show_songs_after\n"+selectedBand+"\n"+after+"\n"+PAGE_SIZE+"\n");	//Band, last song shown, songs wanted
+				String data_in = is.readLine();
+				
+				while(data_in != null && !data_in.equals("endsongs")) //Getting songs from server until "endsongs" occurs.
+				{
+					String[] parts = data_in.split(" ");
+					page.add(new Song(parts[0], parts[1], Float.parseFloat(parts[2]), Integer.parseInt(parts[3]), selectedBand));
+					data_in = is.readLine();
+				}
+			} catch (IOException e) 
+			{
+				e.printStackTrace();
+			}
+			Platform.runLater(() -> {
+				target.addAll(page);
+				onDone.accept(page.size());
+			});
+		}, "songs-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+	
+	/**
+	 * Asks the server for the songs of the selected band satisfying a filter (see SongFilter for its format)
+	 * and puts them in the table once received. Works like fetchSongsPage().
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param selectedBand The name of the selected band for which songs are to be retrieved.
+	 * @param filter The filter, as written by the user.
+	 * @param target The list shown by the table, filled in the JavaFX thread.
+	 * @param onDone Called in the JavaFX thread with false if the server refused the filter.
+	 */
+	private static void fetchFilteredSongs(BufferedReader is, DataOutputStream os, String selectedBand, String filter, ObservableList<Song> target, Consumer<Boolean> onDone)
+	{
+		Thread receiver = new Thread(() -> {
+			List<Song> songs = new ArrayList<>();
+			boolean valid = false;
+			try {
+				
+				os.writeBytes("filter_songs\n"+selectedBand+"\n"+filter+"\n");	//Band and filter
+				valid = "ok".equals(is.readLine());
+				String data_in = valid ? is.readLine() : null;
+				
+				while(data_in != null && !data_in.equals("endsongs")) //Getting songs from server until "endsongs" occurs.
+				{
+					String[] parts = data_in.split(" ");
+					songs.add(new Song(parts[0], parts[1], Float.parseFloat(parts[2]), Integer.parseInt(parts[3]), selectedBand));
+					data_in = is.readLine();
+				}
+			} catch (IOException e) 
+			{
+				e.printStackTrace();
+			}
+			boolean accepted = valid;
+			Platform.runLater(() -> {
+				target.setAll(songs);
+				onDone.accept(accepted);
+			});
+		}, "songs-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+	
+	/**
+	 * Asks the server for the next page of events of the selected band and adds them to the table once received.
+	 * Works like fetchSongsPage().
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param selectedBand The name of the selected band for which events are to be retrieved.
+	 * @param target The list shown by the table, filled in the JavaFX thread.
+	 * @param onDone Called in the JavaFX thread with the number of events received.
+	 */
+	private static void fetchEventsPage(BufferedReader is, DataOutputStream os, String selectedBand, ObservableList<Event> target, IntConsumer onDone)
+	{
+		String after = target.isEmpty() ? "" : target.get(target.size() - 1).getName();	//Empty for the first page
+		Thread receiver = new Thread(() -> {
+			List<Event> page = new ArrayList<>();
+			try {
+				
+				os.writeBytes("show_events_after\n"+selectedBand+"\n"+after+"\n"+PAGE_SIZE+"\n");	//Band, last event shown, events wanted
+				String data_in = is.readLine();
+				
+				while(data_in != null && !data_in.equals("endevents")) //Getting events from server until "endevents" occurs.
+				{
+					String[] parts = data_in.split(" ");
+					page.add(new Event(parts[0], parts[1], parts[2], parts[3], selectedBand));
+					data_in = is.readLine();
+				}
+			} catch (IOException e) 
+			{
+				e.printStackTrace();
+			}
+			Platform.runLater(() -> {
+				target.addAll(page);
+				onDone.accept(page.size());
+			});
+		}, "events-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+	
+	/**
+	 * Gets the copy of a band kept by the client, read from its file (see BandCopy) the first time.
+	 *
+	 * @param selectedBand The name of the band.
+	 * @return The copy, with no lists if the band has never been viewed.
+	 */
+	private static BandCopy copyOf(String selectedBand)
+	{
+		return copies.computeIfAbsent(selectedBand, BandCopy::load);
+	}
+	
+	/**
+	 * Brings the songs of a copy up to date in background, asking the server only the changes made after
+	 * the version of the copy ("sync_songs"), saves the copy in its file (unless the server sent no version to keep)
+	 * and puts the songs in the table.
+	 * The connection must not be used until onDone runs.
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param copy The copy of the band.
+	 * @param target The list shown by the table, filled in the JavaFX thread.
+	 * @param onDone Called in the JavaFX thread once the songs are shown.
+	 */
+	private static void revalidateSongs(BufferedReader is, DataOutputStream os, BandCopy copy, ObservableList<Song> target, Runnable onDone)
+	{
+		Thread receiver = new Thread(() -> {
+			List<Song> songs = null;
+			try {
+				copy.syncSongs(is, os);
+				songs = copy.getSongs();
+				if (copy.hasSongs())
+				{
+					copy.save();	//Shown at once the next time, also after the client is closed
+				}
+			} catch (IOException e) 
+			{
+				e.printStackTrace();
+			}
+			List<Song> synced = songs;
+			Platform.runLater(() -> {
+				if (synced != null)
+				{
+					target.setAll(synced);
+				}
+				onDone.run();
+			});
+		}, "songs-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+	
+	/**
+	 * Brings the events of a copy up to date in background ("sync_events"). Works like revalidateSongs().
+	 *
+	 * @param is The BufferedReader for reading data from the server.
+	 * @param os The DataOutputStream for writing data to the server.
+	 * @param copy The copy of the band.
+	 * @param target The list shown by the table, filled in the JavaFX thread.
+	 * @param onDone Called in the JavaFX thread once the events are shown.
+	 */
+	private static void revalidateEvents(BufferedReader is, DataOutputStream os, BandCopy copy, ObservableList<Event> target, Runnable onDone)
+	{
+		Thread receiver = new Thread(() -> {
+			List<Event> events = null;
+			try {
+				copy.syncEvents(is, os);
+				events = copy.getEvents();
+				if (copy.hasEvents())
+				{
+					copy.save();
+				}
+			} catch (IOException e) 
+			{
+				e.printStackTrace();
+			}
+			List<Event> synced = events;
+			Platform.runLater(() -> {
+				if (synced != null)
+				{
+					target.setAll(synced);
+				}
+				onDone.run();
+			});
+		}, "events-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+	}
+	
+	/**
+	 * Runs an action each time a table is scrolled to its last row, used to ask for the next page.
+	 * The table only creates the cells of the visible rows, so the rows already received cost little.
+	 * Must be called once the table is shown, when its scroll bar exists.
+	 *
+	 * @param tableView The table.
+	 * @param action The action to run.
+	 */
+	private static void whenScrolledToEnd(TableView<?> tableView, Runnable action)
+	{
+		for (Node node : tableView.lookupAll(".scroll-bar"))
+		{
+			if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL)
+			{
+				ScrollBar bar = (ScrollBar) node;
+				bar.valueProperty().addListener((observable, oldValue, newValue) -> {
+					if (newValue.doubleValue() >= bar.getMax())
+					{
+						action.run();
+					}
+				});
+			}
+		}
+	}
+	
+	/**
+	 * Opens a second connection to the server receiving the changes of a band while it is shown (see ChangeHub),
+	 * so the tables are changed in place instead of being asked again. Each change is split in words and
+	 * handed to the interface in the JavaFX thread; after "reload" (changes lost) a new connection is opened
+	 * before the interface asks its rows again, so that no change is missed.
+	 *
+	 * @param client The Socket of the session, giving the address of the server.
+	 * @param selectedBand The name of the band shown.
+	 * @param onChange Called in the JavaFX thread with the words of each change.
+	 * @return The action closing the connection, to be run when the interface is closed.
+	 */
+	private static Runnable subscribeToChanges(Socket client, String selectedBand, Consumer<String[]> onChange)
+	{
+		AtomicReference<Socket> changes = new AtomicReference<>();
+		AtomicBoolean stopped = new AtomicBoolean(false);
+		Thread receiver = new Thread(() -> {
+			boolean reload = false;		//Changes lost by the previous connection
+			while (!stopped.get())
+			{
+				try (Socket subscription = new Socket(client.getInetAddress(), client.getPort())) {
+					changes.set(subscription);
+					if (stopped.get())
+					{
+						return;		//Closed while connecting
+					}
+					BufferedReader   cis = new BufferedReader(new InputStreamReader(subscription.getInputStream()));
+					DataOutputStream cos = new DataOutputStream(subscription.getOutputStream());
+					
+					cos.writeBytes("subscribe\n"+selectedBand+"\n");	//Telling the server to push the changes of the band
+					String data_in = cis.readLine();
+					if (!"ok".equals(data_in))
+					{
+						return;
+					}
+					if (reload)
+					{
+						Platform.runLater(() -> onChange.accept(new String[] {ChangeHub.RELOAD}));	//Subscribed again, the rows can be asked again
+					}
+					while((data_in = cis.readLine()) != null && !data_in.equals(ChangeHub.RELOAD))
+					{
+						if (!data_in.equals("ping"))	//Sent by the server to check the connection
+						{
+							String[] parts = data_in.split(" ");
+							Platform.runLater(() -> onChange.accept(parts));
+						}
+					}
+					if (data_in == null)
+					{
+						return;		//Connection closed
+					}
+				} catch (IOException e) 
+				{
+					return;		//Closed with the interface, or server gone
+				}
+				reload = true;
+			}
+		}, "changes-receiver");
+		receiver.setDaemon(true);
+		receiver.start();
+		
+		return () -> {
+			stopped.set(true);
+			Socket subscription = changes.get();
+			if (subscription != null)
+			{
+				try {
+					subscription.close();	//Unblocks the receiver
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Adds a song or an event received as a change to a table sorted by name, unless already shown.
+	 * A row after the last one received is left out when more pages may come: it will be in one of them.
+	 *
+	 * @param target The list shown by the table.
+	 * @param item The song or event added.
+	 * @param nameOf Gives the name of a row.
+	 * @param complete True if every row has been received (no more pages).
+	 */
+	private static <T> void insertByName(ObservableList<T> target, T item, Function<T, String> nameOf, boolean complete)
+	{
+		String name = nameOf.apply(item);
+		int row = 0;
+		while (row < target.size() && nameOf.apply(target.get(row)).compareTo(name) < 0)
+		{
+			row++;
+		}
+		if (row < target.size() ? nameOf.apply(target.get(row)).equals(name) : !complete)
+		{
+			return;
+		}
+		target.add(row, item);
+	}
+	
 	/**
 	 * Creates a TableView for displaying a list of songs.
 	 *
@@ -263,6 +694,14 @@ public class GuestMainGUI
         
         GridPane.setMargin(titleLabel, new Insets(0, 0, 40, 0));
         
+        if (selectedBand.equals(overviewBand))	//Figures received with the band
+        {
+        	Label figuresLabel = new Label(bandFigures);
+        	figuresLabel.getStyleClass().add("custom-label");
+        	root.add(figuresLabel, 0, 2);
+        	GridPane.setMargin(figuresLabel, new Insets(30, 0, 0, 0));
+        }
+        
         //songsButton handling
         songsButton.setOnAction(e -> {   
         	try {
@@ -313,13 +752,20 @@ public class GuestMainGUI
 	 */
 	public static void showSongsInterface(Socket client, BufferedReader is, DataOutputStream os, String selectedBand) throws IOException
 	{
-		songsList.clear();
-		
-		//Telling the server to send the songs
-		os.writeBytes("show_songs\n");  
-		getSongsListFromServer(is, os, selectedBand); 
-		
-		ObservableList<Song> observableSongList = FXCollections.observableArrayList(songsList);
+		BandCopy copy = copyOf(selectedBand);
+		boolean cached = copy.hasSongs();	//Every song kept from the last time, shown at once
+		boolean received = !cached && selectedBand.equals(overviewBand);	//First songs already received with the band
+		ObservableList<Song> observableSongList = FXCollections.observableArrayList();
+		if (cached)
+		{
+			observableSongList.addAll(copy.getSongs());
+		}else if (received)
+		{
+			observableSongList.addAll(songsList);
+		}else {
+			songsList.clear();
+			overviewBand = null;
+		}
 		
 		Stage showStage = new Stage();
 		showStage.setTitle("Songs viewer");
@@ -327,8 +773,13 @@ public class GuestMainGUI
 		// Buttons
 		Button backButton = new Button("Back");
 		Button closeButton = new Button("Close");
+		Button filterButton = new Button("Filter");
         backButton.getStyleClass().add("custom-button");
         closeButton.getStyleClass().add("custom-button");
+        filterButton.getStyleClass().add("custom-button");
+        
+        TextField filterField = new TextField();
+        filterField.setPromptText("bpm=90-120 length=-4.00 author=... prefix=... sort=-bpm");
 		
 		TableView<Song> tableView = createSongTable_songs(observableSongList);
         
@@ -348,7 +799,7 @@ public class GuestMainGUI
         
         // Creating an HBox for the buttons
         HBox buttonBox = new HBox(20);	 // Spacing of 10 pixels between the buttons
-        buttonBox.getChildren().addAll(backButton, closeButton);
+        buttonBox.getChildren().addAll(filterField, filterButton, backButton, closeButton);
         buttonBox.setPadding(new Insets(10));
         buttonBox.setStyle("-fx-alignment: CENTER;"); 	// Center the buttons inside the HBox
         
@@ -370,11 +821,118 @@ public class GuestMainGUI
         	showStage.close();
         });
         
+        //Songs shown at once from the copy, then brought up to date in background (only the changes when the copy
+        //has a version). Without a copy the songs are received by pages while scrolling, and the whole list is asked
+        //for a new copy only once every page is shown and the band has at most COPY_MAX_ROWS songs.
+        //Buttons disabled while songs are received, the connection is busy until then
+        boolean[] loading = {false};	//Songs are being received
+        boolean[] more = {!cached};		//The songs shown are a page, there may be other songs
+        Runnable revalidate = () -> {
+        	loading[0] = true;
+        	backButton.setDisable(true);
+        	closeButton.setDisable(true);
+        	revalidateSongs(is, os, copy, observableSongList, () -> {
+        		more[0] = false;	//Every song received
+        		loading[0] = false;
+        		backButton.setDisable(false);
+        		closeButton.setDisable(false);
+        	});
+        };
+        Runnable nextPage = () -> {
+        	if (loading[0] || !more[0])
+        	{
+        		return;
+        	}
+        	loading[0] = true;
+        	backButton.setDisable(true);
+        	closeButton.setDisable(true);
+        	fetchSongsPage(is, os, selectedBand, observableSongList, count -> {
+        		more[0] = count == PAGE_SIZE;
+        		if (!more[0] && observableSongList.size() <= COPY_MAX_ROWS)
+        		{
+        			revalidate.run();	//Every page is shown and the list is small, now the whole list for the copy
+        		}else {
+        			loading[0] = false;
+        			backButton.setDisable(false);
+        			closeButton.setDisable(false);
+        		}
+        	});
+        };
+        Runnable reload = () -> {
+        	if (copy.hasSongs())
+        	{
+        		revalidate.run();
+        	}else {
+        		observableSongList.clear();	//No copy, the pages are asked again
+        		more[0] = true;
+        		nextPage.run();
+        	}
+        };
+        if (cached)
+        {
+        	revalidate.run();
+        }else if (received && observableSongList.size() < PAGE_SIZE)
+        {
+        	revalidate.run();	//The whole list came with the band, it's small: now the whole list for the copy
+        }else if (!received)
+        {
+        	nextPage.run();
+        }
+        
+        //Changes of the band made meanwhile by its manager, applied to the table in place
+        boolean[] filtered = {false};	//The table shows the songs matching a filter, sorted by it
+        Runnable unsubscribe = subscribeToChanges(client, selectedBand, parts -> {
+        	overviewBand = null;	//The lists received with the band are old now
+        	if (parts[0].equals("song_added") && parts.length == 5)
+        	{
+        		if (!filtered[0])	//A filtered table gets the new songs when filtered again
+        		{
+        			insertByName(observableSongList, new Song(parts[1], parts[2], Float.parseFloat(parts[3]), Integer.parseInt(parts[4]), selectedBand), Song::getName, !more[0]);
+        		}
+        	}else if (parts[0].equals("song_removed") && parts.length == 2)
+        	{
+        		observableSongList.removeIf(s -> s.getName().equals(parts[1]));
+        	}else if (parts[0].equals(ChangeHub.RELOAD) && !loading[0] && !filtered[0])
+        	{
+        		reload.run();
+        	}
+        });
+        showStage.setOnHidden(e -> unsubscribe.run());
+        
+        //filter button handler: only the matching songs are sent by the server, an empty filter shows every song again
+        filterButton.setOnAction(e -> {
+        	if (loading[0])
+        	{
+        		return;
+        	}
+        	String filter = filterField.getText() == null ? "" : filterField.getText().trim();
+        	observableSongList.clear();
+        	more[0] = true;
+        	filtered[0] = !filter.isEmpty();
+        	if (filter.isEmpty())
+        	{
+        		titleLabel.setText("Songs currently in the setlist:");
+        		reload.run();
+        		return;
+        	}
+        	loading[0] = true;
+        	backButton.setDisable(true);
+        	closeButton.setDisable(true);
+        	fetchFilteredSongs(is, os, selectedBand, filter, observableSongList, valid -> {
+        		more[0] = false;	//Every matching song received, no pages
+        		loading[0] = false;
+        		backButton.setDisable(false);
+        		closeButton.setDisable(false);
+        		titleLabel.setText(valid ? "Songs matching "+filter+":" : "Invalid filter: "+filter);
+        	});
+        });
+        
         Scene scene = new Scene(root, 800, 400);
         scene.getStylesheets().add(GuestMainGUI.class.getResource("texture.css").toExternalForm());
         
         showStage.setScene(scene);
         showStage.show();
+        whenScrolledToEnd(tableView, nextPage);
 	}
 	
 	/**
@@ -388,13 +946,20 @@ public class GuestMainGUI
 	 */
 	public static void showEventsInterface(Socket client, BufferedReader is, DataOutputStream os, String selectedBand) throws IOException
 	{
-		eventList.clear();
-		
-		//Telling the server to send the events
-		os.writeBytes("show_events\n");  
-		getEventsListFromServer(is, os, selectedBand); 
-		
-		ObservableList<Event> observableEventList = FXCollections.observableArrayList(eventList);
+		BandCopy copy = copyOf(selectedBand);
+		boolean cached = copy.hasEvents();	//Every event kept from the last time, shown at once
+		boolean received = !cached && selectedBand.equals(overviewBand);	//First events already received with the band
+		ObservableList<Event> observableEventList = FXCollections.observableArrayList();
+		if (cached)
+		{
+			observableEventList.addAll(copy.getEvents());
+		}else if (received)
+		{
+			observableEventList.addAll(eventList);
+		}else {
+			eventList.clear();
+			overviewBand = null;
+		}
 		
 		Stage showStage = new Stage();
 		showStage.setTitle("Events viewer");
@@ -445,11 +1010,84 @@ public class GuestMainGUI
         	showStage.close();
         });
         
+        //Events shown at once from the copy and brought up to date in background, or else received by pages,
+        //like the songs (see showSongsInterface())
+        boolean[] loading = {false};	//Events are being received
+        boolean[] more = {!cached};		//The events shown are a page, there may be other events
+        Runnable revalidate = () -> {
+        	loading[0] = true;
+        	backButton.setDisable(true);
+        	closeButton.setDisable(true);
+        	revalidateEvents(is, os, copy, observableEventList, () -> {
+        		more[0] = false;	//Every event received
+        		loading[0] = false;
+        		backButton.setDisable(false);
+        		closeButton.setDisable(false);
+        	});
+        };
+        Runnable nextPage = () -> {
+        	if (loading[0] || !more[0])
+        	{
+        		return;
+        	}
+        	loading[0] = true;
+        	backButton.setDisable(true);
+        	closeButton.setDisable(true);
+        	fetchEventsPage(is, os, selectedBand, observableEventList, count -> {
+        		more[0] = count == PAGE_SIZE;
+        		if (!more[0] && observableEventList.size() <= COPY_MAX_ROWS)
+        		{
+        			revalidate.run();	//Every page is shown and the list is small, now the whole list for the copy
+        		}else {
+        			loading[0] = false;
+        			backButton.setDisable(false);
+        			closeButton.setDisable(false);
+        		}
+        	});
+        };
+        Runnable reload = () -> {
+        	if (copy.hasEvents())
+        	{
+        		revalidate.run();
+        	}else {
+        		observableEventList.clear();	//No copy, the pages are asked again
+        		more[0] = true;
+        		nextPage.run();
+        	}
+        };
+        if (cached)
+        {
+        	revalidate.run();
+        }else if (received && observableEventList.size() < PAGE_SIZE)
+        {
+        	revalidate.run();	//The whole list came with the band, it's small: now the whole list for the copy
+        }else if (!received)
+        {
+        	nextPage.run();
+        }
+        
+        //Changes of the band made meanwhile by its manager, applied to the table in place
+        Runnable unsubscribe = subscribeToChanges(client, selectedBand, parts -> {
+        	overviewBand = null;	//The lists received with the band are old now
+        	if (parts[0].equals("event_added") && parts.length == 5)
+        	{
+        		insertByName(observableEventList, new Event(parts[1], parts[2], parts[3], parts[4], selectedBand), Event::getName, !more[0]);
+        	}else if (parts[0].equals("event_removed") && parts.length == 2)
+        	{
+        		observableEventList.removeIf(ev -> ev.getName().equals(parts[1]));
+        	}else if (parts[0].equals(ChangeHub.RELOAD) && !loading[0])
+        	{
+        		reload.run();
+        	}
+        });
+        showStage.setOnHidden(e -> unsubscribe.run());
+        
         Scene scene = new Scene(root, 800, 400);
         scene.getStylesheets().add(GuestMainGUI.class.getResource("texture.css").toExternalForm());
         
         showStage.setScene(scene);
         showStage.show();
+        whenScrolledToEnd(tableView, nextPage);
 	}
 
 	/**
@@ -474,9 +1112,15 @@ public class GuestMainGUI
 		
 		Button okButton = new Button("Ok");
 		Button backButton = new Button("Back");
+		Button searchButton = new Button("Search");
 		
         okButton.getStyleClass().add("custom-button");
         backButton.getStyleClass().add("custom-button");
+        searchButton.getStyleClass().add("custom-button");
+        
+        TextField searchField = new TextField();
+        searchField.setPromptText("Search songs and events of every band");
+        Map<String, String> searchResults = new LinkedHashMap<>();	//Band of each song or event found, empty while the bands are shown
 		
         ListView<String> listView = new ListView<>();
         listView.setItems(observableNamesList);
@@ -494,7 +1138,7 @@ public class GuestMainGUI
         
         // Creating an HBox for the buttons
         HBox buttonBox = new HBox(20);	 // Spacing of 10 pixels between the buttons
-        buttonBox.getChildren().addAll(okButton, backButton);
+        buttonBox.getChildren().addAll(searchField, searchButton, okButton, backButton);
         buttonBox.setPadding(new Insets(10));
         buttonBox.setAlignment(Pos.CENTER);
         
@@ -506,12 +1150,22 @@ public class GuestMainGUI
         	if (!listView.getSelectionModel().isEmpty()) //If true, a song in the list shown is selected and ready to be choosen
         	{  
         		try {
-					String selectedBand = listView.getSelectionModel().getSelectedItem();
-					os.writeBytes("show_guest\n"); //Sending the request to show all the songs of the specified artist to the server 
-					os.writeBytes(selectedBand+"\n");
+					String selectedItem = listView.getSelectionModel().getSelectedItem();
+					String selectedBand = searchResults.getOrDefault(selectedItem, selectedItem);	//A result opens its band
+					os.writeBytes("show_band\n"); //Sending the request to get songs, events and figures of the specified artist to the server 
 					
-					GuestMainGUI.showBandDataInterface(client, is, os, selectedBand); //Opens the class method to choose what to display (songs or events)
-					showStage.close();
+					//Receiving in background, the choice interface opens once everything has arrived
+					okButton.setDisable(true);
+					backButton.setDisable(true);
+					Thread receiver = new Thread(() -> {
+						getBandFromServer(is, os, selectedBand);
+						Platform.runLater(() -> {
+							GuestMainGUI.showBandDataInterface(client, is, os, selectedBand); //Opens the class method to choose what to display (songs or events)
+							showStage.close();
+						});
+					}, "band-receiver");
+					receiver.setDaemon(true);
+					receiver.start();
 					
 				} catch (IOException e1)
         		{
@@ -527,6 +1181,21 @@ public class GuestMainGUI
         	}
         });
         
+        //search button handler: the list shows the songs and events found, an empty search shows the bands again
+        searchButton.setOnAction(e -> {
+        	String query = searchField.getText() == null ? "" : searchField.getText().trim();
+        	searchResults.clear();
+        	if (query.isEmpty())
+        	{
+        		observableNamesList.setAll(bandNamesList);
+        		titleLabel.setText("Select one of this bands to see songs and events:");
+        		return;
+        	}
+        	searchResults.putAll(getSearchFromServer(is, os, query));
+        	observableNamesList.setAll(searchResults.keySet());
+        	titleLabel.setText(searchResults.isEmpty() ? "Nothing found for "+query : "Select a result to see its band:");
+        });
+        
         //back button handler:
         backButton.setOnAction(e ->{ 
         	try {
@@ -0,0 +1,467 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class for a repertoire kept only in memory, to run the server without a database
+ * (tests, benchmarks of the protocol, small deployments). Data is lost when the server stops.
+ *
+ * The songs and events of each performer are kept sorted by name, like the keys of the database,
+ * so a page of them is found without scanning the previous ones. The songs are kept by columns
+ * (see SongColumns): no object for each song, ints for the numbers and a number for each author,
+ * and a Song is built only when it is read. They are guarded by a lock chosen
+ * by the hash of the performer among STRIPES locks: sessions working on different bands rarely
+ * wait on each other, and readers of the same band don't wait at all.
+ * Names are unique for each performer, like the (Performer, Name) keys of the database.
+ *
+ * @author Davide Reverberi
+ */
+public class InMemoryRepertoireStore implements RepertoireStore {
+
+	private static final int STRIPES = 32;	//Number of locks shared by the performers
+
+	private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPES];
+	private final Map<String, SongColumns> songs = new ConcurrentHashMap<>();					//Songs of each performer, by name
+	private final StringDictionary authors = new StringDictionary();							//Numbers of the authors of the songs
+	private final Map<String, NavigableMap<String, Event>> events = new ConcurrentHashMap<>();	//Events of each performer, by name
+	private final PerformerRegistry performers = new PerformerRegistry(Collections.emptyMap());	//Performers having songs or events
+
+	/**
+	 * Constructor for the InMemoryRepertoireStore class.
+	 *
+	 * @param demo true to start with the same demo data added by DataAcces to the database.
+	 */
+	public InMemoryRepertoireStore(boolean demo)
+	{
+		for (int i = 0; i < STRIPES; i++)
+		{
+			locks[i] = new ReentrantReadWriteLock();
+		}
+
+		if (demo)  //*****REMOVE IF NOT IN DEMO MODE*****
+		{
+			addSongs(Arrays.asList(DataAcces.DEMO_SONGS));
+			addEvents(Arrays.asList(DataAcces.DEMO_EVENTS));
+		}
+	}
+
+	/**
+	 * Gets the lock guarding the data of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return The lock of the performer's stripe.
+	 */
+	private ReentrantReadWriteLock lockOf(String performer)
+	{
+		return locks[(performer.hashCode() & 0x7fffffff) % STRIPES];
+	}
+
+	@Override
+	public List<String> getPerformers()
+	{
+		return performers.list();
+	}
+
+	@Override
+	public List<Song> getSongs(String performer)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			SongColumns columns = songs.get(performer);
+			return columns == null ? Collections.emptyList() : columns.copy().asList();	//Songs built when read
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Event> getEvents(String performer)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			Map<String, Event> map = events.get(performer);
+			return map == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(map.values()));
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Cuts a page from the rows of a performer.
+	 *
+	 * @param <T> Song or Event.
+	 * @param map The rows of the performer by name, null if none. The caller holds the lock of the performer.
+	 * @param after The name of the last row of the previous page, null to use the offset.
+	 * @param offset The number of rows to skip, used without cursor.
+	 * @param limit The maximum number of rows of the page.
+	 * @return A read only copy of the page.
+	 */
+	private static <T> List<T> page(NavigableMap<String, T> map, String after, int offset, int limit)
+	{
+		List<T> page = new ArrayList<>();
+		if (map != null)
+		{
+			int skip = after == null ? offset : 0;
+			for (T row : (after == null ? map : map.tailMap(after, false)).values())
+			{
+				if (page.size() >= limit)
+				{
+					break;
+				}
+				if (skip > 0)
+				{
+					skip--;
+				}else {
+					page.add(row);
+				}
+			}
+		}
+		return Collections.unmodifiableList(page);
+	}
+
+	@Override
+	public List<Song> getSongsPage(String performer, String after, int offset, int limit)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			SongColumns columns = songs.get(performer);
+			return columns == null ? Collections.emptyList() : columns.page(after, offset, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Event> getEventsPage(String performer, String after, int offset, int limit)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			return page(events.get(performer), after, offset, limit);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public List<Song> findSongs(String performer, SongFilter filter)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			SongColumns columns = songs.get(performer);
+			return columns == null ? Collections.emptyList() : columns.find(filter);	//Conditions checked on the columns
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets every song of the store, performer by performer.
+	 *
+	 * @return A copy of all the songs.
+	 */
+	List<Song> allSongs()
+	{
+		List<Song> all = new ArrayList<>();
+		for (String performer : songs.keySet())
+		{
+			all.addAll(getSongs(performer));
+		}
+		return all;
+	}
+
+	/**
+	 * Gets every event of the store, performer by performer.
+	 *
+	 * @return A copy of all the events.
+	 */
+	List<Event> allEvents()
+	{
+		List<Event> all = new ArrayList<>();
+		for (String performer : events.keySet())
+		{
+			all.addAll(getEvents(performer));
+		}
+		return all;
+	}
+
+	@Override
+	public boolean streamSongs(String performer, RowHandler<Song> handler) throws IOException
+	{
+		for (Song s : getSongs(performer))  //Copy taken under the lock, the handler may be slow
+		{
+			handler.handle(s);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean streamEvents(String performer, RowHandler<Event> handler) throws IOException
+	{
+		for (Event e : getEvents(performer))  //Copy taken under the lock, the handler may be slow
+		{
+			handler.handle(e);
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a song if its name is free among the songs of its performer.
+	 *
+	 * @param s The song to add.
+	 * @return 1 if added, 0 if the performer has a song with the same name.
+	 */
+	private int insertSong(Song s)
+	{
+		ReentrantReadWriteLock lock = lockOf(s.getPerformer());
+		lock.writeLock().lock();
+		try {
+			if (!songs.computeIfAbsent(s.getPerformer(), k -> new SongColumns(k, authors)).insert(s))
+			{
+				return 0;
+			}
+			performers.add(s.getPerformer(), 1);
+			return 1;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a song of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @param name The name of the song.
+	 * @return 1 if removed, 0 if not found.
+	 */
+	private int deleteSong(String performer, String name)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.writeLock().lock();
+		try {
+			SongColumns columns = songs.get(performer);
+			if (columns == null || !columns.delete(name))
+			{
+				return 0;
+			}
+			if (columns.size() == 0)
+			{
+				songs.remove(performer);
+			}
+			performers.remove(performer, 1);
+			return 1;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Tells whether a performer has a song.
+	 *
+	 * @param performer The name of the performer.
+	 * @param name The name of the song.
+	 * @return true if the song is in the store.
+	 */
+	boolean hasSong(String performer, String name)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			SongColumns columns = songs.get(performer);
+			return columns != null && columns.indexOf(name) >= 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the songs with the given name, whoever their performer is.
+	 * Used to replay the records written when names were unique in the whole store (see LogRepertoireStore).
+	 *
+	 * @param name The name of the songs.
+	 * @return The number of songs removed.
+	 */
+	int removeSongsNamed(String name)
+	{
+		int removed = 0;
+		for (String performer : songs.keySet())
+		{
+			removed += deleteSong(performer, name);
+		}
+		return removed;
+	}
+
+	/**
+	 * Adds an event if its name is free among the events of its performer.
+	 *
+	 * @param e The event to add.
+	 * @return 1 if added, 0 if the performer has an event with the same name.
+	 */
+	private int insertEvent(Event e)
+	{
+		ReentrantReadWriteLock lock = lockOf(e.getPerformer());
+		lock.writeLock().lock();
+		try {
+			if (events.computeIfAbsent(e.getPerformer(), k -> new TreeMap<>()).putIfAbsent(e.getName(), e) != null)
+			{
+				return 0;
+			}
+			performers.add(e.getPerformer(), 1);
+			return 1;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an event of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @param name The name of the event.
+	 * @return 1 if removed, 0 if not found.
+	 */
+	private int deleteEvent(String performer, String name)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.writeLock().lock();
+		try {
+			Map<String, Event> map = events.get(performer);
+			if (map == null || map.remove(name) == null)
+			{
+				return 0;
+			}
+			if (map.isEmpty())
+			{
+				events.remove(performer);
+			}
+			performers.remove(performer, 1);
+			return 1;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Tells whether a performer has an event.
+	 *
+	 * @param performer The name of the performer.
+	 * @param name The name of the event.
+	 * @return true if the event is in the store.
+	 */
+	boolean hasEvent(String performer, String name)
+	{
+		ReentrantReadWriteLock lock = lockOf(performer);
+		lock.readLock().lock();
+		try {
+			Map<String, Event> map = events.get(performer);
+			return map != null && map.containsKey(name);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the events with the given name, whoever their performer is.
+	 * Used to replay the records written when names were unique in the whole store (see LogRepertoireStore).
+	 *
+	 * @param name The name of the events.
+	 * @return The number of events removed.
+	 */
+	int removeEventsNamed(String name)
+	{
+		int removed = 0;
+		for (String performer : events.keySet())
+		{
+			removed += deleteEvent(performer, name);
+		}
+		return removed;
+	}
+
+	@Override
+	public int addSong(Song s)
+	{
+		return insertSong(s);
+	}
+
+	@Override
+	public int addEvent(Event e)
+	{
+		return insertEvent(e);
+	}
+
+	@Override
+	public int removeSong(Song s)
+	{
+		return deleteSong(s.getPerformer(), s.getName());
+	}
+
+	@Override
+	public int removeEvent(Event e)
+	{
+		return deleteEvent(e.getPerformer(), e.getName());
+	}
+
+	@Override
+	public int[] addSongs(List<Song> list)
+	{
+		int[] counts = new int[list.size()];
+		for (int i = 0; i < counts.length; i++)
+		{
+			counts[i] = insertSong(list.get(i));
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] removeSongs(List<Song> list)
+	{
+		int[] counts = new int[list.size()];
+		for (int i = 0; i < counts.length; i++)
+		{
+			counts[i] = deleteSong(list.get(i).getPerformer(), list.get(i).getName());
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] addEvents(List<Event> list)
+	{
+		int[] counts = new int[list.size()];
+		for (int i = 0; i < counts.length; i++)
+		{
+			counts[i] = insertEvent(list.get(i));
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] removeEvents(List<Event> list)
+	{
+		int[] counts = new int[list.size()];
+		for (int i = 0; i < counts.length; i++)
+		{
+			counts[i] = deleteEvent(list.get(i).getPerformer(), list.get(i).getName());
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class for a store answering the searches with a SearchIndex and the calendar queries with an EventCalendar,
+ * built over another store.
+ * The indexes are filled with every song and event of the store when opened, then every change is done
+ * on the store first and on the indexes after it, only if the store really changed a row (the counts of
+ * the single writes and of the batches): a song or event already in the store, or a write that failed,
+ * doesn't change the indexes.
+ * Every other operation goes to the store unchanged.
+ *
+ * @author Davide Reverberi
+ */
+public class IndexedRepertoireStore implements RepertoireStore {
+
+	private final RepertoireStore store;						//The real store
+	private final SearchIndex index = new SearchIndex();		//Words of the songs and events of the store
+	private final EventCalendar calendar = new EventCalendar();	//Events of the store by date
+
+	/**
+	 * Constructor for the IndexedRepertoireStore class.
+	 * Reads every song and event of the store to build the indexes.
+	 *
+	 * @param store The real store.
+	 */
+	public IndexedRepertoireStore(RepertoireStore store)
+	{
+		this.store = store;
+
+		long start = System.currentTimeMillis();
+		List<String> performers = store.getPerformers();
+		for (String performer : performers == null ? Collections.<String>emptyList() : performers)
+		{
+			List<Song> songs = store.getSongs(performer);
+			List<Event> events = store.getEvents(performer);
+			for (Song s : songs == null ? Collections.<Song>emptyList() : songs)
+			{
+				index.add(s);
+			}
+			for (Event e : events == null ? Collections.<Event>emptyList() : events)
+			{
+				index.add(e);
+				calendar.add(e);
+			}
+		}
+		System.out.println("Search index: " + index.size() + " songs and events, calendar: " + calendar.size()
+				+ " events in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	@Override
+	public List<SearchIndex.Hit> search(String query, String performer, int limit)
+	{
+		return Collections.unmodifiableList(index.search(query, performer, limit));
+	}
+
+	@Override
+	public List<Event> getEventsBetween(String performer, LocalDate from, LocalDate to, int limit)
+	{
+		return Collections.unmodifiableList(calendar.between(performer, from, to, limit));
+	}
+
+	@Override
+	public List<Event> getUpcomingEvents(String performer, LocalDate from, int count)
+	{
+		return Collections.unmodifiableList(calendar.upcoming(performer, from, count));
+	}
+
+	@Override
+	public List<Event> getEventConflicts(String performer, LocalDate from, int limit)
+	{
+		return Collections.unmodifiableList(calendar.conflicts(performer, from, limit));
+	}
+
+	@Override
+	public List<String> getPerformers()
+	{
+		return store.getPerformers();
+	}
+
+	@Override
+	public List<Song> getSongs(String performer)
+	{
+		return store.getSongs(performer);
+	}
+
+	@Override
+	public List<Event> getEvents(String performer)
+	{
+		return store.getEvents(performer);
+	}
+
+	@Override
+	public List<Song> getSongsPage(String performer, String after, int offset, int limit)
+	{
+		return store.getSongsPage(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Event> getEventsPage(String performer, String after, int offset, int limit)
+	{
+		return store.getEventsPage(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Song> findSongs(String performer, SongFilter filter)
+	{
+		return store.findSongs(performer, filter);
+	}
+
+	@Override
+	public BandOverview getBand(String performer)
+	{
+		return store.getBand(performer);
+	}
+
+	@Override
+	public boolean isCurrent()
+	{
+		return store.isCurrent();
+	}
+
+	@Override
+	public boolean streamSongs(String performer, RowHandler<Song> handler) throws IOException
+	{
+		return store.streamSongs(performer, handler);
+	}
+
+	@Override
+	public boolean streamEvents(String performer, RowHandler<Event> handler) throws IOException
+	{
+		return store.streamEvents(performer, handler);
+	}
+
+	@Override
+	public int addSong(Song s)
+	{
+		int changed = store.addSong(s);
+		if (changed > 0)
+		{
+			index.add(s);
+		}
+		return changed;
+	}
+
+	@Override
+	public int addEvent(Event e)
+	{
+		int changed = store.addEvent(e);
+		if (changed > 0)
+		{
+			index.add(e);
+			calendar.add(e);
+		}
+		return changed;
+	}
+
+	@Override
+	public int removeSong(Song s)
+	{
+		int changed = store.removeSong(s);
+		if (changed > 0)
+		{
+			index.remove(s);
+		}
+		return changed;
+	}
+
+	@Override
+	public int removeEvent(Event e)
+	{
+		int changed = store.removeEvent(e);
+		if (changed > 0)
+		{
+			index.remove(e);
+			calendar.remove(e);
+		}
+		return changed;
+	}
+
+	@Override
+	public int[] addSongs(List<Song> songs)
+	{
+		int[] counts = store.addSongs(songs);
+		for (int i = 0; counts != null && i < counts.length; i++)
+		{
+			if (counts[i] > 0)
+			{
+				index.add(songs.get(i));
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] removeSongs(List<Song> songs)
+	{
+		int[] counts = store.removeSongs(songs);
+		for (int i = 0; counts != null && i < counts.length; i++)
+		{
+			if (counts[i] > 0)
+			{
+				index.remove(songs.get(i));
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] addEvents(List<Event> events)
+	{
+		int[] counts = store.addEvents(events);
+		for (int i = 0; counts != null && i < counts.length; i++)
+		{
+			if (counts[i] > 0)
+			{
+				index.add(events.get(i));
+				calendar.add(events.get(i));
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] removeEvents(List<Event> events)
+	{
+		int[] counts = store.removeEvents(events);
+		for (int i = 0; counts != null && i < counts.length; i++)
+		{
+			if (counts[i] > 0)
+			{
+				index.remove(events.get(i));
+				calendar.remove(events.get(i));
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public void close()
+	{
+		store.close();
+	}
+}
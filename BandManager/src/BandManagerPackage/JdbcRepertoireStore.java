@@ -0,0 +1,222 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the repertoire stored in the MySQL database.
+ * Every operation is done by DataAcces, with its pool of connections and its caches.
+ * The performers are read once at startup and then kept up to date by the changes done through
+ * this store (see PerformerRegistry): changes written in the database by other programs aren't seen.
+ *
+ * @author Davide Reverberi
+ */
+public class JdbcRepertoireStore implements RepertoireStore {
+
+	private volatile PerformerRegistry performers = null;	//Performers of the database, null until read
+
+	/**
+	 * Constructor for the JdbcRepertoireStore class.
+	 * Connects to the database, creating tables (and demo data) if missing.
+	 *
+	 * @param url The JDBC url of the database (see DataAcces).
+	 */
+	public JdbcRepertoireStore(String url)
+	{
+		new DataAcces(url);  //Creating the connection with the database in the specific class
+		loadPerformers();
+	}
+
+	/**
+	 * Reads the performers from the database, if not done yet.
+	 *
+	 * @return The registry of the performers, null if the database can't be read.
+	 */
+	private synchronized PerformerRegistry loadPerformers()
+	{
+		if (performers == null && DataAcces.getPool() != null)
+		{
+			Map<String, Integer> rows = DataAcces.getPerformerRows();
+			if (rows != null)
+			{
+				performers = new PerformerRegistry(rows);
+			}
+		}
+		return performers;
+	}
+
+	@Override
+	public List<String> getPerformers()
+	{
+		PerformerRegistry registry = performers;
+		if (registry == null)
+		{
+			registry = loadPerformers();	//Database not readable at startup, trying again
+		}
+		return registry == null ? null : registry.list();
+	}
+
+	@Override
+	public List<Song> getSongs(String performer)
+	{
+		return DataAcces.getSongsQuery(performer);
+	}
+
+	@Override
+	public List<Event> getEvents(String performer)
+	{
+		return DataAcces.getEventsQuery(performer);
+	}
+
+	@Override
+	public List<Song> getSongsPage(String performer, String after, int offset, int limit)
+	{
+		return DataAcces.getSongsPageQuery(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Event> getEventsPage(String performer, String after, int offset, int limit)
+	{
+		return DataAcces.getEventsPageQuery(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Song> findSongs(String performer, SongFilter filter)
+	{
+		return DataAcces.findSongsQuery(performer, filter);
+	}
+
+	@Override
+	public BandOverview getBand(String performer)
+	{
+		return DataAcces.getBandQuery(performer);
+	}
+
+	@Override
+	public boolean streamSongs(String performer, RowHandler<Song> handler) throws IOException
+	{
+		return DataAcces.streamSongsQuery(performer, handler);
+	}
+
+	@Override
+	public boolean streamEvents(String performer, RowHandler<Event> handler) throws IOException
+	{
+		return DataAcces.streamEventsQuery(performer, handler);
+	}
+
+	@Override
+	public int addSong(Song s)
+	{
+		int changed = DataAcces.addSongQuery(s);
+		PerformerRegistry registry = performers;
+		if (registry != null)
+		{
+			registry.add(s.getPerformer(), changed);
+		}
+		return changed;
+	}
+
+	@Override
+	public int addEvent(Event e)
+	{
+		int changed = DataAcces.addEventQuery(e);
+		PerformerRegistry registry = performers;
+		if (registry != null)
+		{
+			registry.add(e.getPerformer(), changed);
+		}
+		return changed;
+	}
+
+	@Override
+	public int removeSong(Song s)
+	{
+		int changed = DataAcces.removeSongQuery(s);
+		PerformerRegistry registry = performers;
+		if (registry != null)
+		{
+			registry.remove(s.getPerformer(), changed);
+		}
+		return changed;
+	}
+
+	@Override
+	public int removeEvent(Event e)
+	{
+		int changed = DataAcces.removeEventQuery(e);
+		PerformerRegistry registry = performers;
+		if (registry != null)
+		{
+			registry.remove(e.getPerformer(), changed);
+		}
+		return changed;
+	}
+
+	@Override
+	public int[] addSongs(List<Song> songs)
+	{
+		int[] counts = DataAcces.addSongsBatchQuery(songs);
+		PerformerRegistry registry = performers;
+		if (registry != null && counts != null)
+		{
+			for (int i = 0; i < counts.length; i++)
+			{
+				registry.add(songs.get(i).getPerformer(), counts[i]);
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] removeSongs(List<Song> songs)
+	{
+		int[] counts = DataAcces.removeSongsBatchQuery(songs);
+		PerformerRegistry registry = performers;
+		if (registry != null && counts != null)
+		{
+			for (int i = 0; i < counts.length; i++)
+			{
+				registry.remove(songs.get(i).getPerformer(), counts[i]);
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] addEvents(List<Event> events)
+	{
+		int[] counts = DataAcces.addEventsBatchQuery(events);
+		PerformerRegistry registry = performers;
+		if (registry != null && counts != null)
+		{
+			for (int i = 0; i < counts.length; i++)
+			{
+				registry.add(events.get(i).getPerformer(), counts[i]);
+			}
+		}
+		return counts;
+	}
+
+	@Override
+	public int[] removeEvents(List<Event> events)
+	{
+		int[] counts = DataAcces.removeEventsBatchQuery(events);
+		PerformerRegistry registry = performers;
+		if (registry != null && counts != null)
+		{
+			for (int i = 0; i < counts.length; i++)
+			{
+				registry.remove(events.get(i).getPerformer(), counts[i]);
+			}
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,707 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Class for a repertoire stored in plain files, to run the server without a MySQL server.
+ * The data lives in an InMemoryRepertoireStore; every change is appended to a log file and applied to the
+ * in-memory repertoire only once it is on disk, before the client gets the answer, and the log is replayed
+ * at startup. So the readers never see a change that a failure of the log could lose. Meanwhile the changes
+ * waiting for the disk are kept aside, so the next writes already find them (a song added twice is added once).
+ *
+ * Changes of parallel sessions are written together by a single writer thread with one fsync
+ * (group commit), so the cost of the fsync is shared. When the log grows beyond COMPACT_BYTES the
+ * whole repertoire is written in a snapshot file and the log starts again empty: at startup the
+ * snapshot is loaded and only the log written after it is replayed. A snapshot that can't be written
+ * leaves the log as it is (still complete) and is tried again after COMPACT_RETRY.
+ *
+ * Every log record is: payload length (int), CRC32 of the payload (int), payload (operation and fields).
+ * A record cut by a crash or with a wrong CRC ends the replay and is removed from the log.
+ *
+ * @author Davide Reverberi
+ */
+public class LogRepertoireStore implements RepertoireStore {
+
+	private static final String LOG_FILE = "repertoire.log";
+	private static final String SNAPSHOT_FILE = "repertoire.snapshot";
+	private static final int SNAPSHOT_MAGIC = 0x424D5331;		//"BMS1", first int of a snapshot file
+	private static final long COMPACT_BYTES = 64L * 1024 * 1024;	//Log size that triggers a snapshot
+	private static final long COMPACT_RETRY = 60 * 1000;			//Time (ms) before trying again a snapshot that failed
+
+	//Operations of the log records
+	private static final byte ADD_SONG = 1;			//Song
+	private static final byte REMOVE_SONG = 2;		//String name, written only by older versions (names unique in the whole store)
+	private static final byte ADD_EVENT = 3;		//Event
+	private static final byte REMOVE_EVENT = 4;		//String name, written only by older versions (names unique in the whole store)
+	private static final byte REMOVE_SONG_OF = 5;	//Song, only performer and name matter
+	private static final byte REMOVE_EVENT_OF = 6;	//Event, only performer and name matter
+
+	private final InMemoryRepertoireStore memory = new InMemoryRepertoireStore(false);	//Current repertoire
+	private final Path logPath;
+	private final Path snapshotPath;
+	private final FileChannel log;
+	private final Thread writer;
+	private long compactRetry = 0;	//Time before which no snapshot is tried, used by the writer thread
+
+	/**
+	 * Represents a change appended to the log but not applied to the in-memory repertoire yet.
+	 */
+	private static class Pending {
+		final boolean present;	//True if the song or event is in the repertoire after the change
+		final long sequence;	//Record of the change
+
+		Pending(boolean present, long sequence)
+		{
+			this.present = present;
+			this.sequence = sequence;
+		}
+	}
+
+	//Guarded by this
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();	//Records not written yet
+	private long appended = 0;		//Number of records appended so far
+	private long durable = 0;		//Number of records written and synced on disk
+	private IOException failure = null;	//Error of the writer, the store can't be changed anymore
+	private final Map<String, Pending> pendingSongs = new HashMap<>();		//Last change not on disk of each song, by performer and name
+	private final Map<String, Pending> pendingEvents = new HashMap<>();	//Last change not on disk of each event, by performer and name
+	private boolean running = true;
+
+	/**
+	 * Constructor for the LogRepertoireStore class.
+	 * Loads the snapshot and replays the log found in the directory, then starts the writer thread.
+	 *
+	 * @param directory The directory of the snapshot and log files, created if missing.
+	 * @param demo true to add the demo data when the directory holds no repertoire yet.
+	 * @throws IOException If the files can't be read or created.
+	 */
+	public LogRepertoireStore(Path directory, boolean demo) throws IOException
+	{
+		Files.createDirectories(directory);
+		logPath = directory.resolve(LOG_FILE);
+		snapshotPath = directory.resolve(SNAPSHOT_FILE);
+		boolean fresh = !Files.exists(logPath) && !Files.exists(snapshotPath);
+
+		long start = System.currentTimeMillis();
+		loadSnapshot();
+		long records = replayLog();
+		System.out.println("Repertoire recovered from " + directory + " in " + (System.currentTimeMillis() - start)
+				+ " ms (" + records + " log records)");
+
+		log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		log.position(log.size());
+
+		writer = new Thread(this::writeLoop, "repertoire-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		if (fresh && demo)  //*****REMOVE IF NOT IN DEMO MODE*****
+		{
+			addSongs(Arrays.asList(DataAcces.DEMO_SONGS));
+			addEvents(Arrays.asList(DataAcces.DEMO_EVENTS));
+		}
+	}
+
+	/**
+	 * Loads the snapshot file, if any, in the in-memory repertoire.
+	 *
+	 * @throws IOException If the snapshot exists but is damaged.
+	 */
+	private void loadSnapshot() throws IOException
+	{
+		if (!Files.exists(snapshotPath))
+		{
+			return;
+		}
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(snapshotPath)), crc))) {
+			if (in.readInt() != SNAPSHOT_MAGIC)
+			{
+				throw new IOException("Not a repertoire snapshot: " + snapshotPath);
+			}
+			int songs = in.readInt();
+			for (int i = 0; i < songs; i++)
+			{
+				memory.addSong(BinaryProtocol.readSong(in));
+			}
+			int events = in.readInt();
+			for (int i = 0; i < events; i++)
+			{
+				memory.addEvent(BinaryProtocol.readEvent(in));
+			}
+			long expected = crc.getValue();
+			if (in.readLong() != expected)
+			{
+				throw new IOException("Damaged repertoire snapshot: " + snapshotPath);
+			}
+		}
+	}
+
+	/**
+	 * Replays the log records on the in-memory repertoire, stopping at the first incomplete or damaged
+	 * record (the tail of a write interrupted by a crash), which is cut from the log.
+	 *
+	 * @return The number of records replayed.
+	 * @throws IOException If the log can't be read.
+	 */
+	private long replayLog() throws IOException
+	{
+		if (!Files.exists(logPath))
+		{
+			return 0;
+		}
+		long records = 0;
+		long validLength = 0;	//Bytes of the log made of complete records
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+			while (true)
+			{
+				int length;
+				int checksum;
+				byte[] payload;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if (length <= 0 || length > BinaryProtocol.MAX_FRAME)
+					{
+						break;
+					}
+					payload = new byte[length];
+					in.readFully(payload);
+				} catch (EOFException e) {
+					break;	//End of the log, or record cut by a crash
+				}
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum)
+				{
+					break;	//Damaged record
+				}
+				apply(new DataInputStream(new ByteArrayInputStream(payload)));
+				validLength += 8 + length;
+				records++;
+			}
+		}
+		if (validLength < Files.size(logPath))
+		{
+			System.out.println("Repertoire log: dropping " + (Files.size(logPath) - validLength) + " bytes of incomplete records");
+			try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+				channel.truncate(validLength);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Applies a log record to the in-memory repertoire.
+	 *
+	 * @param payload The payload of the record.
+	 * @throws IOException If the record is malformed.
+	 */
+	private void apply(DataInputStream payload) throws IOException
+	{
+		byte op = payload.readByte();
+		switch (op) {
+		case ADD_SONG:
+			memory.addSong(BinaryProtocol.readSong(payload));
+			break;
+		case REMOVE_SONG:
+			memory.removeSongsNamed(payload.readUTF());
+			break;
+		case REMOVE_SONG_OF:
+			memory.removeSong(BinaryProtocol.readSong(payload));
+			break;
+		case ADD_EVENT:
+			memory.addEvent(BinaryProtocol.readEvent(payload));
+			break;
+		case REMOVE_EVENT:
+			memory.removeEventsNamed(payload.readUTF());
+			break;
+		case REMOVE_EVENT_OF:
+			memory.removeEvent(BinaryProtocol.readEvent(payload));
+			break;
+		default:
+			throw new IOException("Unknown log operation: " + op);
+		}
+	}
+
+	/**
+	 * Encodes a log record.
+	 *
+	 * @param op The operation.
+	 * @param song The song added or removed, or null.
+	 * @param event The event added or removed, or null.
+	 * @return The bytes of the record, header included.
+	 */
+	private static byte[] record(byte op, Song song, Event event)
+	{
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream payload = new DataOutputStream(bytes);
+			payload.writeByte(op);
+			if (song != null)
+			{
+				BinaryProtocol.writeSong(payload, song);
+			}else {
+				BinaryProtocol.writeEvent(payload, event);
+			}
+
+			byte[] body = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(body);
+			ByteBuffer record = ByteBuffer.allocate(8 + body.length);
+			record.putInt(body.length).putInt((int) crc.getValue()).put(body);
+			return record.array();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);	//Can't happen writing in memory
+		}
+	}
+
+	/**
+	 * Queues a record for the writer thread.
+	 * Must be called holding the lock of the store, so the log keeps the order of the changes.
+	 *
+	 * @param record The bytes of the record.
+	 * @return The sequence number of the record, to wait for with awaitDurable().
+	 */
+	private long append(byte[] record)
+	{
+		pending.write(record, 0, record.length);
+		notifyAll();	//Wakes up the writer
+		return ++appended;
+	}
+
+	/**
+	 * Applies records written on disk to the in-memory repertoire and forgets the changes kept aside for them.
+	 * Must be called holding the lock of the store.
+	 *
+	 * @param batch The records, headers included, in the order they were appended.
+	 * @param upTo The sequence number of the last record of the batch.
+	 * @throws IOException If a record is malformed.
+	 */
+	private void madeDurable(byte[] batch, long upTo) throws IOException
+	{
+		ByteBuffer records = ByteBuffer.wrap(batch);
+		while (records.hasRemaining())
+		{
+			int length = records.getInt();
+			records.getInt();	//CRC, only checked by the replay
+			apply(new DataInputStream(new ByteArrayInputStream(batch, records.position(), length)));
+			records.position(records.position() + length);
+		}
+		durable = upTo;
+		pendingSongs.values().removeIf(p -> p.sequence <= upTo);
+		pendingEvents.values().removeIf(p -> p.sequence <= upTo);
+		notifyAll();
+	}
+
+	/**
+	 * Gets the key of a song or event in the changes kept aside.
+	 *
+	 * @param performer The performer.
+	 * @param name The name of the song or event.
+	 * @return The key.
+	 */
+	private static String key(String performer, String name)
+	{
+		return performer + "\n" + name;	//Names are lines of the protocol, they never hold a new line
+	}
+
+	/**
+	 * Waits until the records up to the given one are on disk.
+	 *
+	 * @param sequence The sequence number returned by append().
+	 * @return true if the records are on disk, false if the log can't be written.
+	 */
+	private synchronized boolean awaitDurable(long sequence)
+	{
+		boolean interrupted = false;
+		while (durable < sequence && failure == null)
+		{
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+		return durable >= sequence;
+	}
+
+	/**
+	 * Body of the writer thread: writes all the queued records with a single write and fsync,
+	 * then wakes up the sessions waiting for them. Compacts the log when it grows too much.
+	 */
+	private void writeLoop()
+	{
+		try {
+			while (true)
+			{
+				byte[] batch;
+				long upTo;
+				synchronized (this)
+				{
+					while (pending.size() == 0 && running)
+					{
+						wait();
+					}
+					if (pending.size() == 0)
+					{
+						return;	//Closed and nothing left to write
+					}
+					batch = pending.toByteArray();
+					pending.reset();
+					upTo = appended;
+				}
+
+				writeFully(batch);
+				log.force(false);	//Group commit: one fsync for every record of the batch
+
+				synchronized (this)
+				{
+					madeDurable(batch, upTo);
+				}
+
+				if (log.size() > COMPACT_BYTES && System.currentTimeMillis() >= compactRetry && !compact())
+				{
+					compactRetry = System.currentTimeMillis() + COMPACT_RETRY;	//The log is still complete, only bigger
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			synchronized (this)
+			{
+				failure = e;
+				notifyAll();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes bytes at the end of the log.
+	 *
+	 * @param bytes The records to write.
+	 * @throws IOException If the log can't be written.
+	 */
+	private void writeFully(byte[] bytes) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining())
+		{
+			log.write(buffer);
+		}
+	}
+
+	/**
+	 * Writes the whole repertoire in a new snapshot and empties the log.
+	 * Changes wait until the compaction is done, so the snapshot matches the end of the log.
+	 * The snapshot is written in a temporary file and renamed, so a crash leaves the old snapshot and log.
+	 * A snapshot that can't be written is not a failure of the log: the log is kept and still has every change.
+	 *
+	 * @return true if the log has been emptied, false if the snapshot couldn't be written.
+	 * @throws IOException If the log can't be written.
+	 */
+	private synchronized boolean compact() throws IOException
+	{
+		if (pending.size() > 0)  //Records queued meanwhile go in the snapshot, the log must have them first
+		{
+			byte[] batch = pending.toByteArray();
+			pending.reset();
+			writeFully(batch);
+			log.force(false);
+			madeDurable(batch, appended);
+		}
+
+		try {
+			writeSnapshot(memory.allSongs(), memory.allEvents());
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		log.truncate(0);
+		log.position(0);
+		log.force(true);
+		return true;
+	}
+
+	/**
+	 * Writes a snapshot file, replacing the previous one only once complete.
+	 *
+	 * @param songs Every song of the repertoire.
+	 * @param events Every event of the repertoire.
+	 * @throws IOException If the snapshot can't be written.
+	 */
+	private void writeSnapshot(List<Song> songs, List<Event> events) throws IOException
+	{
+		Path temp = snapshotPath.resolveSibling(SNAPSHOT_FILE + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+			CRC32 crc = new CRC32();
+			DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(file), crc));
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeInt(songs.size());
+			for (Song s : songs)
+			{
+				BinaryProtocol.writeSong(out, s);
+			}
+			out.writeInt(events.size());
+			for (Event e : events)
+			{
+				BinaryProtocol.writeEvent(out, e);
+			}
+			out.flush();
+			new DataOutputStream(file).writeLong(crc.getValue());
+			file.getFD().sync();
+		}
+		Files.move(temp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Stops the writer after the queued records are written and compacts the log,
+	 * so the next startup only loads the snapshot.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (this)
+		{
+			running = false;
+			notifyAll();
+		}
+		try {
+			writer.join();
+			if (failure == null)
+			{
+				compact();
+			}
+			log.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public List<String> getPerformers()
+	{
+		return memory.getPerformers();
+	}
+
+	@Override
+	public List<Song> getSongs(String performer)
+	{
+		return memory.getSongs(performer);
+	}
+
+	@Override
+	public List<Event> getEvents(String performer)
+	{
+		return memory.getEvents(performer);
+	}
+
+	@Override
+	public List<Song> getSongsPage(String performer, String after, int offset, int limit)
+	{
+		return memory.getSongsPage(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Event> getEventsPage(String performer, String after, int offset, int limit)
+	{
+		return memory.getEventsPage(performer, after, offset, limit);
+	}
+
+	@Override
+	public boolean streamSongs(String performer, RowHandler<Song> handler) throws IOException
+	{
+		return memory.streamSongs(performer, handler);
+	}
+
+	@Override
+	public boolean streamEvents(String performer, RowHandler<Event> handler) throws IOException
+	{
+		return memory.streamEvents(performer, handler);
+	}
+
+	@Override
+	public int addSong(Song s)
+	{
+		int[] counts = addSongs(Collections.singletonList(s));
+		return counts == null ? -1 : counts[0];
+	}
+
+	@Override
+	public int addEvent(Event e)
+	{
+		int[] counts = addEvents(Collections.singletonList(e));
+		return counts == null ? -1 : counts[0];
+	}
+
+	@Override
+	public int removeSong(Song s)
+	{
+		int[] counts = removeSongs(Collections.singletonList(s));
+		return counts == null ? -1 : counts[0];
+	}
+
+	@Override
+	public int removeEvent(Event e)
+	{
+		int[] counts = removeEvents(Collections.singletonList(e));
+		return counts == null ? -1 : counts[0];
+	}
+
+	@Override
+	public int[] addSongs(List<Song> songs)
+	{
+		int[] counts;
+		long sequence;
+		synchronized (this)
+		{
+			if (failure != null || !running)
+			{
+				return null;
+			}
+			counts = new int[songs.size()];
+			sequence = 0;	//Nothing to wait for if nothing changed
+			for (int i = 0; i < counts.length; i++)
+			{
+				Song item = songs.get(i);
+				String key = key(item.getPerformer(), item.getName());
+				Pending last = pendingSongs.get(key);
+				boolean present = last != null ? last.present : memory.hasSong(item.getPerformer(), item.getName());
+				if (!present)  //Only the changes to do are logged, applied once on disk
+				{
+					sequence = append(record(ADD_SONG, item, null));
+					pendingSongs.put(key, new Pending(true, sequence));
+					counts[i] = 1;
+				}
+			}
+		}
+		return (sequence == 0 || awaitDurable(sequence)) ? counts : null;
+	}
+
+	@Override
+	public int[] removeSongs(List<Song> songs)
+	{
+		int[] counts;
+		long sequence;
+		synchronized (this)
+		{
+			if (failure != null || !running)
+			{
+				return null;
+			}
+			counts = new int[songs.size()];
+			sequence = 0;	//Nothing to wait for if nothing changed
+			for (int i = 0; i < counts.length; i++)
+			{
+				Song item = songs.get(i);
+				String key = key(item.getPerformer(), item.getName());
+				Pending last = pendingSongs.get(key);
+				boolean present = last != null ? last.present : memory.hasSong(item.getPerformer(), item.getName());
+				if (present)  //Only the changes to do are logged, applied once on disk
+				{
+					sequence = append(record(REMOVE_SONG_OF, item, null));
+					pendingSongs.put(key, new Pending(false, sequence));
+					counts[i] = 1;
+				}
+			}
+		}
+		return (sequence == 0 || awaitDurable(sequence)) ? counts : null;
+	}
+
+	@Override
+	public int[] addEvents(List<Event> events)
+	{
+		int[] counts;
+		long sequence;
+		synchronized (this)
+		{
+			if (failure != null || !running)
+			{
+				return null;
+			}
+			counts = new int[events.size()];
+			sequence = 0;	//Nothing to wait for if nothing changed
+			for (int i = 0; i < counts.length; i++)
+			{
+				Event item = events.get(i);
+				String key = key(item.getPerformer(), item.getName());
+				Pending last = pendingEvents.get(key);
+				boolean present = last != null ? last.present : memory.hasEvent(item.getPerformer(), item.getName());
+				if (!present)  //Only the changes to do are logged, applied once on disk
+				{
+					sequence = append(record(ADD_EVENT, null, item));
+					pendingEvents.put(key, new Pending(true, sequence));
+					counts[i] = 1;
+				}
+			}
+		}
+		return (sequence == 0 || awaitDurable(sequence)) ? counts : null;
+	}
+
+	@Override
+	public int[] removeEvents(List<Event> events)
+	{
+		int[] counts;
+		long sequence;
+		synchronized (this)
+		{
+			if (failure != null || !running)
+			{
+				return null;
+			}
+			counts = new int[events.size()];
+			sequence = 0;	//Nothing to wait for if nothing changed
+			for (int i = 0; i < counts.length; i++)
+			{
+				Event item = events.get(i);
+				String key = key(item.getPerformer(), item.getName());
+				Pending last = pendingEvents.get(key);
+				boolean present = last != null ? last.present : memory.hasEvent(item.getPerformer(), item.getName());
+				if (present)  //Only the changes to do are logged, applied once on disk
+				{
+					sequence = append(record(REMOVE_EVENT_OF, null, item));
+					pendingEvents.put(key, new Pending(false, sequence));
+					counts[i] = 1;
+				}
+			}
+		}
+		return (sequence == 0 || awaitDurable(sequence)) ? counts : null;
+	}
+}
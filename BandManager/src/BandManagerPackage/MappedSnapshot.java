@@ -0,0 +1,348 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for a compact, read only, binary copy of the whole repertoire, accessed through a memory-mapped file.
+ * Opening a snapshot only maps the file: nothing is read or decoded until a band is requested, so the
+ * server can answer as soon as it starts (see SnapshotRepertoireStore).
+ *
+ * The file is made of fixed-size tables followed by the heap of the strings (UTF-8, each distinct string once):
+ * <pre>
+ * header:     magic, version, performers, songs, events                      (5 ints)
+ * performers: name, first song, songs, first event, events                   (offset+length, 4 ints each)
+ * songs:      name, author (offset+length each), length (float), bpm (int)   (6 ints each)
+ * events:     name, place, date, type (offset+length each)                   (8 ints each)
+ * heap:       strings
+ * </pre>
+ * String offsets are relative to the start of the heap, which follows the tables.
+ * The performers are sorted by the bytes of their names, so a band is found with a binary search comparing
+ * the bytes in the mapped file, and the songs and events of a band are contiguous.
+ *
+ * @author Davide Reverberi
+ */
+public class MappedSnapshot {
+
+	private static final int MAGIC = 0x424D4D31;	//"BMM1"
+	private static final int VERSION = 1;
+	private static final int HEADER = 5 * 4;
+	private static final int PERFORMER_ENTRY = 6 * 4;
+	private static final int SONG_ENTRY = 6 * 4;
+	private static final int EVENT_ENTRY = 8 * 4;
+
+	private final MappedByteBuffer buffer;
+	private final int performers;
+	private final int songs;
+	private final int events;
+	private final int songsTable;	//Position of the songs table
+	private final int eventsTable;	//Position of the events table
+	private final int heap;			//Position of the strings heap
+
+	/**
+	 * Constructor for the MappedSnapshot class, see open().
+	 *
+	 * @param buffer The mapped file.
+	 * @throws IOException If the file is not a snapshot.
+	 */
+	private MappedSnapshot(MappedByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+		{
+			throw new IOException("Not a repertoire snapshot");
+		}
+		performers = buffer.getInt(8);
+		songs = buffer.getInt(12);
+		events = buffer.getInt(16);
+		songsTable = HEADER + performers * PERFORMER_ENTRY;
+		eventsTable = songsTable + songs * SONG_ENTRY;
+		heap = eventsTable + events * EVENT_ENTRY;
+	}
+
+	/**
+	 * Maps a snapshot file. The mapping stays valid after the file is replaced by a new snapshot.
+	 *
+	 * @param file The snapshot file.
+	 * @return The snapshot.
+	 * @throws IOException If the file can't be mapped or is not a snapshot.
+	 */
+	public static MappedSnapshot open(Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new MappedSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Reads a string of the heap.
+	 *
+	 * @param entry Position of the offset+length pair of the string.
+	 * @return The string.
+	 */
+	private String string(int entry)
+	{
+		int offset = heap + buffer.getInt(entry);
+		int length = buffer.getInt(entry + 4);
+		byte[] bytes = new byte[length];
+		buffer.get(offset, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares the bytes of a string of the heap with a key, without decoding the string.
+	 *
+	 * @param entry Position of the offset+length pair of the string.
+	 * @param key The UTF-8 bytes of the key.
+	 * @return Negative, zero or positive as the string is before, equal or after the key.
+	 */
+	private int compare(int entry, byte[] key)
+	{
+		int offset = heap + buffer.getInt(entry);
+		int length = buffer.getInt(entry + 4);
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++)
+		{
+			int c = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Finds a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return The position of its entry, -1 if not in the snapshot.
+	 */
+	private int find(String performer)
+	{
+		byte[] key = performer.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = performers - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int entry = HEADER + mid * PERFORMER_ENTRY;
+			int c = compare(entry, key);
+			if (c < 0)
+			{
+				low = mid + 1;
+			}else if (c > 0)
+			{
+				high = mid - 1;
+			}else {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the names of the performers having at least a song or an event.
+	 *
+	 * @return The list of performers.
+	 */
+	public List<String> getPerformers()
+	{
+		List<String> list = new ArrayList<>();
+		for (int i = 0; i < performers; i++)
+		{
+			int entry = HEADER + i * PERFORMER_ENTRY;
+			if (buffer.getInt(entry + 12) > 0 || buffer.getInt(entry + 20) > 0)
+			{
+				list.add(string(entry));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Gets the songs of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return A read only list of songs, empty if the performer is not in the snapshot.
+	 */
+	public List<Song> getSongs(String performer)
+	{
+		int entry = find(performer);
+		if (entry == -1)
+		{
+			return Collections.emptyList();
+		}
+		int first = buffer.getInt(entry + 8);
+		int count = buffer.getInt(entry + 12);
+		List<Song> list = new ArrayList<>(count);
+		for (int i = first; i < first + count; i++)
+		{
+			int song = songsTable + i * SONG_ENTRY;
+			list.add(new Song(string(song), string(song + 8), buffer.getFloat(song + 16), buffer.getInt(song + 20), performer));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Gets the events of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return A read only list of events, empty if the performer is not in the snapshot.
+	 */
+	public List<Event> getEvents(String performer)
+	{
+		int entry = find(performer);
+		if (entry == -1)
+		{
+			return Collections.emptyList();
+		}
+		int first = buffer.getInt(entry + 16);
+		int count = buffer.getInt(entry + 20);
+		List<Event> list = new ArrayList<>(count);
+		for (int i = first; i < first + count; i++)
+		{
+			int event = eventsTable + i * EVENT_ENTRY;
+			list.add(new Event(string(event), string(event + 8), string(event + 16), string(event + 24), performer));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Represents the heap of the strings being written, each distinct string stored once.
+	 */
+	private static class Heap {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final Map<String, int[]> positions = new HashMap<>();	//Offset (from the heap start) and length of each string
+
+		int[] add(String s)
+		{
+			return positions.computeIfAbsent(s, k -> {
+				byte[] utf8 = k.getBytes(StandardCharsets.UTF_8);
+				int[] position = {bytes.size(), utf8.length};
+				bytes.write(utf8, 0, utf8.length);
+				return position;
+			});
+		}
+	}
+
+	/**
+	 * Writes a snapshot through a memory-mapped file. The snapshot is written in a temporary file and
+	 * renamed, so a crash leaves the previous snapshot.
+	 *
+	 * @param file The snapshot file.
+	 * @param songsByPerformer The songs of every performer.
+	 * @param eventsByPerformer The events of every performer.
+	 * @throws IOException If the file can't be written.
+	 */
+	public static void write(Path file, Map<String, List<Song>> songsByPerformer, Map<String, List<Event>> eventsByPerformer) throws IOException
+	{
+		List<byte[]> names = new ArrayList<>();
+		Map<String, Boolean> seen = new HashMap<>();
+		for (String p : songsByPerformer.keySet())
+		{
+			if (seen.put(p, true) == null)
+			{
+				names.add(p.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		for (String p : eventsByPerformer.keySet())
+		{
+			if (seen.put(p, true) == null)
+			{
+				names.add(p.getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		names.sort(Arrays::compareUnsigned);	//Same order used by find()
+
+		int songCount = 0;
+		int eventCount = 0;
+		for (List<Song> list : songsByPerformer.values())
+		{
+			songCount += list.size();
+		}
+		for (List<Event> list : eventsByPerformer.values())
+		{
+			eventCount += list.size();
+		}
+
+		Heap heap = new Heap();
+		ByteBuffer performerTable = ByteBuffer.allocate(names.size() * PERFORMER_ENTRY);
+		ByteBuffer songTable = ByteBuffer.allocate(songCount * SONG_ENTRY);
+		ByteBuffer eventTable = ByteBuffer.allocate(eventCount * EVENT_ENTRY);
+
+		int songIndex = 0;
+		int eventIndex = 0;
+		for (byte[] nameBytes : names)
+		{
+			String name = new String(nameBytes, StandardCharsets.UTF_8);
+			List<Song> songs = songsByPerformer.getOrDefault(name, Collections.emptyList());
+			List<Event> events = eventsByPerformer.getOrDefault(name, Collections.emptyList());
+
+			putString(performerTable, heap.add(name));
+			performerTable.putInt(songIndex).putInt(songs.size()).putInt(eventIndex).putInt(events.size());
+
+			for (Song s : songs)
+			{
+				putString(songTable, heap.add(s.getName()));
+				putString(songTable, heap.add(s.getAuthor()));
+				songTable.putFloat(s.getLength()).putInt(s.getBpm());
+			}
+			for (Event e : events)
+			{
+				putString(eventTable, heap.add(e.getName()));
+				putString(eventTable, heap.add(e.getPlace()));
+				putString(eventTable, heap.add(e.getDate()));
+				putString(eventTable, heap.add(e.getType()));
+			}
+			songIndex += songs.size();
+			eventIndex += events.size();
+		}
+
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		long size = (long) HEADER + performerTable.capacity() + songTable.capacity() + eventTable.capacity() + heap.bytes.size();
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			out.putInt(MAGIC).putInt(VERSION).putInt(names.size()).putInt(songCount).putInt(eventCount);
+			out.put(performerTable.flip());
+			out.put(songTable.flip());
+			out.put(eventTable.flip());
+			out.put(heap.bytes.toByteArray());
+			out.force();
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Puts the heap offset and the length of a string in a table.
+	 *
+	 * @param table The table.
+	 * @param position Offset in the heap and length of the string.
+	 */
+	private static void putString(ByteBuffer table, int[] position)
+	{
+		table.putInt(position[0]).putInt(position[1]);
+	}
+}
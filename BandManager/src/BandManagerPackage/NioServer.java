@@ -0,0 +1,621 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class for the non-blocking front end of the server, alternative to ServerLogic.service().
+ * A single thread waits on a Selector for every connection, so hundreds of idle guests don't hold
+ * a thread each. The bytes received are split in lines; when a whole command has arrived it is
+ * executed by a worker thread with the same ClientSession commands of the blocking front end.
+ * The worker writes the response in chunks of BUFFER_SIZE bytes, written back by the selector thread
+ * when the channel is ready; a worker having MAX_CHUNKS chunks of a connection not written yet waits,
+ * so a client not reading a long list holds a worker, not the whole list in memory.
+ * Once MAX_LINES lines wait to be executed the connection is not read anymore until they are,
+ * so a client sending faster than its commands run is slowed down by TCP instead of filling the memory.
+ * Only the text protocol is served in this mode. A connection subscribed to the changes of a band
+ * (see ChangeHub) gets them from the selector thread when no older output is waiting, so a client not reading
+ * keeps them in its bounded subscription instead of in the server output.
+ *
+ * @author Davide Reverberi
+ */
+public class NioServer {
+
+	private static final int BUFFER_SIZE = 64 * 1024;	//Size of the direct buffers used for reading and writing
+	private static final int MAX_LINE = 64 * 1024;		//Lines longer than this close the connection
+	private static final int MAX_LINES = ClientSession.MAX_BATCH + 2;	//Lines waiting to be executed before reading stops (the biggest command fits)
+	private static final int MAX_CHUNKS = 16;			//Chunks of a response waiting to be written before the worker waits
+
+	/**
+	 * Represents the state of a connection: the bytes and lines received, the session
+	 * executing its commands and the responses waiting to be written.
+	 */
+	private static class Connection {
+		final SocketChannel channel;
+		final ClientSession session;
+		final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();	//Bytes of the line being received
+		final List<String> lines = new ArrayList<>();							//Lines received and not executed yet
+		final BlockingQueue<ByteBuffer> output = new LinkedBlockingQueue<>(MAX_CHUNKS);	//Chunks waiting to be written
+		boolean authenticated = false;
+		boolean busy = false;		//True while a worker is executing a command of this connection
+		boolean closing = false;	//True when the connection must be closed once the output is written
+		volatile boolean closed = false;	//True once the channel is closed, a worker waiting to queue a chunk gives up
+		ChangeHub.Subscription subscription = null;	//Changes pushed to the client, when subscribed
+
+		Connection(SocketChannel channel, ClientSession session)
+		{
+			this.channel = channel;
+			this.session = session;
+		}
+	}
+
+	/**
+	 * Represents the outcome of a command executed by a worker, to be applied by the selector thread.
+	 * The response is already in the output of the connection.
+	 */
+	private static class Completion {
+		final Connection connection;
+		final boolean keepOpen;
+
+		Completion(Connection connection, boolean keepOpen)
+		{
+			this.connection = connection;
+			this.keepOpen = keepOpen;
+		}
+	}
+
+	/**
+	 * Represents the response of a command being written by a worker: the bytes are put in the output
+	 * of the connection a chunk at a time, and the selector thread is asked to write them.
+	 * flush() doesn't send a partial chunk, the last one is sent by close() when the command ends.
+	 */
+	private class ResponseSink extends OutputStream {
+
+		private final Connection connection;
+		private byte[] chunk = new byte[BUFFER_SIZE];
+		private int size = 0;
+
+		ResponseSink(Connection connection)
+		{
+			this.connection = connection;
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			if (size == chunk.length)
+			{
+				send();
+			}
+			chunk[size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				if (size == chunk.length)
+				{
+					send();
+				}
+				int n = Math.min(len, chunk.length - size);
+				System.arraycopy(b, off, chunk, size, n);
+				size += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (size > 0)
+			{
+				send();
+			}
+		}
+
+		/**
+		 * Puts the chunk in the output of the connection, waiting while MAX_CHUNKS are not written yet.
+		 *
+		 * @throws IOException If the connection is closed or the service stops meanwhile.
+		 */
+		private void send() throws IOException
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, size);
+			try {
+				while (!connection.output.offer(buffer, 100, TimeUnit.MILLISECONDS))
+				{
+					if (connection.closed)
+					{
+						throw new IOException("Connection closed");
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Service closed");
+			}
+			chunk = new byte[BUFFER_SIZE];
+			size = 0;
+			written.add(connection);
+			selector.wakeup();	//The selector thread writes the chunk
+		}
+	}
+
+	private final ServerLogic server;
+	private final int port;
+	private final ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
+	private final Queue<Completion> completions = new ConcurrentLinkedQueue<>();	//Commands done by the workers
+	private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();		//Subscribed connections with new changes
+	private final Queue<Connection> written = new ConcurrentLinkedQueue<>();		//Connections with new chunks of a response
+	private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);	//Reused for every read
+	private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);	//Reused for every write
+	private Selector selector = null;
+	private volatile boolean closed = false;	//Set by close(), the selector thread stops
+
+	/**
+	 * Constructor for the NioServer class.
+	 *
+	 * @param server The ServerLogic providing accounts and shutdown.
+	 * @param port The port where the clients connect.
+	 */
+	public NioServer(ServerLogic server, int port)
+	{
+		this.server = server;
+		this.port = port;
+	}
+
+	/**
+	 * Accepts and serves the clients until close() is called. Returns once the connections are closed
+	 * and the running commands have ended (at most ServerLogic.CLOSE_SECONDS).
+	 *
+	 * @throws IOException If the server socket can't be opened.
+	 */
+	public void service() throws IOException
+	{
+		selector = Selector.open();
+		try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+			serverChannel.bind(new InetSocketAddress(port));
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			while (!closed)
+			{
+				selector.select();
+				applyChunks();
+				applyCompletions();
+				applyChanges();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (key.isAcceptable())
+						{
+							accept(serverChannel);
+						}else {
+							if (key.isReadable())
+							{
+								read(key);
+							}
+							if (key.isValid() && key.isWritable())
+							{
+								write(key);
+							}
+						}
+					} catch (IOException e) {
+						close(key);	//Connection dropped
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+						close(key);	//Bad request: only this connection is closed, the others keep being served
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			//Selector closed, service is over
+		} finally {
+			for (SelectionKey key : selector.keys())
+			{
+				close(key);	//Connections closed by the selector thread, which owns them
+			}
+			selector.close();
+			workers.shutdownNow();
+			try {
+				if (!workers.awaitTermination(ServerLogic.CLOSE_SECONDS, TimeUnit.SECONDS))	//The store is closed after service() returns
+				{
+					System.out.println("Commands still running after " + ServerLogic.CLOSE_SECONDS + " seconds");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stops the service: the selector thread is woken up, closes every connection and service() returns.
+	 * Can be called by any thread.
+	 */
+	public void close()
+	{
+		closed = true;
+		if (selector != null)
+		{
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Accepts a new connection and registers it for reading.
+	 *
+	 * @param serverChannel The server channel ready to accept.
+	 * @throws IOException If the connection can't be configured.
+	 */
+	private void accept(ServerSocketChannel serverChannel) throws IOException
+	{
+		SocketChannel channel = serverChannel.accept();
+		if (channel == null)
+		{
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);	//Every write is a whole response
+		channel.register(selector, SelectionKey.OP_READ, new Connection(channel, new ClientSession(server)));
+		System.out.println("Connected");
+	}
+
+	/**
+	 * Reads the available bytes of a connection, splits them in lines and starts the next command if complete.
+	 *
+	 * @param key The key of the connection ready to be read.
+	 * @throws IOException If the connection drops.
+	 */
+	private void read(SelectionKey key) throws IOException
+	{
+		Connection c = (Connection) key.attachment();
+		readBuffer.clear();
+		int n = c.channel.read(readBuffer);
+		if (n == -1)
+		{
+			close(key);
+			return;
+		}
+		readBuffer.flip();
+		while (readBuffer.hasRemaining())
+		{
+			byte b = readBuffer.get();
+			if (b == '\n')
+			{
+				c.lines.add(c.partialLine.toString(StandardCharsets.UTF_8).replace("\r", ""));
+				c.partialLine.reset();
+			}else if (c.partialLine.size() < MAX_LINE) {
+				c.partialLine.write(b);
+			}else {
+				throw new IOException("Line too long");
+			}
+		}
+		dispatch(key);
+		if (c.lines.size() >= MAX_LINES && key.isValid())
+		{
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);	//Too many lines waiting, read again once executed
+		}
+	}
+
+	/**
+	 * Starts the next command of a connection on a worker, if all its lines have been received
+	 * and no other command of the same connection is running (responses keep the order of the requests).
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void dispatch(SelectionKey key)
+	{
+		Connection c = (Connection) key.attachment();
+		if (c.subscription != null)
+		{
+			c.lines.clear();	//Nothing to execute on a subscribed connection
+			return;
+		}
+		if (c.busy || c.closing || c.lines.isEmpty())
+		{
+			return;
+		}
+
+		if (!c.authenticated)
+		{
+			login(key);
+			return;
+		}
+
+		int needed = ClientSession.linesNeeded(c.lines);
+		if (needed == -1 || c.lines.size() < needed)
+		{
+			return;	//Waiting for the rest of the command
+		}
+
+		String command = c.lines.get(0);
+		StringBuilder arguments = new StringBuilder();
+		for (int i = 1; i < needed; i++)
+		{
+			arguments.append(c.lines.get(i)).append('\n');
+		}
+		c.lines.subList(0, needed).clear();
+		c.busy = true;
+		if (c.lines.size() < MAX_LINES)
+		{
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+
+		workers.execute(() -> {
+			boolean keepOpen = false;
+			try (ResponseSink response = new ResponseSink(c)) {
+				DataOutputStream os = new DataOutputStream(response);
+				keepOpen = c.session.execute(command, os, new BufferedReader(new StringReader(arguments.toString())));
+			} catch (IOException | RuntimeException e) {
+				if (!c.closed)
+				{
+					e.printStackTrace();
+				}
+			}
+			completions.add(new Completion(c, keepOpen));
+			selector.wakeup();	//The selector thread ends the response and starts the next command
+		});
+	}
+
+	/**
+	 * Handles the first lines of a connection, like the blocking front end: "guest", "noguest"
+	 * followed by user and password, or "subscribe" followed by the band whose changes are pushed.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void login(SelectionKey key)
+	{
+		Connection c = (Connection) key.attachment();
+		String guest_mode = c.lines.get(0);
+
+		if (guest_mode.equals("noguest"))
+		{
+			if (c.lines.size() < 3)
+			{
+				return;	//Waiting for user and password
+			}
+			c.authenticated = c.session.login(c.lines.get(1), c.lines.get(2));
+			c.lines.subList(0, 3).clear();
+			if (c.authenticated)
+			{
+				queue(key, "ok\n".getBytes(StandardCharsets.UTF_8));
+			}else {
+				queue(key, "notok\n".getBytes(StandardCharsets.UTF_8));
+				c.closing = true;
+			}
+		}else if (guest_mode.equals("subscribe"))
+		{
+			if (c.lines.size() < 2)
+			{
+				return;	//Waiting for the band
+			}
+			c.subscription = server.getChanges().subscribe(c.lines.get(1), () -> {
+				changed.add(c);
+				selector.wakeup();	//The selector thread writes the changes
+			});
+			c.lines.clear();
+			queue(key, "ok\n".getBytes(StandardCharsets.UTF_8));
+			return;
+		}else if (guest_mode.equals(BinaryProtocol.HANDSHAKE))
+		{
+			queue(key, "notok\n".getBytes(StandardCharsets.UTF_8));	//Binary protocol only on the blocking front end
+			c.closing = true;
+		}else {
+			c.lines.remove(0);
+			c.authenticated = true;	//Guest mode, limitations are handled in the client side
+		}
+		dispatch(key);
+	}
+
+	/**
+	 * Asks to write the connections with new chunks of a response.
+	 */
+	private void applyChunks()
+	{
+		Connection c;
+		while ((c = written.poll()) != null)
+		{
+			SelectionKey key = c.channel.keyFor(selector);
+			if (key != null && key.isValid() && !c.output.isEmpty())
+			{
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+	}
+
+	/**
+	 * Applies the commands completed by the workers: ends their responses and starts the next commands.
+	 */
+	private void applyCompletions()
+	{
+		Completion done;
+		while ((done = completions.poll()) != null)
+		{
+			SelectionKey key = done.connection.channel.keyFor(selector);
+			if (key == null || !key.isValid())
+			{
+				continue;	//Connection closed meanwhile
+			}
+			done.connection.busy = false;
+			if (!done.keepOpen)
+			{
+				done.connection.closing = true;
+			}
+			try {
+				queue(key, new byte[0]);
+				dispatch(key);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				close(key);
+			}
+		}
+	}
+
+	/**
+	 * Writes the changes queued for the subscribed connections.
+	 */
+	private void applyChanges()
+	{
+		Connection c;
+		while ((c = changed.poll()) != null)
+		{
+			SelectionKey key = c.channel.keyFor(selector);
+			if (key != null && key.isValid())
+			{
+				pushChanges(key);
+			}
+		}
+	}
+
+	/**
+	 * Queues the changes of a subscribed connection, if its previous output has been written;
+	 * otherwise they wait in the subscription and are queued by write() when the output is done.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void pushChanges(SelectionKey key)
+	{
+		Connection c = (Connection) key.attachment();
+		if (c.subscription == null || c.closing || !c.output.isEmpty())
+		{
+			return;
+		}
+		StringBuilder lines = new StringBuilder();
+		String change;
+		while ((change = c.subscription.poll()) != null)
+		{
+			lines.append(change).append('\n');
+			if (change.equals(ChangeHub.RELOAD))
+			{
+				c.closing = true;	//Changes lost, the client asks the lists again and subscribes again
+				break;
+			}
+		}
+		queue(key, lines.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Queues a response to be written when the channel is ready. Called by the selector thread only when
+	 * no worker writes for the connection and its output is written, so the output has room.
+	 *
+	 * @param key The key of the connection.
+	 * @param response The bytes of the response.
+	 */
+	private void queue(SelectionKey key, byte[] response)
+	{
+		Connection c = (Connection) key.attachment();
+		if (response.length > 0)
+		{
+			c.output.add(ByteBuffer.wrap(response));
+		}
+		if (c.output.isEmpty())
+		{
+			if (c.closing)
+			{
+				close(key);
+			}
+			return;
+		}
+		key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+	}
+
+	/**
+	 * Writes the queued responses of a connection through the direct write buffer,
+	 * as far as the channel accepts them.
+	 *
+	 * @param key The key of the connection ready to be written.
+	 * @throws IOException If the connection drops.
+	 */
+	private void write(SelectionKey key) throws IOException
+	{
+		Connection c = (Connection) key.attachment();
+		while (!c.output.isEmpty())
+		{
+			ByteBuffer pending = c.output.peek();
+
+			writeBuffer.clear();
+			int chunk = Math.min(pending.remaining(), writeBuffer.capacity());
+			writeBuffer.put(pending.array(), pending.position(), chunk);
+			writeBuffer.flip();
+
+			int written = c.channel.write(writeBuffer);
+			pending.position(pending.position() + written);
+			if (written < chunk)
+			{
+				return;	//Socket buffer full, wait for the next OP_WRITE
+			}
+			if (!pending.hasRemaining())
+			{
+				c.output.poll();
+			}
+		}
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+		if (c.closing)
+		{
+			close(key);
+		}else {
+			pushChanges(key);	//Changes published while the output was being written
+		}
+	}
+
+	/**
+	 * Closes a connection.
+	 *
+	 * @param key The key of the connection.
+	 */
+	private void close(SelectionKey key)
+	{
+		Connection c = (Connection) key.attachment();
+		if (c != null)
+		{
+			c.closed = true;
+			if (c.subscription != null)
+			{
+				server.getChanges().unsubscribe(c.subscription);
+			}
+		}
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class for the list of the performers of a store, kept in memory so that "getbands" doesn't read the storage.
+ * For each performer the number of its songs and events is counted: a performer is listed while it has
+ * at least one of them, and the count is updated by the store after every change that really happened.
+ * The sorted list is built only when a performer appears or disappears, and shared by the readers until then.
+ *
+ * @author Davide Reverberi
+ */
+public class PerformerRegistry {
+
+	private final Map<String, Integer> rows = new TreeMap<>();	//Songs plus events of each performer, sorted by name
+	private List<String> names = null;							//Read only list of the performers, null when it must be built again
+
+	/**
+	 * Constructor for the PerformerRegistry class.
+	 *
+	 * @param initial Songs plus events of each performer already in the store.
+	 */
+	public PerformerRegistry(Map<String, Integer> initial)
+	{
+		for (Map.Entry<String, Integer> entry : initial.entrySet())
+		{
+			add(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Counts songs or events added to a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @param count The number of songs or events added, nothing happens if not positive.
+	 */
+	public synchronized void add(String performer, int count)
+	{
+		if (count <= 0)
+		{
+			return;
+		}
+		if (rows.merge(performer, count, Integer::sum) == count)
+		{
+			names = null;	//New performer
+		}
+	}
+
+	/**
+	 * Counts songs or events removed from a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @param count The number of songs or events removed, nothing happens if not positive.
+	 */
+	public synchronized void remove(String performer, int count)
+	{
+		if (count <= 0 || !rows.containsKey(performer))
+		{
+			return;
+		}
+		if (rows.merge(performer, -count, Integer::sum) <= 0)
+		{
+			rows.remove(performer);
+			names = null;	//Performer gone
+		}
+	}
+
+	/**
+	 * Gets the performers having at least a song or an event.
+	 *
+	 * @return A read only list of the performers, sorted by name.
+	 */
+	public synchronized List<String> list()
+	{
+		if (names == null)
+		{
+			names = Collections.unmodifiableList(new ArrayList<>(rows.keySet()));
+		}
+		return names;
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a database connection lent by a ConnectionPool.
+ * Closing it gives the connection back to the pool instead of closing it for real,
+ * so it can be used with try-with-resources around every database operation.
+ * Each connection keeps a cache of its prepared statements keyed by SQL text, so the same
+ * query is parsed once per connection and its statement handle is reused instead of leaked.
+ *
+ * @author Davide Reverberi
+ */
+public class PooledConnection implements AutoCloseable {
+
+	private final ConnectionPool pool;		//Pool owning the connection
+	private final Connection connection;	//Physical connection with the database
+	private long borrowTime = 0;			//Time (ms) of the last borrow
+	private long releaseTime = System.currentTimeMillis();	//Time (ms) the connection was opened or last given back
+	private Throwable borrowStack = null;	//Place of the last borrow, only if the pool traces the borrows
+	private boolean leakReported = false;	//True if the last borrow has already been reported as leaked
+
+	private static final int STATEMENT_CACHE_SIZE = 32;	//Maximum number of statements cached per connection
+
+	//Prepared statements of this connection by SQL text, least recently used first
+	private final Map<String, PreparedStatement> statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+		{
+			if (size() > STATEMENT_CACHE_SIZE)
+			{
+				closeStatement(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * Constructs a pooled connection around a physical one.
+	 *
+	 * @param pool The pool the connection belongs to.
+	 * @param connection The physical connection.
+	 */
+	PooledConnection(ConnectionPool pool, Connection connection)
+	{
+		this.pool = pool;
+		this.connection = connection;
+	}
+
+	/**
+	 * Gets the physical connection, to be used only until this object is closed.
+	 *
+	 * @return The JDBC connection.
+	 */
+	public Connection getConnection()
+	{
+		return this.connection;
+	}
+
+	/**
+	 * Gets a prepared statement for the given SQL text, creating it only the first time
+	 * the query is used on this connection.
+	 * The statement belongs to the cache: callers must not close it, only the ResultSets it produces.
+	 *
+	 * @param sql The SQL text of the query.
+	 * @return The cached PreparedStatement, with the parameters of the previous use cleared.
+	 * @throws SQLException If the statement can't be prepared.
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException
+	{
+		PreparedStatement statement = statementCache.get(sql);
+		if (statement == null || statement.isClosed())
+		{
+			statement = connection.prepareStatement(sql);
+			statementCache.put(sql, statement);
+		}else {
+			statement.clearParameters();
+		}
+		return statement;
+	}
+
+	/**
+	 * Gives the connection back to the pool.
+	 */
+	@Override
+	public void close()
+	{
+		pool.release(this);
+	}
+
+	/**
+	 * Marks the connection as just borrowed, for the leak detection.
+	 *
+	 * @param borrowStack The place of the borrow, null if not traced.
+	 */
+	void markBorrowed(Throwable borrowStack)
+	{
+		this.borrowTime = System.currentTimeMillis();
+		this.borrowStack = borrowStack;
+		this.leakReported = false;
+	}
+
+	/**
+	 * Marks the connection as just given back, for the validation of the next borrow.
+	 */
+	void markReleased()
+	{
+		this.releaseTime = System.currentTimeMillis();
+		this.borrowStack = null;
+	}
+
+	/**
+	 * Gets the time the connection was opened or last given back to the pool.
+	 *
+	 * @return The release time in milliseconds.
+	 */
+	long getReleaseTime()
+	{
+		return this.releaseTime;
+	}
+
+	/**
+	 * Gets the place of the last borrow.
+	 *
+	 * @return The stack of the borrow, null if the pool doesn't trace the borrows.
+	 */
+	Throwable getBorrowStack()
+	{
+		return this.borrowStack;
+	}
+
+	/**
+	 * Gets the time of the last borrow.
+	 *
+	 * @return The borrow time in milliseconds.
+	 */
+	long getBorrowTime()
+	{
+		return this.borrowTime;
+	}
+
+	/**
+	 * Tells if the last borrow has already been reported as leaked.
+	 *
+	 * @return true if already reported, false if not.
+	 */
+	boolean isLeakReported()
+	{
+		return this.leakReported;
+	}
+
+	/**
+	 * Marks the last borrow as reported leaked.
+	 */
+	void setLeakReported()
+	{
+		this.leakReported = true;
+	}
+
+	/**
+	 * Closes the physical connection, when it's broken or the pool is closed.
+	 */
+	void closePhysically()
+	{
+		for (PreparedStatement statement : statementCache.values())
+		{
+			closeStatement(statement);
+		}
+		statementCache.clear();
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Closes a statement leaving the cache.
+	 *
+	 * @param statement The statement to close.
+	 */
+	private static void closeStatement(PreparedStatement statement)
+	{
+		try {
+			statement.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for an in-memory cache of repertoire lists (songs or events) by performer.
+ * DataAcces looks here before querying the database, so guests browsing the same bands
+ * don't cost a database round trip every time.
+ * The cache keeps at most maxEntries performers, evicting the least recently used one,
+ * and an entry expires ttlMillis after being loaded. Every change of a performer's data
+ * must invalidate its entry.
+ *
+ * @param <T> Song or Event.
+ * @author Davide Reverberi
+ */
+public class RepertoireCache<T> {
+
+	/**
+	 * Represents a cached list with its expiry time.
+	 */
+	private static class Entry<T> {
+		final List<T> list;
+		final long expiry;
+
+		Entry(List<T> list, long expiry)
+		{
+			this.list = list;
+			this.expiry = expiry;
+		}
+	}
+
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final Map<String, Entry<T>> entries;	//Cached lists by performer, least recently used first
+
+	private long invalidations = 0;		//Number of invalidations, used as stamp to discard loads overtaken by a change
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Constructor for the RepertoireCache class.
+	 *
+	 * @param maxEntries Maximum number of performers kept in the cache.
+	 * @param ttlMillis Time (ms) after which a cached list is loaded again from the database.
+	 */
+	public RepertoireCache(int maxEntries, long ttlMillis)
+	{
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry<T>> eldest)
+			{
+				if (size() > RepertoireCache.this.maxEntries)
+				{
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the cached list of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return The cached (read only) list, null if not cached or expired.
+	 */
+	public synchronized List<T> get(String performer)
+	{
+		Entry<T> entry = entries.get(performer);
+		if (entry == null || entry.expiry < System.currentTimeMillis())
+		{
+			if (entry != null)
+			{
+				entries.remove(performer);	//Expired
+			}
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.list;
+	}
+
+	/**
+	 * Gets the stamp to take before loading a list from the database and to pass to put().
+	 *
+	 * @return The current stamp.
+	 */
+	public synchronized long stamp()
+	{
+		return invalidations;
+	}
+
+	/**
+	 * Puts the list loaded from the database in the cache.
+	 * If an invalidation happened after the stamp was taken, the list may be stale and it's not cached.
+	 *
+	 * @param performer The name of the performer.
+	 * @param list The list loaded from the database.
+	 * @param stamp The stamp taken before loading the list.
+	 * @return The read only list to use in place of the given one.
+	 */
+	public synchronized List<T> put(String performer, List<T> list, long stamp)
+	{
+		List<T> readOnly = Collections.unmodifiableList(list);
+		if (stamp == invalidations)
+		{
+			entries.put(performer, new Entry<>(readOnly, System.currentTimeMillis() + ttlMillis));
+		}
+		return readOnly;
+	}
+
+	/**
+	 * Removes the cached list of a performer, after its data has been changed.
+	 *
+	 * @param performer The name of the performer.
+	 */
+	public synchronized void invalidate(String performer)
+	{
+		invalidations++;
+		entries.remove(performer);
+	}
+
+	/**
+	 * Gets the number of requests answered by the cache.
+	 *
+	 * @return The number of hits.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Gets the number of requests that had to go to the database.
+	 *
+	 * @return The number of misses.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Gets the number of lists evicted to keep the cache within maxEntries.
+	 *
+	 * @return The number of evictions.
+	 */
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Returns a string representation of the cache counters.
+	 *
+	 * @return A string with size, hits, misses and evictions.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "size=" + entries.size() + " hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+	}
+}
@@ -0,0 +1,410 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Interface for the storage of the repertoire (songs, events and performers).
+ * ClientSession only talks to a RepertoireStore, so the storage engine can be chosen at startup:
+ * the MySQL database (JdbcRepertoireStore) or an in-memory one (InMemoryRepertoireStore), useful
+ * to run the server without a database.
+ * Song and event names are unique for each performer, like the (Performer, Name) keys of the database tables.
+ *
+ * @author Davide Reverberi
+ */
+public interface RepertoireStore {
+
+	/**
+	 * Represents the receiver of the rows of a streamed list, called once per row as soon as it is read.
+	 *
+	 * @param <T> Song or Event.
+	 */
+	interface RowHandler<T> {
+		void handle(T row) throws IOException;
+	}
+
+	/**
+	 * Gets the names of the performers having at least a song or an event.
+	 *
+	 * @return The list of performers sorted by name, null if the store can't be read.
+	 */
+	List<String> getPerformers();
+
+	/**
+	 * Gets the songs of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return A read only list of songs sorted by name, null if the store can't be read.
+	 */
+	List<Song> getSongs(String performer);
+
+	/**
+	 * Gets the events of a performer.
+	 *
+	 * @param performer The name of the performer.
+	 * @return A read only list of events sorted by name, null if the store can't be read.
+	 */
+	List<Event> getEvents(String performer);
+
+	/**
+	 * Passes every song of a performer to the handler, without building the whole list first.
+	 *
+	 * @param performer The name of the performer.
+	 * @param handler The receiver of the songs.
+	 * @return true if every song has been passed, false if the store can't be read.
+	 * @throws IOException If the handler fails.
+	 */
+	boolean streamSongs(String performer, RowHandler<Song> handler) throws IOException;
+
+	/**
+	 * Passes every event of a performer to the handler, without building the whole list first.
+	 *
+	 * @param performer The name of the performer.
+	 * @param handler The receiver of the events.
+	 * @return true if every event has been passed, false if the store can't be read.
+	 * @throws IOException If the handler fails.
+	 */
+	boolean streamEvents(String performer, RowHandler<Event> handler) throws IOException;
+
+	/**
+	 * Gets a page of the songs of a performer, sorted by name.
+	 * With a cursor the page starts after the song with that name (keyset paging: songs added or removed
+	 * in the previous pages don't move the next ones); without it, it starts after offset songs.
+	 * The default implementation reads every song and sorts them, stores able to read a single page should override it.
+	 *
+	 * @param performer The name of the performer.
+	 * @param after The name of the last song of the previous page, null to use the offset.
+	 * @param offset The number of songs to skip, used without cursor.
+	 * @param limit The maximum number of songs of the page.
+	 * @return A read only list of at most limit songs, null if the store can't be read.
+	 */
+	default List<Song> getSongsPage(String performer, String after, int offset, int limit)
+	{
+		List<Song> songs = getSongs(performer);
+		if (songs == null)
+		{
+			return null;
+		}
+		List<Song> sorted = new ArrayList<>(songs);
+		sorted.sort(Comparator.comparing(Song::getName));
+		return page(sorted, after == null ? offset : countUpTo(sorted, after, Song::getName), limit);
+	}
+
+	/**
+	 * Gets a page of the events of a performer, sorted by name. Works like getSongsPage().
+	 *
+	 * @param performer The name of the performer.
+	 * @param after The name of the last event of the previous page, null to use the offset.
+	 * @param offset The number of events to skip, used without cursor.
+	 * @param limit The maximum number of events of the page.
+	 * @return A read only list of at most limit events, null if the store can't be read.
+	 */
+	default List<Event> getEventsPage(String performer, String after, int offset, int limit)
+	{
+		List<Event> events = getEvents(performer);
+		if (events == null)
+		{
+			return null;
+		}
+		List<Event> sorted = new ArrayList<>(events);
+		sorted.sort(Comparator.comparing(Event::getName));
+		return page(sorted, after == null ? offset : countUpTo(sorted, after, Event::getName), limit);
+	}
+
+	/**
+	 * Gets the songs of a performer satisfying a filter, in the order it asks.
+	 * The default implementation reads every song and filters them in memory, stores able to
+	 * select the songs in their storage should override it.
+	 *
+	 * @param performer The name of the performer.
+	 * @param filter The conditions, order and maximum number of the songs.
+	 * @return A read only list of the matching songs, null if the store can't be read.
+	 */
+	default List<Song> findSongs(String performer, SongFilter filter)
+	{
+		List<Song> songs = getSongs(performer);
+		return songs == null ? null : Collections.unmodifiableList(filter.apply(songs));
+	}
+
+	/**
+	 * Counts the rows of a list sorted by name whose name is not after a given one.
+	 *
+	 * @param <T> Song or Event.
+	 * @param sorted The list, sorted by name.
+	 * @param name The name.
+	 * @param nameOf Gets the name of a row.
+	 * @return The position of the first row after the name.
+	 */
+	private static <T> int countUpTo(List<T> sorted, String name, Function<T, String> nameOf)
+	{
+		int low = 0;
+		int high = sorted.size();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (nameOf.apply(sorted.get(mid)).compareTo(name) <= 0)
+			{
+				low = mid + 1;
+			}else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Cuts a page from a list.
+	 *
+	 * @param <T> Song or Event.
+	 * @param list The whole list.
+	 * @param from The position of the first row of the page.
+	 * @param limit The maximum number of rows of the page.
+	 * @return A read only copy of the page, empty if from is beyond the end.
+	 */
+	private static <T> List<T> page(List<T> list, int from, int limit)
+	{
+		int start = Math.max(0, Math.min(from, list.size()));
+		int end = Math.min(list.size(), start + Math.max(0, limit));
+		return Collections.unmodifiableList(new ArrayList<>(list.subList(start, end)));
+	}
+
+	/**
+	 * Gets the songs and the events of a performer together.
+	 * Stores able to read both with a single request to their storage should override it.
+	 *
+	 * @param performer The name of the performer.
+	 * @return The overview of the performer, null if the store can't be read.
+	 */
+	default BandOverview getBand(String performer)
+	{
+		List<Song> songs = getSongs(performer);
+		List<Event> events = getEvents(performer);
+		return songs == null || events == null ? null : new BandOverview(performer, songs, events);
+	}
+
+	/**
+	 * Finds the songs and events having a word beginning with every term of a query (see SearchIndex).
+	 * The default implementation reads the songs and events of every performer searched,
+	 * stores keeping a SearchIndex should override it.
+	 *
+	 * @param query The query.
+	 * @param performer The performer whose songs and events are searched, null for every performer.
+	 * @param limit The maximum number of results.
+	 * @return A read only list of the first matching songs and events found, at most limit,
+	 *         sorted by SearchIndex.ORDER; null if the store can't be read.
+	 */
+	default List<SearchIndex.Hit> search(String query, String performer, int limit)
+	{
+		List<String> terms = SearchIndex.terms(query);
+		List<SearchIndex.Hit> found = new ArrayList<>();
+		List<String> performers = performer != null ? Collections.singletonList(performer) : getPerformers();
+		if (performers == null)
+		{
+			return null;
+		}
+		for (String p : terms.isEmpty() ? Collections.<String>emptyList() : performers)
+		{
+			List<Song> songs = getSongs(p);
+			List<Event> events = getEvents(p);
+			if (songs == null || events == null)
+			{
+				return null;
+			}
+			for (Song s : songs)
+			{
+				SearchIndex.Hit hit = new SearchIndex.Hit(s);
+				if (found.size() < limit && hit.matches(terms))
+				{
+					found.add(hit);
+				}
+			}
+			for (Event e : events)
+			{
+				SearchIndex.Hit hit = new SearchIndex.Hit(e);
+				if (found.size() < limit && hit.matches(terms))
+				{
+					found.add(hit);
+				}
+			}
+			if (found.size() >= limit)
+			{
+				break;
+			}
+		}
+		found.sort(SearchIndex.ORDER);
+		return Collections.unmodifiableList(found);
+	}
+
+	/**
+	 * Gets the events between two days (see EventCalendar).
+	 * The default implementation reads the events of every performer asked, stores keeping
+	 * an EventCalendar should override it, like the next two methods.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @param from The first day.
+	 * @param to The last day, included.
+	 * @param limit The maximum number of events.
+	 * @return A read only list of the first events between the days, at most limit, sorted by date,
+	 *         performer and name; null if the store can't be read.
+	 */
+	default List<Event> getEventsBetween(String performer, LocalDate from, LocalDate to, int limit)
+	{
+		EventCalendar calendar = calendarOf(performer);
+		return calendar == null ? null : Collections.unmodifiableList(calendar.between(performer, from, to, limit));
+	}
+
+	/**
+	 * Gets the next events from a day.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @param from The first day (today).
+	 * @param count The maximum number of events.
+	 * @return A read only list of the first count events from the day, sorted by date, performer and name;
+	 *         null if the store can't be read.
+	 */
+	default List<Event> getUpcomingEvents(String performer, LocalDate from, int count)
+	{
+		EventCalendar calendar = calendarOf(performer);
+		return calendar == null ? null : Collections.unmodifiableList(calendar.upcoming(performer, from, count));
+	}
+
+	/**
+	 * Gets the double bookings: the events of a performer on a day when the performer has other events.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @param from The first day checked.
+	 * @param limit The maximum number of events.
+	 * @return A read only list of the events booked on the same day as another event of their performer,
+	 *         at most limit, sorted by performer, date and name; null if the store can't be read.
+	 */
+	default List<Event> getEventConflicts(String performer, LocalDate from, int limit)
+	{
+		EventCalendar calendar = calendarOf(performer);
+		return calendar == null ? null : Collections.unmodifiableList(calendar.conflicts(performer, from, limit));
+	}
+
+	/**
+	 * Builds a calendar of the events of a performer or of every performer, for the default calendar queries.
+	 *
+	 * @param performer The performer, null for every performer.
+	 * @return The calendar, null if the store can't be read.
+	 */
+	private EventCalendar calendarOf(String performer)
+	{
+		List<String> performers = performer != null ? Collections.singletonList(performer) : getPerformers();
+		if (performers == null)
+		{
+			return null;
+		}
+		EventCalendar calendar = new EventCalendar();
+		for (String p : performers)
+		{
+			List<Event> events = getEvents(p);
+			if (events == null)
+			{
+				return null;
+			}
+			for (Event e : events)
+			{
+				calendar.add(e);
+			}
+		}
+		return calendar;
+	}
+
+	/**
+	 * Adds a song, unless a song with the same name exists.
+	 *
+	 * @param s The song to add.
+	 * @return 1 if added, 0 if a song with the same name exists, -1 if the store can't be written.
+	 */
+	int addSong(Song s);
+
+	/**
+	 * Adds an event, unless an event with the same name exists.
+	 *
+	 * @param e The event to add.
+	 * @return 1 if added, 0 if an event with the same name exists, -1 if the store can't be written.
+	 */
+	int addEvent(Event e);
+
+	/**
+	 * Removes the song with the performer and the name of the given one.
+	 *
+	 * @param s The song to remove.
+	 * @return 1 if removed, 0 if not found, -1 if the store can't be written.
+	 */
+	int removeSong(Song s);
+
+	/**
+	 * Removes the event with the performer and the name of the given one.
+	 *
+	 * @param e The event to remove.
+	 * @return 1 if removed, 0 if not found, -1 if the store can't be written.
+	 */
+	int removeEvent(Event e);
+
+	/**
+	 * Adds many songs at once.
+	 *
+	 * @param songs The songs to add.
+	 * @return For each song 1 if added, 0 if a song with the same name exists; null if the store can't be written.
+	 */
+	int[] addSongs(List<Song> songs);
+
+	/**
+	 * Removes many songs at once.
+	 *
+	 * @param songs The songs to remove.
+	 * @return For each song 1 if removed, 0 if not found; null if the store can't be written.
+	 */
+	int[] removeSongs(List<Song> songs);
+
+	/**
+	 * Adds many events at once.
+	 *
+	 * @param events The events to add.
+	 * @return For each event 1 if added, 0 if an event with the same name exists; null if the store can't be written.
+	 */
+	int[] addEvents(List<Event> events);
+
+	/**
+	 * Removes many events at once.
+	 *
+	 * @param events The events to remove.
+	 * @return For each event 1 if removed, 0 if not found; null if the store can't be written.
+	 */
+	int[] removeEvents(List<Event> events);
+
+	/**
+	 * Tells whether the reads see every change made to the store. Stores answering from an old copy
+	 * while they start (see SnapshotRepertoireStore) return false meanwhile; the others don't need to override it.
+	 *
+	 * @return true if the reads are up to date.
+	 */
+	default boolean isCurrent()
+	{
+		return true;
+	}
+
+	/**
+	 * Releases the resources of the store when the service closes.
+	 * Stores with nothing to release don't need to override it.
+	 */
+	default void close()
+	{
+		//Nothing to release
+	}
+}
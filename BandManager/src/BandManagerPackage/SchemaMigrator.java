@@ -0,0 +1,197 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Class for the versioned evolution of the database schema.
+ * The versions already applied are recorded in the schema_version table; at startup every newer
+ * migration is applied in order, changing the existing tables and rows in place.
+ * A database created before the runner existed has the version 1 tables and no schema_version:
+ * version 1 only creates missing tables, so such a database is migrated like any other.
+ * To change the schema add a new migration at the end of MIGRATIONS, never edit an applied one.
+ * A statement starting with "SELECT" is a check: the rows it finds can't be migrated, so they are reported
+ * and the migration stops before changing anything, to be fixed by hand.
+ * A statement can start with a guard, like "[songs.Seconds absent, songs.Length float]": it is run only if
+ * every column named is absent, present, or of the given type. MySQL can't roll back table changes, so the
+ * steps of a migration stopped halfway (a failure, or the server stopped) are guarded by the columns they
+ * change: at the next startup the migration goes on from the first step not done.
+ *
+ * @author Davide Reverberi
+ */
+public class SchemaMigrator {
+
+	/**
+	 * Migrations in order: version, description, then the SQL statements to apply.
+	 * A failing migration stops the startup (see DataAcces): once the cause is fixed, the next startup
+	 * goes on with the steps not done.
+	 */
+	private static final String[][] MIGRATIONS = {
+		{"1", "Songs and events tables",
+			"CREATE TABLE IF NOT EXISTS songs (Name CHAR(40) PRIMARY KEY, Author CHAR(40), Length FLOAT, BPM INT(3), Performer CHAR(40))",
+			"CREATE TABLE IF NOT EXISTS events (Name CHAR(40) PRIMARY KEY, Place CHAR(70), Date CHAR(15), Type CHAR(60), Performer CHAR(40))"},
+
+		//Names unique per performer, rows clustered by performer (the key is also the index used by every read),
+		//lengths from minutes.seconds to seconds (every length must have its seconds below 60),
+		//dates from "d-mm-yyyy" text to DATE (every date must be convertible)
+		{"2", "Performer and name keys, length in seconds, real dates",
+			"[events.Date char] SELECT Performer, Name, Date FROM events WHERE Date IS NOT NULL AND "
+				+ "(Date NOT REGEXP '^[0-9]{1,2}-[0-9]{1,2}-[0-9]{4}$' OR STR_TO_DATE(Date, '%d-%m-%Y') IS NULL)",
+			"[songs.Length float] SELECT Performer, Name, Length FROM songs WHERE Length < 0 OR ROUND((Length - FLOOR(Length)) * 100) >= 60",
+			"UPDATE songs SET Performer = '' WHERE Performer IS NULL",
+			"[songs.Seconds absent, songs.Length float] ALTER TABLE songs ADD COLUMN Seconds INT NOT NULL DEFAULT 0",
+			"[songs.Seconds present, songs.Length float] UPDATE songs SET Seconds = FLOOR(Length) * 60 + ROUND((Length - FLOOR(Length)) * 100) WHERE Length IS NOT NULL",
+			"[songs.Seconds present, songs.Length float] ALTER TABLE songs DROP COLUMN Length",
+			"[songs.Seconds present, songs.Length absent] ALTER TABLE songs CHANGE Seconds Length INT NOT NULL DEFAULT 0",
+			"ALTER TABLE songs DROP PRIMARY KEY, MODIFY Performer CHAR(40) NOT NULL, ADD PRIMARY KEY (Performer, Name)",
+
+			"UPDATE events SET Performer = '' WHERE Performer IS NULL",
+			"[events.EventDate absent, events.Date char] ALTER TABLE events ADD COLUMN EventDate DATE NULL",
+			"[events.EventDate present, events.Date char] UPDATE events SET EventDate = STR_TO_DATE(Date, '%d-%m-%Y') WHERE Date IS NOT NULL",
+			"[events.EventDate present, events.Date char] ALTER TABLE events DROP COLUMN Date",
+			"[events.EventDate present, events.Date absent] ALTER TABLE events CHANGE EventDate Date DATE NULL",
+			"ALTER TABLE events DROP PRIMARY KEY, MODIFY Performer CHAR(40) NOT NULL, ADD PRIMARY KEY (Performer, Name)"},
+	};
+
+	private SchemaMigrator()
+	{
+		//Only static methods
+	}
+
+	/**
+	 * Brings the schema of the database to the latest version.
+	 *
+	 * @param connection A connection to the database, in auto-commit mode.
+	 * @return The version of the schema after the migration.
+	 * @throws SQLException If a migration fails, or finds rows it can't migrate.
+	 */
+	public static int migrate(Connection connection) throws SQLException
+	{
+		try (Statement stmt = connection.createStatement()) {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (Version INT PRIMARY KEY, Description CHAR(100), "
+					+ "Applied TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+
+			int current = 0;
+			try (ResultSet result = stmt.executeQuery("SELECT COALESCE(MAX(Version), 0) FROM schema_version")) {
+				if (result.next())
+				{
+					current = result.getInt(1);
+				}
+			}
+
+			for (String[] migration : MIGRATIONS)
+			{
+				int version = Integer.parseInt(migration[0]);
+				if (version <= current)
+				{
+					continue;	//Already applied
+				}
+
+				long start = System.currentTimeMillis();
+				for (int i = 2; i < migration.length; i++)
+				{
+					String step = migration[i];
+					if (step.startsWith("["))
+					{
+						int end = step.indexOf(']');
+						if (!guardHolds(connection, step.substring(1, end)))
+						{
+							continue;	//Done by a previous startup
+						}
+						step = step.substring(end + 1).trim();
+					}
+					if (step.startsWith("SELECT"))
+					{
+						check(stmt, version, step);
+					}else {
+						stmt.executeUpdate(step);
+					}
+				}
+				try (PreparedStatement record = connection.prepareStatement("INSERT INTO schema_version (Version, Description) VALUES (?, ?)")) {
+					record.setInt(1, version);
+					record.setString(2, migration[1]);
+					record.executeUpdate();
+				}
+				current = version;
+				System.out.println("Database schema: migrated to version " + version + " (" + migration[1] + ") in "
+						+ (System.currentTimeMillis() - start) + " ms");
+			}
+			return current;
+		}
+	}
+
+	/**
+	 * Tells whether the columns of a guard are as it asks.
+	 *
+	 * @param connection The connection to the database.
+	 * @param guard The conditions, like "songs.Seconds absent, songs.Length float".
+	 * @return true if every condition holds.
+	 * @throws SQLException If the columns can't be read.
+	 */
+	private static boolean guardHolds(Connection connection, String guard) throws SQLException
+	{
+		try (PreparedStatement column = connection.prepareStatement("SELECT DATA_TYPE FROM information_schema.COLUMNS "
+				+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ?")) {
+			for (String condition : guard.split(","))
+			{
+				String[] parts = condition.trim().split("[. ]+");	//Table, column, expected type
+				column.setString(1, parts[0]);
+				column.setString(2, parts[1]);
+				String type = null;
+				try (ResultSet result = column.executeQuery()) {
+					if (result.next())
+					{
+						type = result.getString(1);
+					}
+				}
+				boolean holds = parts[2].equals("absent") ? type == null
+						: parts[2].equals("present") ? type != null : parts[2].equalsIgnoreCase(type);
+				if (!holds)
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Runs the check of a migration, reporting the rows it finds.
+	 *
+	 * @param stmt The statement used by the migration.
+	 * @param version The version being applied.
+	 * @param query The check, selecting the rows that can't be migrated.
+	 * @throws SQLException If the check finds rows, or fails.
+	 */
+	private static void check(Statement stmt, int version, String query) throws SQLException
+	{
+		int found = 0;
+		try (ResultSet result = stmt.executeQuery(query)) {
+			int columns = result.getMetaData().getColumnCount();
+			while (result.next())
+			{
+				StringBuilder row = new StringBuilder();
+				for (int c = 1; c <= columns; c++)
+				{
+					row.append(c > 1 ? ", " : "").append(result.getString(c));
+				}
+				System.err.println("Database schema: version " + version + " can't migrate the row (" + row + ")");
+				found++;
+			}
+		}
+		if (found > 0)
+		{
+			throw new SQLException("Version " + version + " can't migrate " + found + " rows, fix them and restart");
+		}
+	}
+}
@@ -0,0 +1,438 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class for the words of every song (name, author) and event (name, place, type) of a store, used by the
+ * "search" command to find them by the beginning of their words in every band at once.
+ * Texts are cut in words at every character that is not a letter or a digit and, for names written
+ * like "StrongerThanMe", also at every capital letter; words are compared ignoring case.
+ * Every word points to the songs and events containing it (inverted index) and the words are sorted,
+ * so the words beginning with a term are next to each other. A query is answered starting from the term
+ * (or the band) with fewest songs and events, checking the other terms only on them, and stops at the limit
+ * of the results: its cost depends on the candidates checked and not on the size of the store.
+ * The index is changed by the store after every change (see IndexedRepertoireStore).
+ *
+ * @author Davide Reverberi
+ */
+public class SearchIndex {
+
+	/**
+	 * Represents a song or an event found by a search, with the words it can be found by.
+	 * Two hits are equal when they are both songs or both events, with the same performer and name.
+	 */
+	public static class Hit {
+
+		private final Song song;			//The song, null for an event
+		private final Event event;			//The event, null for a song
+		private final String[] words;		//Words of the song or event, lower case and without repetitions
+
+		/**
+		 * Constructor for a song found by a search.
+		 *
+		 * @param song The song.
+		 */
+		public Hit(Song song)
+		{
+			this.song = song;
+			this.event = null;
+			this.words = words(song.getName(), song.getAuthor());
+		}
+
+		/**
+		 * Constructor for an event found by a search.
+		 *
+		 * @param event The event.
+		 */
+		public Hit(Event event)
+		{
+			this.song = null;
+			this.event = event;
+			this.words = words(event.getName(), event.getPlace(), event.getType());
+		}
+
+		/**
+		 * Gets the song found.
+		 *
+		 * @return The song, null if an event was found.
+		 */
+		public Song getSong()
+		{
+			return song;
+		}
+
+		/**
+		 * Gets the event found.
+		 *
+		 * @return The event, null if a song was found.
+		 */
+		public Event getEvent()
+		{
+			return event;
+		}
+
+		/**
+		 * Gets the performer of the song or event found.
+		 *
+		 * @return The name of the performer.
+		 */
+		public String getPerformer()
+		{
+			return song != null ? song.getPerformer() : event.getPerformer();
+		}
+
+		/**
+		 * Gets the name of the song or event found.
+		 *
+		 * @return The name.
+		 */
+		public String getName()
+		{
+			return song != null ? song.getName() : event.getName();
+		}
+
+		/**
+		 * Tells whether every term of a query begins a word of the song or event.
+		 *
+		 * @param terms The terms of the query (see terms()).
+		 * @return true if the song or event matches the query.
+		 */
+		public boolean matches(List<String> terms)
+		{
+			for (String term : terms)
+			{
+				boolean found = false;
+				for (String word : words)
+				{
+					if (word.startsWith(term))
+					{
+						found = true;
+						break;
+					}
+				}
+				if (!found)
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Hit))
+			{
+				return false;
+			}
+			Hit other = (Hit) o;
+			return (song == null) == (other.song == null) && getPerformer().equals(other.getPerformer()) && getName().equals(other.getName());
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return (getPerformer().hashCode() * 31 + getName().hashCode()) * 2 + (song == null ? 1 : 0);
+		}
+	}
+
+	/** Order of the results of a search: by performer, songs before events, then by name. */
+	public static final Comparator<Hit> ORDER = Comparator.comparing(Hit::getPerformer)
+			.thenComparing(h -> h.getSong() == null)
+			.thenComparing(Hit::getName);
+
+	private static final int COUNT_LIMIT = 4096;	//Candidates counted for a term, enough to choose where a search starts
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();	//Searches run together, changes alone
+	private final TreeMap<String, Set<Hit>> postings = new TreeMap<>();		//Songs and events of each word, words sorted
+	private final Map<String, Set<Hit>> performers = new HashMap<>();		//Songs and events of each performer
+	private final Map<Hit, Hit> hits = new HashMap<>();						//Every song and event indexed
+
+	/**
+	 * Cuts the texts of a song or event in words.
+	 *
+	 * @param texts The texts (null ones are skipped).
+	 * @return The words in lower case, without repetitions.
+	 */
+	static String[] words(String... texts)
+	{
+		Set<String> words = new HashSet<>();
+		for (String text : texts)
+		{
+			if (text == null)
+			{
+				continue;
+			}
+			int start = -1;			//Beginning of the current word, -1 outside words
+			int part = -1;			//Beginning of the current part of a word written like "ThanMe"
+			for (int i = 0; i <= text.length(); i++)
+			{
+				char c = i < text.length() ? text.charAt(i) : ' ';
+				if (!Character.isLetterOrDigit(c))
+				{
+					if (start != -1)
+					{
+						words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+						if (part > start)
+						{
+							words.add(text.substring(part, i).toLowerCase(Locale.ROOT));	//Last part
+						}
+					}
+					start = -1;
+					continue;
+				}
+				if (start == -1)
+				{
+					start = i;
+					part = i;
+				}else if (Character.isUpperCase(c) && Character.isLowerCase(text.charAt(i - 1)))
+				{
+					words.add(text.substring(part, i).toLowerCase(Locale.ROOT));	//A capital letter begins a new part
+					part = i;
+				}
+			}
+		}
+		return words.toArray(new String[0]);
+	}
+
+	/**
+	 * Cuts a query in terms, each one must begin a word of the songs and events found.
+	 *
+	 * @param query The query written by the client.
+	 * @return The terms in lower case, without repetitions; empty if the query has no letters or digits.
+	 */
+	public static List<String> terms(String query)
+	{
+		List<String> terms = new ArrayList<>();
+		for (String term : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+"))
+		{
+			if (!term.isEmpty() && !terms.contains(term))
+			{
+				terms.add(term);
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * Adds a song to the index, unless a song with the same performer and name is already in it.
+	 *
+	 * @param s The song.
+	 */
+	public void add(Song s)
+	{
+		add(new Hit(s));
+	}
+
+	/**
+	 * Adds an event to the index, unless an event with the same performer and name is already in it.
+	 *
+	 * @param e The event.
+	 */
+	public void add(Event e)
+	{
+		add(new Hit(e));
+	}
+
+	/**
+	 * Removes the song with the performer and the name of the given one.
+	 *
+	 * @param s The song.
+	 */
+	public void remove(Song s)
+	{
+		remove(new Hit(s));
+	}
+
+	/**
+	 * Removes the event with the performer and the name of the given one.
+	 *
+	 * @param e The event.
+	 */
+	public void remove(Event e)
+	{
+		remove(new Hit(e));
+	}
+
+	/**
+	 * Adds a song or event to the index.
+	 *
+	 * @param hit The song or event.
+	 */
+	private void add(Hit hit)
+	{
+		lock.writeLock().lock();
+		try {
+			if (hits.putIfAbsent(hit, hit) != null)
+			{
+				return;		//Already in, like in the store
+			}
+			for (String word : hit.words)
+			{
+				postings.computeIfAbsent(word, w -> new HashSet<>()).add(hit);
+			}
+			performers.computeIfAbsent(hit.getPerformer(), p -> new HashSet<>()).add(hit);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a song or event from the index.
+	 *
+	 * @param probe A song or event with the performer and the name of the one to remove.
+	 */
+	private void remove(Hit probe)
+	{
+		lock.writeLock().lock();
+		try {
+			Hit hit = hits.remove(probe);
+			if (hit == null)
+			{
+				return;
+			}
+			for (String word : hit.words)	//Words of the indexed one, the probe may differ
+			{
+				Set<Hit> set = postings.get(word);
+				set.remove(hit);
+				if (set.isEmpty())
+				{
+					postings.remove(word);
+				}
+			}
+			Set<Hit> set = performers.get(hit.getPerformer());
+			set.remove(hit);
+			if (set.isEmpty())
+			{
+				performers.remove(hit.getPerformer());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the songs and events having a word beginning with every term of a query.
+	 *
+	 * @param query The query.
+	 * @param performer The performer whose songs and events are searched, null for every performer.
+	 * @param limit The maximum number of results.
+	 * @return The first matching songs and events found, at most limit, sorted by ORDER; empty if the query has no terms.
+	 */
+	public List<Hit> search(String query, String performer, int limit)
+	{
+		List<String> terms = terms(query);
+		List<Hit> found = new ArrayList<>();
+		if (terms.isEmpty() || limit <= 0)
+		{
+			return found;
+		}
+
+		terms.sort(Comparator.comparingInt(String::length).reversed());	//Longer terms begin fewer words, tried first
+		lock.readLock().lock();
+		try {
+			//Starting from the smallest group of candidates: the band or the words beginning with a term.
+			//Counting stops at COUNT_LIMIT, beyond it the first (longest) term is kept
+			Set<Hit> band = null;
+			int size = Integer.MAX_VALUE;
+			String first = null;
+			if (performer != null)
+			{
+				band = performers.get(performer);
+				if (band == null)
+				{
+					return found;
+				}
+				size = band.size();
+			}
+			for (String term : terms)
+			{
+				int count = 0;
+				for (Set<Hit> set : range(term))
+				{
+					count += set.size();
+					if (count >= size || count >= COUNT_LIMIT)
+					{
+						break;		//Not fewer than the candidates already chosen, no need to count them all
+					}
+				}
+				if (count == 0)
+				{
+					return found;	//No word begins with the term
+				}
+				if (count < size)
+				{
+					size = count;
+					first = term;
+				}
+			}
+
+			List<String> others = new ArrayList<>(terms);
+			others.remove(first);	//Nothing removed when starting from the band
+			Iterable<Set<Hit>> candidates = first == null ? Collections.singletonList(band) : range(first);
+			Set<Hit> seen = new HashSet<>();	//A hit can have more words beginning with the first term
+			for (Set<Hit> set : candidates)
+			{
+				for (Hit hit : set)
+				{
+					if ((performer == null || performer.equals(hit.getPerformer())) && hit.matches(others) && seen.add(hit))
+					{
+						found.add(hit);
+						if (found.size() >= limit)
+						{
+							found.sort(ORDER);
+							return found;
+						}
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		found.sort(ORDER);
+		return found;
+	}
+
+	/**
+	 * Gets the songs and events of the words beginning with a term. The caller holds the lock.
+	 *
+	 * @param term The term.
+	 * @return The groups of songs and events, one for each word, read lazily.
+	 */
+	private Iterable<Set<Hit>> range(String term)
+	{
+		return postings.subMap(term, true, term + Character.MAX_VALUE, false).values();
+	}
+
+	/**
+	 * Gets the number of songs and events in the index.
+	 *
+	 * @return The number of songs and events.
+	 */
+	public int size()
+	{
+		lock.readLock().lock();
+		try {
+			return hits.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -8,21 +8,31 @@
 package BandManagerPackage;
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class for Server operation.
- * Class responsible for communicating data with the client and communicating with the 
- * DataAccess class related to updating the database.
+ * Class responsible for accepting the client connections and handing each of them to a
+ * ClientSession, which communicates data with the client and with the DataAccess class
+ * related to updating the database.
  * (Intermediate level in layered architecture, see documentation and user manual for deeper understanding)
  * 
  * @author Davide Reverberi
@@ -32,11 +42,21 @@ public class ServerLogic {
 	private static final int SPORT = 4444; 	//Port for the socket connection.
 	private static final String FILENAME = "./src/BandManagerPackage/accounts.txt";  //Path of the input file.
 	
+	private static final int MAX_SESSIONS = 512;	//Maximum number of clients served at the same time.
+	private static final int IDLE_SECONDS = 60;		//Seconds an idle worker thread is kept alive.
+	static final int CLOSE_SECONDS = 10;			//Seconds the running commands get to end when the service closes.
+	
     public final Map<String, String> profileMap = new HashMap<>();	//Map of the accounts
     
-	public List<Song> songsList_toSend = new ArrayList<>();  		//Local list of the available songs.
-	public List<Event> eventsList_toSend = new ArrayList<>();		//Local list of the available events.
-    public List<String> bandsList = new ArrayList<>();				//Local list of the available bands.
+    //Worker threads running the client sessions: created on demand, at most MAX_SESSIONS of them
+    private final ExecutorService sessionPool = new ThreadPoolExecutor(0, MAX_SESSIONS, IDLE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>());
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();	//Connections of the running sessions
+    private volatile ServerSocket server = null;	//Socket accepting the client connections, closed by shutdown() from a session
+    private volatile NioServer nioServer = null;	//Non-blocking front end, when started with "frontend=nio"
+    private final RepertoireStore store;	//Storage of songs, events and performers used by the sessions
+    private final SetlistBuilder setlists = new SetlistBuilder();	//Engine of the setlists asked by the sessions
+    private final ChangeHub changes = new ChangeHub();				//Changes pushed to the clients viewing a band
+    private ChangeDispatcher dispatcher = null;	//Thread writing the changes to the clients subscribed through service()
 	
     /**
      * Constructor for the Server class.
@@ -45,10 +65,22 @@ public class ServerLogic {
      * The file format should be: "username password".
      * Each line in the file represents a valid authenthication account.
      * If the file has a line containing only the number -1, the reading process stops.
-     * 
-     * @throws IOException If an error occurs while reading the file.
+     * The repertoire is stored in the MySQL database.
      */
 	public ServerLogic() 
+	{
+		this(new HashMap<>());
+	}
+
+    /**
+     * Constructor for the Server class with startup options.
+     * Reads the accounts like ServerLogic() and opens the store chosen by the "store" option:
+     * "mysql" (default, url given by "dburl"), "memory" (no database, "demo=false" to start empty)
+     * or "log" (no database, files in the "logdir" directory, see LogRepertoireStore).
+     *
+     * @param options The startup options (see parseOptions()).
+     */
+	public ServerLogic(Map<String, String> options)
 	{
 		try (BufferedReader reader = new BufferedReader(new FileReader(FILENAME))) {
             String line;
@@ -64,381 +96,221 @@ public class ServerLogic {
             e.printStackTrace();
         }
 		
-		DataAcces database = new DataAcces(); //Creating the connection with the database in the specific class
+		store = openStore(options);
 	}
-	
+
 	/**
-	 * Function to check if a song is in the songsList_toSend.
-	 * 
-	 * @param name String name of the song to check
-	 * @return true if song is found, false if not
+	 * Opens the store chosen by the startup options. With the "snapshot" option the store is opened
+	 * in background and the reads are served meanwhile by the snapshot file (see SnapshotRepertoireStore).
+	 * The searches and the calendar queries are answered by indexes built over the store, unless "index=false"
+	 * is given (every query then reads the songs and events of the bands, see IndexedRepertoireStore).
+	 *
+	 * @param options The startup options.
+	 * @return The RepertoireStore used by the sessions.
 	 */
-	public boolean isInSongsList(String name)
+	private static RepertoireStore openStore(Map<String, String> options)
 	{
-		for(Song p : this.songsList_toSend)
+		if (options.containsKey("snapshot"))
 		{
-			if(p.getName().equals(name))
-			{
-				return true;
-			}
+			return new SnapshotRepertoireStore(Paths.get(options.get("snapshot")), () -> openIndexed(options));
 		}
-		return false;
+		return openIndexed(options);
 	}
-	
+
 	/**
-	 * Function to check if an event is in the eventsList_toSend.
-	 * 
-	 * @param name String name of the event to check
-	 * @return true if event is found, false if not
+	 * Opens the storage engine and, unless disabled, the indexes over it.
+	 *
+	 * @param options The startup options.
+	 * @return The RepertoireStore of the engine, indexed.
 	 */
-	public boolean isInEventsList(String name)
+	static RepertoireStore openIndexed(Map<String, String> options)
 	{
-		for(Event p : this.eventsList_toSend)
-		{
-			if(p.getName().equals(name))
-			{
-				return true;
-			}
-		}
-		return false;
+		RepertoireStore engine = openEngine(options);
+		return options.getOrDefault("index", "true").equals("false") ? engine : new IndexedRepertoireStore(engine);
 	}
-	
+
 	/**
-	 * Function to remove the song requested by the user from the songs list (songsList_toSend).
-	 * 
-	 * @param os DataOutputStream object used to send each song contained in the songsList_toSend to the client.
-	 * @param is BufferedReader object used to receive each song contained in the songsList from the client.
-	 * @throws IOException If an error occurs while using the output stream.
+	 * Opens the storage engine chosen by the "store" option.
+	 *
+	 * @param options The startup options.
+	 * @return The RepertoireStore of the engine.
 	 */
-	public void song_removeFromList(DataOutputStream os, BufferedReader is) throws IOException
+	private static RepertoireStore openEngine(Map<String, String> options)
 	{
-		String song_name = is.readLine(); //Server is waiting for the name of the song to remove
-		boolean removed = false;
-				
-		for(Song p : this.songsList_toSend)
-		{
-			if(p.getName().equals(song_name))
-			{
-				DataAcces.removeSongQuery(p);
-				removed = true;
-				break;
+		switch (options.getOrDefault("store", "mysql")) {
+		case "memory":
+			return new InMemoryRepertoireStore(!options.getOrDefault("demo", "true").equals("false"));
+		case "log":
+			try {
+				return new LogRepertoireStore(Paths.get(options.getOrDefault("logdir", "./data")), !options.getOrDefault("demo", "true").equals("false"));
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can't open the repertoire files", e);
 			}
-		}
-		
-		if (removed)
-		{
-			os.writeBytes("ok\n");
-		}else {
-			os.writeBytes("notok\n"); 	// removed = false --> can't remove the song from the setlist
+		case "mysql":
+			return new JdbcRepertoireStore(options.getOrDefault("dburl", DataAcces.DEFAULT_URL));  //Creating the connection with the database
+		default:
+			throw new IllegalArgumentException("Unknown store: " + options.get("store"));
 		}
 	}
-	
+
 	/**
-	 * Function to remove the event requested by the user from the events list (eventsList_toSend).
-	 * 
-	 * @param os DataOutputStream object used to send each event contained in the eventsList_toSend to the client.
-	 * @param is BufferedReader object used to receive each event contained in the eventsList from the client.
-	 * @throws IOException If an error occurs while using the output stream.
+	 * Gets the store of the repertoire shared by every session.
+	 *
+	 * @return The RepertoireStore.
 	 */
-	public void event_removeFromList(DataOutputStream os, BufferedReader is) throws IOException
+	public RepertoireStore getStore()
 	{
-		String event_name = is.readLine(); //Server is waiting for the name of the event to remove
-		boolean removed = false;
-				
-		for(Event p : this.eventsList_toSend)
-		{
-			if(p.getName().equals(event_name))
-			{
-				DataAcces.removeEventQuery(p);
-				removed = true;
-				break;
-			}
-		}
-		
-		if (removed)
-		{
-			os.writeBytes("ok\n");
-		}else {
-			os.writeBytes("notok\n"); 	// removed = false --> can't remove the event from events list
-		}
+		return store;
 	}
 	
 	/**
-	 * Function to add a song to the Songs list. 
-	 * This method is called by a client to add a new song to the list.
+	 * Gets the engine building the setlists, shared by every session.
 	 *
-	 * @param os DataOutputStream for sending the response back to the client.
-	 * @param is BufferedReader for reading data sent by the client.
-	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
+	 * @return The SetlistBuilder.
 	 */
-	public void song_addToList(DataOutputStream os, BufferedReader is) throws IOException		
-	{					
-		String temp_song = is.readLine(); // Reading the song sent by the client
-		
-		String[] parts = temp_song.split(" "); 
-		
-		String songName = null;
-		String songAuthor = null;
-		String songPerformer = null;
-		Float songLength = null;
-		Integer songBpm = 0;
-
-		// Parsing data
-		songName = parts[0];
-        songAuthor = parts[1];
-        songLength = Float.parseFloat(parts[2]);
-        songBpm = Integer.parseInt(parts[3]);
-        songPerformer = parts[4];
-
-        if(isInSongsList(songName))
-        {
-        	os.writeBytes("alreadyin\n"); 	//Song already exist, can't perform the adding
-        }else {
-        	Song temp_Song2 = new Song(songName, songAuthor, songLength, songBpm, songPerformer);
-        	
-        	DataAcces.addSongQuery(temp_Song2); 	//Using the DataAccess method to update the database with the new song
-        	
-	        os.writeBytes("ok\n");
-		}
+	public SetlistBuilder getSetlists()
+	{
+		return setlists;
 	}
 	
 	/**
-	 * Function to add an event to the Events list. 
-	 * This method is called by a client to add a new event to the list.
+	 * Gets the changes pushed to the subscribed clients, published by every session.
 	 *
-	 * @param os DataOutputStream for sending the response back to the client.
-	 * @param is BufferedReader for reading data sent by the client.
-	 * @throws IOException If an error occurs during the reading or sending of data through the streams.
-	 */
-	public void event_addToList(DataOutputStream os, BufferedReader is) throws IOException		
-	{					
-		String temp_event = is.readLine();
-		
-		String[] parts = temp_event.split(" "); 
-		
-		String eventName = null;
-		String eventPlace = null;
-		String eventDate = null;
-		String eventType = null;
-		String eventPerformer= null;
-
-		eventName = parts[0];
-        eventPlace = parts[1];
-        eventDate = parts[2];
-        eventType = parts[3];
-        eventPerformer = parts[4];
-
-        if(isInEventsList(eventName))
-        {
-        	os.writeBytes("alreadyin\n"); 	//Event already exist, can't perform the adding
-        }else {
-        	Event temp_Event2 = new Event(eventName, eventPlace, eventDate, eventType, eventPerformer);
-        	
-        	DataAcces.addEventQuery(temp_Event2); 	//Using the DataAccess method to update the database with the new song
-        	
-	        os.writeBytes("ok\n");
-		}
-	}
-
-	/**
-	 * Function to send every song or event about a specific communicated band name in the respectively local
-	 * songsList_toSend or eventsList_toSend in the Client buffer, depending on the request.
-	 * Each song or product is sent as a string text to the client.
-	 * 
-	 * @param os DataOutputStream object used to send each product contained in the Productslist to the client.
-	 * @param is BufferedReader for reading data sent by the client.
-	 * @param mode Int specifies if songs have been requested (mode=1) or events have been requested (mode=0)
-	 * @throws IOException If an error occurs while using the output stream.
+	 * @return The ChangeHub.
 	 */
-	public void sendDataToClient(DataOutputStream os, BufferedReader is, int mode) throws IOException
+	public ChangeHub getChanges()
 	{
-		songsList_toSend.clear();
-		eventsList_toSend.clear();
-		String bandName = is.readLine();
-		
-		if (mode == 1) // mode 1 means that songs have been requested from the client
-		{	
-			songsList_toSend = DataAcces.getSongsQuery(bandName);	
-			
-			for(Song song  : songsList_toSend)
-			{
-				os.writeBytes(song.getName()+" "+song.getAuthor()+" "+song.getLength()+" "+song.getBpm()+"\n"); 	//Performer is useless, it's bandName
-			}
-			os.writeBytes("endsongs\n"); 	//end of iteration
-			
-		}else  		   // mode 0 means that events have been requested from the client
-		{
-			eventsList_toSend = DataAcces.getEventsQuery(bandName);	
-			
-			for(Event event  : eventsList_toSend)
-			{
-				os.writeBytes(event.getName()+" "+event.getPlace()+" "+event.getDate()+" "+event.getType()+"\n"); 	//Performer is useless, it's bandName
-			}
-			os.writeBytes("endevents\n");	//end of iteration
-		}
+		return changes;
 	}
 	
 	/**
-	 * Function to send all band names available in the database.
-	 * 
-	 * @param os DataOutputStream object used to send each product contained in the Productslist to the client.
-	 * @throws IOException If an error occurs while using the output stream.
+	 * Gets the thread writing the changes to the clients subscribed through service().
+	 *
+	 * @return The ChangeDispatcher, null if the service has not started.
 	 */
-	public void sendNamesToClient(DataOutputStream os) throws IOException
+	public ChangeDispatcher getDispatcher()
 	{
-		bandsList.clear();
-		bandsList = DataAcces.getPerformers();  //Getting the performers from the database
-		
-		for (String name : this.bandsList) 
-		{
-			os.writeBytes(name+"\n");
-		}
-		os.writeBytes("end\n");
+		return dispatcher;
 	}
 	
 	/**
-	 * Waits for client connections on a specified server socket and provides services based on client requests.
-	 * The method handles authentication, allowing only authenticated users to use the service. Once authenticated,
-	 * the method processes client commands, such as displaying the list of available songs or events, sending requested
-	 * songs or events to the client, and adding new songs or events to the server's local lists.
-	 *
-	 * @throws IOException If an error occurs during socket operations or input/output streams.
+	 * Waits for client connections on a specified server socket and hands every accepted connection
+	 * to its own ClientSession, run by a bounded pool of worker threads.
+	 * In this way a client doesn't have to wait for the previous one to send "back" or "close"
+	 * before using the service; authentication and commands are handled inside the session.
+	 * The connections subscribed to the changes of a band are handed to a single ChangeDispatcher thread instead
+	 * (the socket is opened through a channel so that they can be served without blocking).
+	 * The method returns when a client asks to close the whole service ("quit"): the connections of the sessions
+	 * are closed, so that a session waiting for a command or writing a response stops, and the store is closed
+	 * only once the sessions have ended (at most CLOSE_SECONDS).
 	 */
 	public void service()
 	{
 		try
 		{
-			ServerSocket server = new ServerSocket(SPORT);
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			channel.bind(new InetSocketAddress(SPORT));
+			server = channel.socket();
+			dispatcher = new ChangeDispatcher(changes);
+			new Thread(dispatcher, "change-dispatcher").start();
 
-			boolean authentication = false;
-			String client_user = "";
-			String password_client = "";
-			String command = "";
-			
-			while(true)  
+			while(!server.isClosed())
 			{
-				System.out.println("Waiting for a connection\n");
-				Socket client = server.accept();
+				Socket client;
+				try {
+					client = server.accept();
+				} catch (SocketException | ClosedChannelException e) {
+					break;  //Server socket closed by shutdown(), service is over
+				}
 				System.out.println("Connected");
-				authentication = false;
 
-				BufferedReader   is = new BufferedReader(new InputStreamReader(client.getInputStream()));
-				DataOutputStream os = new DataOutputStream(client.getOutputStream());
-				
-				String guest_mode = is.readLine();  //Reading if user is in guest mode or not
-				
-				if(guest_mode.equals("noguest"))  //If user is not in guest mode, check if he's entered right credentials.
-				{
-					client_user = is.readLine();
-					
-					//Checking if user has entered the right credentials
-					for (java.util.Map.Entry<String, String> e: profileMap.entrySet())
-					{
-						if(client_user.equals(e.getKey()))
-						{
-							password_client = is.readLine();
-							
-							if(password_client.equals(e.getValue())) {
-								authentication = true;
-								os.writeBytes("ok\n");
-								break;
-							}
-						}
-					}
-					
-				}else // guest mode
-				{
-					authentication = true;  //If in guest mode, user can enter the service. Limitations are handled in the client side
-				}
-			
-				if(authentication) //if authentication is propertly done or guest mode is active, service is ready to be used
-				{
-					boolean closed_client = false;
-					while(!closed_client)
-					{
-						command = is.readLine(); //Input from the client
-						
-						switch (command) {
-						case "getbands":
-						{
-							//Function to send the band names to the client
-							this.sendNamesToClient(os);
-							break;
-						}
-						case "back":
-						{	
-							//Return back to the main login interface
-							closed_client = true; 
-							client.close();
-							break;
-						}
-						case "show_songs":
-						{
-							//Show songs of the specified band by the client (guest mode)
-							this.sendDataToClient(os, is, 1);
-							break;
-						}
-						case "show_events":
-						{
-							//Show events of the specified band by the client (guest mode)
-							this.sendDataToClient(os, is, 0);
-							break;
-						}
-						case "add_song":
-						{
-							//Add the specified song to the local list of songs
-							this.song_addToList(os, is);
-							break;
-						}
-						case "add_event":
-						{
-							//Add the specified event to the local list of events
-							this.event_addToList(os,is);
-							break;
-						}
-						case "remove_song":
-						{
-							//Remove the specified song to the local list of songs
-							this.song_removeFromList(os,is);
-							break;
-						}
-						case "remove_event":
-						{
-							//Remove the specified event to the local list of events
-							this.event_removeFromList(os,is);
-							break;
-						}
-						case "close":
-						{
-							//Close the client connection
-							closed_client = true;
-							client.close();
-							break;
-						}
-						case "quit":
-						{
-							//Close the service (and the connected client)
-							client.close();
-							server.close();
-							System.out.println("\nSERVICE CLOSED");
-							return;
+				ClientSession session = new ClientSession(this, client);
+				clients.add(client);
+				try {
+					sessionPool.execute(() -> {  //Serving the client on a worker thread
+						try {
+							session.run();
+						} finally {
+							clients.remove(client);
 						}
-						default:
-							//The invalid command is handled by the client
-							break;
-						}
-					}
-					
-				}else 
-				{
-					os.writeBytes("notok\n");
+					});
+				} catch (RejectedExecutionException e) {
+					System.out.println("Too many clients, connection refused");
+					clients.remove(client);
+					client.close();
 				}
-			}			
+			}
 		}
 		catch (IOException e)
 		{
 			e.printStackTrace();
 		}
+		finally
+		{
+			if(dispatcher != null)
+			{
+				dispatcher.close();
+			}
+			sessionPool.shutdownNow();
+			for(Socket client : clients)
+			{
+				try {
+					client.close();  //A session blocked on the socket stops now
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			try {
+				if(!sessionPool.awaitTermination(CLOSE_SECONDS, TimeUnit.SECONDS))
+				{
+					System.out.println("Sessions still running after " + CLOSE_SECONDS + " seconds, closing the store anyway");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			setlists.close();
+			store.close();
+			System.out.println("\nSERVICE CLOSED");
+		}
+	}
+
+	/**
+	 * Serves the clients with the non-blocking NioServer instead of a thread per client:
+	 * a single selector thread handles every connection and a small pool of workers runs the commands.
+	 * The method returns when a client asks to close the whole service ("quit").
+	 */
+	public void serviceNio()
+	{
+		nioServer = new NioServer(this, SPORT);
+		try {
+			nioServer.service();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			setlists.close();
+			store.close();
+			System.out.println("\nSERVICE CLOSED");
+		}
+	}
+
+	/**
+	 * Closes the service: the server socket stops accepting new connections and the
+	 * service() loop returns. Called by a session when its client sends "quit".
+	 */
+	public void shutdown()
+	{
+		try {
+			if(server != null)
+			{
+				server.close();
+			}
+			if(nioServer != null)
+			{
+				nioServer.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -446,11 +318,49 @@ public class ServerLogic {
 	 * Instantiates a Server object and calls the service method to handle client connections
 	 * and provide server logic functionalities.
 	 *
-	 * @param args Command-line arguments (not used in this application).
+	 * @param args Command-line arguments: "frontend=nio" selects the non-blocking front end,
+	 *             "fetchsize=N" sets the rows read with each connection while streaming a list,
+	 *             "pooltrace=true" shows where a leaked database connection was borrowed,
+	 *             "store=memory" or "store=log" keep the repertoire without the database ("dburl=..." for another database),
+	 *             "snapshot=file" answers from a snapshot while the store starts,
+	 *             "index=false" answers searches and calendar queries without indexes.
 	 */
 	public static void main(final String[] args)
 	{
-		ServerLogic server = new ServerLogic();
-		server.service();
+		Map<String, String> options = parseOptions(args);
+		if(options.containsKey("fetchsize"))
+		{
+			DataAcces.streamFetchSize = Math.max(1, Integer.parseInt(options.get("fetchsize")));
+		}
+		ConnectionPool.traceBorrows = Boolean.parseBoolean(options.getOrDefault("pooltrace", "false"));
+
+		ServerLogic server = new ServerLogic(options);
+		if(options.getOrDefault("frontend", "blocking").equals("nio"))
+		{
+			server.serviceNio();
+		}else {
+			server.service();
+		}
+	}
+
+	/**
+	 * Parses the command-line arguments in the form "key=value".
+	 * Arguments without '=' are ignored.
+	 *
+	 * @param args Command-line arguments.
+	 * @return The map of the options.
+	 */
+	static Map<String, String> parseOptions(String[] args)
+	{
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args)
+		{
+			int eq = arg.indexOf('=');
+			if (eq > 0)
+			{
+				options.put(arg.substring(0, eq), arg.substring(eq + 1));
+			}
+		}
+		return options;
 	}
 }
@@ -0,0 +1,519 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class for the engine choosing and ordering the songs of a band for a gig (see SetlistRequest).
+ * A setlist is scored by how far its length is from the one asked, how far the BPM of each song is from
+ * the curve asked and how many songs follow one of the same author (unless allowed); a lower score is better.
+ * The search is a simulated annealing: starting from a random setlist, songs are swapped, added, removed
+ * or replaced, keeping the changes that lower the score and, less and less often as the time passes,
+ * some that raise it, to get out of local minima. One search runs on every core with a different seed
+ * for the time budget, counted from when the search starts (a search can wait in the pool behind the
+ * ones of another request), and the best setlist found wins.
+ * Results are kept for the last CACHE_ENTRIES requests: the same request for the same songs is answered
+ * at once and gets the same setlist. A setlist no search worked on is not kept.
+ *
+ * @author Davide Reverberi
+ */
+public class SetlistBuilder {
+
+	private static final int CACHE_ENTRIES = 64;			//Requests whose result is kept
+	private static final double DURATION_WEIGHT = 10;		//Score of each minute of difference from the length asked
+	private static final double FLOW_WEIGHT = 5;			//Score of the mean distance from the BPM curve (0 to 1)
+	private static final double REPEAT_WEIGHT = 20;			//Score of each song following one of the same author
+	private static final double START_TEMPERATURE = 1;		//Worse setlists accepted often at the beginning...
+	private static final double END_TEMPERATURE = 0.001;	//...almost never at the end
+
+	/**
+	 * Represents a setlist built for a request.
+	 */
+	public static class Setlist {
+
+		private final List<Song> songs;
+		private final int totalSeconds;
+		private final double score;
+		private final boolean searched;	//False if no search ran, only the random start
+
+		/**
+		 * Constructor for the Setlist class.
+		 *
+		 * @param songs The songs, in order.
+		 * @param totalSeconds The length of the setlist in seconds.
+		 * @param score The score of the setlist, lower is better.
+		 */
+		public Setlist(List<Song> songs, int totalSeconds, double score)
+		{
+			this(songs, totalSeconds, score, true);
+		}
+
+		private Setlist(List<Song> songs, int totalSeconds, double score, boolean searched)
+		{
+			this.songs = Collections.unmodifiableList(songs);
+			this.totalSeconds = totalSeconds;
+			this.score = score;
+			this.searched = searched;
+		}
+
+		/**
+		 * Gets the songs of the setlist.
+		 *
+		 * @return A read only list of the songs, in the order they are played.
+		 */
+		public List<Song> getSongs()
+		{
+			return songs;
+		}
+
+		/**
+		 * Gets the length of the setlist.
+		 *
+		 * @return The sum of the lengths of the songs in seconds.
+		 */
+		public int getTotalSeconds()
+		{
+			return totalSeconds;
+		}
+
+		/**
+		 * Gets the length of the setlist, written like the length of a song.
+		 *
+		 * @return The length in minutes.seconds ("45.30").
+		 */
+		public String getTotalLength()
+		{
+			return String.format("%d.%02d", totalSeconds / 60, totalSeconds % 60);
+		}
+
+		/**
+		 * Gets the score of the setlist.
+		 *
+		 * @return The score, 0 if the setlist satisfies the request exactly.
+		 */
+		public double getScore()
+		{
+			return score;
+		}
+	}
+
+	private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());	//One search per core
+	private final Map<String, Setlist> cache = new LinkedHashMap<>(16, 0.75f, true) {				//Least recently used first
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Setlist> eldest)
+		{
+			return size() > CACHE_ENTRIES;
+		}
+	};
+
+	/**
+	 * Builds the setlist of a band, or gets it from the cache.
+	 *
+	 * @param performer The name of the band.
+	 * @param songs The songs of the band.
+	 * @param request The setlist asked.
+	 * @return The best setlist found in the time budget.
+	 * @throws IllegalArgumentException If the opening or closing song is not among the songs.
+	 */
+	public Setlist build(String performer, List<Song> songs, SetlistRequest request)
+	{
+		String key = performer + "\n" + request + "\n" + fingerprint(songs);
+		synchronized (cache)
+		{
+			Setlist cached = cache.get(key);
+			if (cached != null)
+			{
+				return cached;
+			}
+		}
+
+		Setlist setlist = search(new ArrayList<>(songs), request);
+		if (setlist.searched)
+		{
+			synchronized (cache)
+			{
+				cache.put(key, setlist);
+			}
+		}
+		return setlist;
+	}
+
+	/**
+	 * Computes a number changing with every change of the songs (name, author, length, BPM or order).
+	 *
+	 * @param songs The songs.
+	 * @return The fingerprint of the songs.
+	 */
+	private static long fingerprint(List<Song> songs)
+	{
+		long hash = songs.size();
+		for (Song s : songs)
+		{
+			hash = hash * 1_000_003 + s.getName().hashCode();
+			hash = hash * 1_000_003 + (s.getAuthor() == null ? 0 : s.getAuthor().hashCode());
+			hash = hash * 1_000_003 + Float.floatToIntBits(s.getLength());
+			hash = hash * 1_000_003 + s.getBpm();
+		}
+		return hash;
+	}
+
+	/**
+	 * Runs a search on every core and keeps the best setlist.
+	 *
+	 * @param songs The songs of the band.
+	 * @param request The setlist asked.
+	 * @return The best setlist found.
+	 */
+	private Setlist search(List<Song> songs, SetlistRequest request)
+	{
+		Problem problem = new Problem(songs, request);
+		if (songs.isEmpty())
+		{
+			return new Setlist(new ArrayList<>(), 0, problem.score(new int[0], 0));	//Nothing to search
+		}
+		long budget = request.getBudgetMillis() * 1_000_000L;
+
+		List<Callable<Annealing>> searches = new ArrayList<>();
+		for (int i = 0; i < pool.getParallelism(); i++)
+		{
+			long seed = 31L * i + 17;
+			searches.add(() -> problem.anneal(new Random(seed), System.nanoTime() + budget));	//Deadline from the start of the search
+		}
+		int[] best = null;
+		double bestScore = Double.MAX_VALUE;
+		boolean searched = false;
+		for (Future<Annealing> result : pool.invokeAll(searches))
+		{
+			try {
+				Annealing annealing = result.get();
+				searched |= annealing.steps > 0;
+				double score = problem.score(annealing.best, annealing.best.length);
+				if (score < bestScore)
+				{
+					best = annealing.best;
+					bestScore = score;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+		}
+		if (best == null)
+		{
+			best = problem.start(new Random(0));	//Every search failed, a setlist is given anyway
+			bestScore = problem.score(best, best.length);
+			searched = false;
+		}
+
+		List<Song> setlist = new ArrayList<>();
+		int total = 0;
+		for (int song : best)
+		{
+			setlist.add(songs.get(song));
+			total += problem.seconds[song];
+		}
+		return new Setlist(setlist, total, bestScore, searched);
+	}
+
+	/**
+	 * Stops the threads of the searches, when the service closes.
+	 */
+	public void close()
+	{
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Represents the result of one search.
+	 */
+	private static class Annealing {
+
+		final int[] best;		//Best setlist found
+		final long steps;		//Changes tried, 0 if the search was stopped before starting
+
+		Annealing(int[] best, long steps)
+		{
+			this.best = best;
+			this.steps = steps;
+		}
+	}
+
+	/**
+	 * Represents the songs of a request as arrays, shared read only by the searches.
+	 * A setlist is an array of positions in the songs list.
+	 */
+	private static class Problem {
+
+		final int[] seconds;		//Length of each song
+		final double[] tempo;		//BPM of each song, from 0 (slowest) to 1 (fastest)
+		final int[] authors;		//Author of each song, numbered ignoring case
+		final int opening;			//Song opening the setlist, -1 if any
+		final int closing;			//Song closing the setlist, -1 if any
+		final SetlistRequest request;
+
+		Problem(List<Song> songs, SetlistRequest request)
+		{
+			this.request = request;
+			int n = songs.size();
+			seconds = new int[n];
+			tempo = new double[n];
+			authors = new int[n];
+			int minBpm = Integer.MAX_VALUE;
+			int maxBpm = Integer.MIN_VALUE;
+			Map<String, Integer> authorIds = new HashMap<>();
+			int open = -1;
+			int close = -1;
+			for (int i = 0; i < n; i++)
+			{
+				Song s = songs.get(i);
+				seconds[i] = DataAcces.lengthToSeconds(s.getLength());
+				minBpm = Math.min(minBpm, s.getBpm());
+				maxBpm = Math.max(maxBpm, s.getBpm());
+				String author = s.getAuthor() == null ? "" : s.getAuthor().toLowerCase(Locale.ROOT);
+				authors[i] = authorIds.computeIfAbsent(author, a -> authorIds.size());
+				if (s.getName().equals(request.getOpening()))
+				{
+					open = i;
+				}
+				if (s.getName().equals(request.getClosing()))
+				{
+					close = i;
+				}
+			}
+			double range = Math.max(1, maxBpm - minBpm);
+			for (int i = 0; i < n; i++)
+			{
+				tempo[i] = (songs.get(i).getBpm() - minBpm) / range;
+			}
+			if ((request.getOpening() != null && open == -1) || (request.getClosing() != null && close == -1))
+			{
+				throw new IllegalArgumentException("Opening or closing song not in the repertoire");
+			}
+			opening = open;
+			closing = close;
+		}
+
+		/**
+		 * Scores a setlist.
+		 *
+		 * @param order The songs of the setlist.
+		 * @param size The number of songs used in order.
+		 * @return The score, lower is better.
+		 */
+		double score(int[] order, int size)
+		{
+			int total = 0;
+			double flow = 0;
+			int repeats = 0;
+			for (int i = 0; i < size; i++)
+			{
+				total += seconds[order[i]];
+				double position = size == 1 ? 0.5 : (double) i / (size - 1);
+				flow += Math.abs(tempo[order[i]] - request.curveAt(position));
+				if (i > 0 && authors[order[i]] == authors[order[i - 1]])
+				{
+					repeats++;
+				}
+			}
+			double score = DURATION_WEIGHT * Math.abs(total - request.getTargetSeconds()) / 60.0;
+			if (size > 0)
+			{
+				score += FLOW_WEIGHT * flow / size;
+			}
+			if (!request.isRepeatAuthors())
+			{
+				score += REPEAT_WEIGHT * repeats;
+			}
+			return score;
+		}
+
+		/**
+		 * Builds a random setlist: the opening and closing songs and random songs between them,
+		 * until the length asked is reached.
+		 *
+		 * @param random The random numbers of the search.
+		 * @return The songs of the setlist.
+		 */
+		int[] start(Random random)
+		{
+			List<Integer> free = new ArrayList<>();
+			for (int i = 0; i < seconds.length; i++)
+			{
+				if (i != opening && i != closing)
+				{
+					free.add(i);
+				}
+			}
+			Collections.shuffle(free, random);
+
+			List<Integer> setlist = new ArrayList<>();
+			int total = 0;
+			if (opening != -1)
+			{
+				setlist.add(opening);
+				total += seconds[opening];
+			}
+			if (closing != -1)
+			{
+				total += seconds[closing];
+			}
+			for (int song : free)
+			{
+				if (total >= request.getTargetSeconds())
+				{
+					break;
+				}
+				setlist.add(song);
+				total += seconds[song];
+			}
+			if (closing != -1)
+			{
+				setlist.add(closing);
+			}
+			return setlist.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		/**
+		 * Runs a simulated annealing until the deadline.
+		 *
+		 * @param random The random numbers of this search.
+		 * @param deadline The end of the search (System.nanoTime()).
+		 * @return The best setlist found and the number of changes tried.
+		 */
+		Annealing anneal(Random random, long deadline)
+		{
+			int n = seconds.length;
+			int[] current = new int[n];
+			int[] start = start(random);
+			System.arraycopy(start, 0, current, 0, start.length);
+			int size = start.length;
+			boolean[] used = new boolean[n];
+			for (int i = 0; i < size; i++)
+			{
+				used[current[i]] = true;
+			}
+			double currentScore = score(current, size);
+			int[] best = Arrays.copyOf(current, size);
+			double bestScore = currentScore;
+
+			int first = opening == -1 ? 0 : 1;			//Interior of the setlist, where songs can change
+			int[] candidate = new int[n];
+			long begin = System.nanoTime();
+			double temperature = START_TEMPERATURE;
+			long step;
+			for (step = 0; ; step++)
+			{
+				if ((step & 255) == 0)
+				{
+					long now = System.nanoTime();
+					if (now >= deadline || Thread.currentThread().isInterrupted())
+					{
+						break;
+					}
+					double progress = (double) (now - begin) / Math.max(1, deadline - begin);
+					temperature = START_TEMPERATURE * Math.pow(END_TEMPERATURE / START_TEMPERATURE, progress);
+				}
+
+				int last = size - (closing == -1 ? 0 : 1);	//First position after the interior
+				int interior = last - first;
+				System.arraycopy(current, 0, candidate, 0, size);
+				int candidateSize = size;
+				int added = -1;
+				int removed = -1;
+				int move = random.nextInt(4);
+				if (move == 0 && interior >= 2)			//Swap two songs
+				{
+					int a = first + random.nextInt(interior);
+					int b = first + random.nextInt(interior);
+					int t = candidate[a];
+					candidate[a] = candidate[b];
+					candidate[b] = t;
+				}else if (move == 1 && interior >= 1 && size < n)	//Replace a song with one not in the setlist
+				{
+					int at = first + random.nextInt(interior);
+					added = unused(used, random);
+					removed = candidate[at];
+					candidate[at] = added;
+				}else if (move == 2 && size < n)		//Add a song not in the setlist
+				{
+					int at = first + random.nextInt(interior + 1);
+					added = unused(used, random);
+					System.arraycopy(candidate, at, candidate, at + 1, size - at);
+					candidate[at] = added;
+					candidateSize++;
+				}else if (move == 3 && interior >= 1)	//Remove a song
+				{
+					int at = first + random.nextInt(interior);
+					removed = candidate[at];
+					System.arraycopy(candidate, at + 1, candidate, at, size - at - 1);
+					candidateSize--;
+				}else {
+					continue;
+				}
+
+				double candidateScore = score(candidate, candidateSize);
+				double delta = candidateScore - currentScore;
+				if (delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature))
+				{
+					int[] swap = current;
+					current = candidate;
+					candidate = swap;
+					size = candidateSize;
+					currentScore = candidateScore;
+					if (added != -1)
+					{
+						used[added] = true;
+					}
+					if (removed != -1)
+					{
+						used[removed] = false;
+					}
+					if (currentScore < bestScore)
+					{
+						best = Arrays.copyOf(current, size);
+						bestScore = currentScore;
+					}
+				}
+			}
+			return new Annealing(best, step);
+		}
+
+		/**
+		 * Picks a random song not in the setlist. The caller checks that there is one.
+		 *
+		 * @param used The songs in the setlist.
+		 * @param random The random numbers of the search.
+		 * @return The song.
+		 */
+		private static int unused(boolean[] used, Random random)
+		{
+			int song = random.nextInt(used.length);
+			while (used[song])
+			{
+				song = (song + 1) % used.length;
+			}
+			return song;
+		}
+	}
+}
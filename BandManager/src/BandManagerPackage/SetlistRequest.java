@@ -0,0 +1,186 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class for the setlist asked by a band ("build_setlist" command, see SetlistBuilder).
+ * A request is written as space separated key=value pairs, only the duration is required:
+ * <pre>
+ * duration=45.00    length of the setlist, in minutes.seconds like the songs
+ * curve=arc         BPM along the setlist: flat, rise, fall or arc (slow, fast, slow)
+ * open=Name         song opening the setlist
+ * close=Name        song closing the setlist
+ * repeat=true       songs of the same author can be one after the other (false by default)
+ * budget=500        milliseconds the search can take, at most MAX_BUDGET
+ * </pre>
+ *
+ * @author Davide Reverberi
+ */
+public class SetlistRequest {
+
+	public static final int MAX_BUDGET = 2000;						//Longest search allowed, milliseconds
+	private static final int DEFAULT_BUDGET = 300;					//Search time when the client doesn't ask one
+	private static final List<String> CURVES = List.of("flat", "rise", "fall", "arc");
+
+	private int targetSeconds = -1;
+	private String curve = "flat";
+	private String opening = null;
+	private String closing = null;
+	private boolean repeatAuthors = false;
+	private int budgetMillis = DEFAULT_BUDGET;
+
+	/**
+	 * Reads a request written by a client.
+	 *
+	 * @param line The key=value pairs.
+	 * @return The request.
+	 * @throws IllegalArgumentException If a pair is not valid or the duration is missing.
+	 */
+	public static SetlistRequest parse(String line)
+	{
+		SetlistRequest request = new SetlistRequest();
+		for (String pair : line.trim().split("\\s+"))
+		{
+			if (pair.isEmpty())
+			{
+				continue;
+			}
+			int equals = pair.indexOf('=');
+			if (equals <= 0)
+			{
+				throw new IllegalArgumentException("Not a key=value pair: " + pair);
+			}
+			String key = pair.substring(0, equals).toLowerCase(Locale.ROOT);
+			String value = pair.substring(equals + 1);
+			try {
+				switch (key) {
+				case "duration":
+					request.targetSeconds = DataAcces.parseLength(value);
+					break;
+				case "curve":
+					request.curve = value.toLowerCase(Locale.ROOT);
+					if (!CURVES.contains(request.curve))
+					{
+						throw new IllegalArgumentException("Unknown curve: " + value);
+					}
+					break;
+				case "open":
+					request.opening = value;
+					break;
+				case "close":
+					request.closing = value;
+					break;
+				case "repeat":
+					request.repeatAuthors = Boolean.parseBoolean(value);
+					break;
+				case "budget":
+					request.budgetMillis = Math.max(1, Math.min(MAX_BUDGET, Integer.parseInt(value)));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + key);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number in " + pair, e);
+			}
+		}
+		if (request.targetSeconds <= 0)
+		{
+			throw new IllegalArgumentException("Missing duration");
+		}
+		if (request.opening != null && request.opening.equals(request.closing))
+		{
+			throw new IllegalArgumentException("The same song can't open and close the setlist");
+		}
+		return request;
+	}
+
+	/**
+	 * Gets the BPM the setlist should have at a point, as a fraction of the BPM range of the repertoire.
+	 *
+	 * @param position Where the song is in the setlist, from 0 (first) to 1 (last).
+	 * @return The wanted BPM, from 0 (slowest song) to 1 (fastest song).
+	 */
+	public double curveAt(double position)
+	{
+		switch (curve) {
+		case "rise":
+			return position;
+		case "fall":
+			return 1 - position;
+		case "arc":
+			return Math.sin(Math.PI * position);
+		default:
+			return 0.5;
+		}
+	}
+
+	/**
+	 * Gets the length of the setlist.
+	 *
+	 * @return The length asked in seconds.
+	 */
+	public int getTargetSeconds()
+	{
+		return targetSeconds;
+	}
+
+	/**
+	 * Gets the song opening the setlist.
+	 *
+	 * @return The name of the song, null if any song can open.
+	 */
+	public String getOpening()
+	{
+		return opening;
+	}
+
+	/**
+	 * Gets the song closing the setlist.
+	 *
+	 * @return The name of the song, null if any song can close.
+	 */
+	public String getClosing()
+	{
+		return closing;
+	}
+
+	/**
+	 * Tells whether songs of the same author can be one after the other.
+	 *
+	 * @return true if allowed.
+	 */
+	public boolean isRepeatAuthors()
+	{
+		return repeatAuthors;
+	}
+
+	/**
+	 * Gets the time the search can take.
+	 *
+	 * @return The milliseconds of the search.
+	 */
+	public int getBudgetMillis()
+	{
+		return budgetMillis;
+	}
+
+	/**
+	 * Writes the request with every option, in a fixed order: equal requests give the same string.
+	 *
+	 * @return The request as key=value pairs.
+	 */
+	@Override
+	public String toString()
+	{
+		return "duration=" + targetSeconds + "s curve=" + curve + " open=" + opening + " close=" + closing
+				+ " repeat=" + repeatAuthors + " budget=" + budgetMillis;
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Class for a store answering from a MappedSnapshot while the real store starts.
+ * Opening the real store (connecting to the database, creating the tables, loading a log...) and reading
+ * every band for the first time is done by a background thread; meanwhile the reads are served by the
+ * snapshot written at the previous run, so the server answers as soon as it starts.
+ * Once the real store is ready every operation goes to it; changes wait for it.
+ * A new snapshot is written once the real store is ready and when the service closes.
+ *
+ * @author Davide Reverberi
+ */
+public class SnapshotRepertoireStore implements RepertoireStore {
+
+	private final Path file;							//Snapshot file
+	private final MappedSnapshot snapshot;				//Snapshot of the previous run, null if missing
+	private final CountDownLatch ready = new CountDownLatch(1);
+	private volatile RepertoireStore store = null;		//The real store, null until ready
+	private volatile boolean failed = false;			//True if the real store couldn't be opened
+
+	/**
+	 * Constructor for the SnapshotRepertoireStore class.
+	 * Maps the snapshot, if any, and starts opening the real store in background.
+	 *
+	 * @param file The snapshot file.
+	 * @param opener Opens the real store.
+	 */
+	public SnapshotRepertoireStore(Path file, Supplier<RepertoireStore> opener)
+	{
+		this.file = file;
+
+		MappedSnapshot mapped = null;
+		if (Files.exists(file))
+		{
+			try {
+				mapped = MappedSnapshot.open(file);
+				System.out.println("Snapshot mapped: serving reads from " + file + " while the store starts");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		this.snapshot = mapped;
+
+		Thread warmer = new Thread(() -> warmUp(opener), "store-warmer");
+		warmer.setDaemon(true);
+		warmer.start();
+	}
+
+	/**
+	 * Opens the real store, reads every band once (filling the caches of the store) and
+	 * writes the snapshot for the next run, then switches every operation to the real store.
+	 *
+	 * @param opener Opens the real store.
+	 */
+	private void warmUp(Supplier<RepertoireStore> opener)
+	{
+		long start = System.currentTimeMillis();
+		try {
+			RepertoireStore real = opener.get();
+			writeSnapshot(real);
+			store = real;
+			System.out.println("Store ready in " + (System.currentTimeMillis() - start) + " ms");
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			failed = true;
+		} finally {
+			ready.countDown();
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the whole repertoire of a store.
+	 *
+	 * @param real The store to copy.
+	 */
+	private void writeSnapshot(RepertoireStore real)
+	{
+		List<String> performers = real.getPerformers();
+		if (performers == null)
+		{
+			return;	//Store not readable, keeping the old snapshot
+		}
+		Map<String, List<Song>> songs = new HashMap<>();
+		Map<String, List<Event>> events = new HashMap<>();
+		for (String p : performers)
+		{
+			List<Song> s = real.getSongs(p);
+			List<Event> e = real.getEvents(p);
+			if (s == null || e == null)
+			{
+				return;
+			}
+			songs.put(p, s);
+			events.put(p, e);
+		}
+		try {
+			MappedSnapshot.write(file, songs, events);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits for the real store.
+	 *
+	 * @return The real store.
+	 */
+	private RepertoireStore awaitStore()
+	{
+		try {
+			ready.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (store == null)
+		{
+			throw new IllegalStateException(failed ? "The store couldn't be opened" : "Interrupted while waiting for the store");
+		}
+		return store;
+	}
+
+	/**
+	 * Tells whether reads must still be answered by the snapshot.
+	 *
+	 * @return true if the real store is not ready and a snapshot is available.
+	 */
+	private boolean fromSnapshot()
+	{
+		return store == null && snapshot != null && !failed;
+	}
+
+	@Override
+	public boolean isCurrent()
+	{
+		return !fromSnapshot();	//The snapshot lacks the changes made after it was written
+	}
+
+	@Override
+	public List<String> getPerformers()
+	{
+		return fromSnapshot() ? snapshot.getPerformers() : awaitStore().getPerformers();
+	}
+
+	@Override
+	public List<Song> getSongs(String performer)
+	{
+		return fromSnapshot() ? snapshot.getSongs(performer) : awaitStore().getSongs(performer);
+	}
+
+	@Override
+	public List<Event> getEvents(String performer)
+	{
+		return fromSnapshot() ? snapshot.getEvents(performer) : awaitStore().getEvents(performer);
+	}
+
+	@Override
+	public List<Song> getSongsPage(String performer, String after, int offset, int limit)
+	{
+		return fromSnapshot() ? RepertoireStore.super.getSongsPage(performer, after, offset, limit)
+				: awaitStore().getSongsPage(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Event> getEventsPage(String performer, String after, int offset, int limit)
+	{
+		return fromSnapshot() ? RepertoireStore.super.getEventsPage(performer, after, offset, limit)
+				: awaitStore().getEventsPage(performer, after, offset, limit);
+	}
+
+	@Override
+	public List<Song> findSongs(String performer, SongFilter filter)
+	{
+		return fromSnapshot() ? RepertoireStore.super.findSongs(performer, filter) : awaitStore().findSongs(performer, filter);
+	}
+
+	@Override
+	public List<SearchIndex.Hit> search(String query, String performer, int limit)
+	{
+		return fromSnapshot() ? RepertoireStore.super.search(query, performer, limit) : awaitStore().search(query, performer, limit);
+	}
+
+	@Override
+	public List<Event> getEventsBetween(String performer, LocalDate from, LocalDate to, int limit)
+	{
+		return fromSnapshot() ? RepertoireStore.super.getEventsBetween(performer, from, to, limit)
+				: awaitStore().getEventsBetween(performer, from, to, limit);
+	}
+
+	@Override
+	public List<Event> getUpcomingEvents(String performer, LocalDate from, int count)
+	{
+		return fromSnapshot() ? RepertoireStore.super.getUpcomingEvents(performer, from, count)
+				: awaitStore().getUpcomingEvents(performer, from, count);
+	}
+
+	@Override
+	public List<Event> getEventConflicts(String performer, LocalDate from, int limit)
+	{
+		return fromSnapshot() ? RepertoireStore.super.getEventConflicts(performer, from, limit)
+				: awaitStore().getEventConflicts(performer, from, limit);
+	}
+
+	@Override
+	public BandOverview getBand(String performer)
+	{
+		return fromSnapshot() ? new BandOverview(performer, snapshot.getSongs(performer), snapshot.getEvents(performer))
+				: awaitStore().getBand(performer);
+	}
+
+	@Override
+	public boolean streamSongs(String performer, RowHandler<Song> handler) throws IOException
+	{
+		if (fromSnapshot())
+		{
+			for (Song s : snapshot.getSongs(performer))
+			{
+				handler.handle(s);
+			}
+			return true;
+		}
+		return awaitStore().streamSongs(performer, handler);
+	}
+
+	@Override
+	public boolean streamEvents(String performer, RowHandler<Event> handler) throws IOException
+	{
+		if (fromSnapshot())
+		{
+			for (Event e : snapshot.getEvents(performer))
+			{
+				handler.handle(e);
+			}
+			return true;
+		}
+		return awaitStore().streamEvents(performer, handler);
+	}
+
+	@Override
+	public int addSong(Song s)
+	{
+		return awaitStore().addSong(s);
+	}
+
+	@Override
+	public int addEvent(Event e)
+	{
+		return awaitStore().addEvent(e);
+	}
+
+	@Override
+	public int removeSong(Song s)
+	{
+		return awaitStore().removeSong(s);
+	}
+
+	@Override
+	public int removeEvent(Event e)
+	{
+		return awaitStore().removeEvent(e);
+	}
+
+	@Override
+	public int[] addSongs(List<Song> songs)
+	{
+		return awaitStore().addSongs(songs);
+	}
+
+	@Override
+	public int[] removeSongs(List<Song> songs)
+	{
+		return awaitStore().removeSongs(songs);
+	}
+
+	@Override
+	public int[] addEvents(List<Event> events)
+	{
+		return awaitStore().addEvents(events);
+	}
+
+	@Override
+	public int[] removeEvents(List<Event> events)
+	{
+		return awaitStore().removeEvents(events);
+	}
+
+	/**
+	 * Writes the snapshot for the next run and closes the real store.
+	 */
+	@Override
+	public void close()
+	{
+		RepertoireStore real = store;
+		if (real != null)
+		{
+			writeSnapshot(real);
+			real.close();
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Class for the songs of a performer kept by columns instead of one Song object each: an array of names
+ * sorted like the keys of the database, and int arrays for the author (numbered by a StringDictionary),
+ * the length in seconds (like the database) and the BPM. The performer is the same for every row and kept once.
+ * Scanning a column (filters, counts) reads consecutive ints and no objects; a Song is built only when a row
+ * is given to the caller (get(), pages, matching rows).
+ * The columns are changed in place: the caller guards them with a lock, and gives the readers a copy
+ * (see copy()) when the rows must survive the lock.
+ *
+ * @author Davide Reverberi
+ */
+public class SongColumns {
+
+	private static final int INITIAL_ROWS = 8;	//Rows allocated for a new performer
+
+	private final String performer;				//Performer of every song
+	private final StringDictionary authors;		//Numbers of the authors, shared by the performers
+	private String[] names;						//Names, sorted
+	private int[] authorIds;					//Author of each song, numbered by authors
+	private int[] seconds;						//Length of each song in seconds
+	private int[] bpms;							//BPM of each song
+	private int size = 0;						//Rows used
+
+	/**
+	 * Constructor for the SongColumns class, without songs.
+	 *
+	 * @param performer The performer of the songs.
+	 * @param authors The dictionary numbering the authors.
+	 */
+	public SongColumns(String performer, StringDictionary authors)
+	{
+		this(performer, authors, INITIAL_ROWS);
+	}
+
+	/**
+	 * Constructor for columns of a given capacity.
+	 *
+	 * @param performer The performer of the songs.
+	 * @param authors The dictionary numbering the authors.
+	 * @param capacity The rows allocated.
+	 */
+	private SongColumns(String performer, StringDictionary authors, int capacity)
+	{
+		this.performer = performer;
+		this.authors = authors;
+		names = new String[capacity];
+		authorIds = new int[capacity];
+		seconds = new int[capacity];
+		bpms = new int[capacity];
+	}
+
+	/**
+	 * Gets the number of songs.
+	 *
+	 * @return The number of songs.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Finds a song by name (binary search).
+	 *
+	 * @param name The name of the song.
+	 * @return The row of the song; if missing, -(row where it would be added) - 1.
+	 */
+	public int indexOf(String name)
+	{
+		return Arrays.binarySearch(names, 0, size, name);
+	}
+
+	/**
+	 * Builds the Song of a row.
+	 *
+	 * @param row The row.
+	 * @return A new Song with the values of the row.
+	 */
+	public Song get(int row)
+	{
+		return new Song(names[row], authors.get(authorIds[row]), DataAcces.secondsToLength(seconds[row]), bpms[row], performer);
+	}
+
+	/**
+	 * Adds a song in its place by name, unless a song with the same name exists.
+	 * Songs added in order of name (like a snapshot being loaded) go at the end without moving rows.
+	 *
+	 * @param s The song, of the performer of the columns.
+	 * @return true if added, false if the name is taken.
+	 */
+	public boolean insert(Song s)
+	{
+		int row = size > 0 && names[size - 1].compareTo(s.getName()) < 0 ? -size - 1 : indexOf(s.getName());
+		if (row >= 0)
+		{
+			return false;
+		}
+		row = -row - 1;
+		if (size == names.length)
+		{
+			int capacity = Math.max(INITIAL_ROWS, size * 2);
+			names = Arrays.copyOf(names, capacity);
+			authorIds = Arrays.copyOf(authorIds, capacity);
+			seconds = Arrays.copyOf(seconds, capacity);
+			bpms = Arrays.copyOf(bpms, capacity);
+		}
+		int moved = size - row;
+		System.arraycopy(names, row, names, row + 1, moved);
+		System.arraycopy(authorIds, row, authorIds, row + 1, moved);
+		System.arraycopy(seconds, row, seconds, row + 1, moved);
+		System.arraycopy(bpms, row, bpms, row + 1, moved);
+		names[row] = s.getName();
+		authorIds[row] = authors.id(s.getAuthor());
+		seconds[row] = DataAcces.lengthToSeconds(s.getLength());
+		bpms[row] = s.getBpm();
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes a song by name.
+	 *
+	 * @param name The name of the song.
+	 * @return true if removed, false if not found.
+	 */
+	public boolean delete(String name)
+	{
+		int row = indexOf(name);
+		if (row < 0)
+		{
+			return false;
+		}
+		int moved = size - row - 1;
+		System.arraycopy(names, row + 1, names, row, moved);
+		System.arraycopy(authorIds, row + 1, authorIds, row, moved);
+		System.arraycopy(seconds, row + 1, seconds, row, moved);
+		System.arraycopy(bpms, row + 1, bpms, row, moved);
+		size--;
+		names[size] = null;	//Not kept alive by the array
+		return true;
+	}
+
+	/**
+	 * Gets a page of the songs, sorted by name, building only the songs of the page.
+	 *
+	 * @param after The name of the last song of the previous page, null to use the offset.
+	 * @param offset The number of songs to skip, used without cursor.
+	 * @param limit The maximum number of songs of the page.
+	 * @return A read only list of at most limit songs.
+	 */
+	public List<Song> page(String after, int offset, int limit)
+	{
+		int from;
+		if (after == null)
+		{
+			from = Math.max(0, Math.min(offset, size));
+		}else {
+			int row = indexOf(after);
+			from = row >= 0 ? row + 1 : -row - 1;
+		}
+		int to = Math.min(size, from + Math.max(0, limit));
+		List<Song> page = new ArrayList<>(to - from);
+		for (int row = from; row < to; row++)
+		{
+			page.add(get(row));
+		}
+		return Collections.unmodifiableList(page);
+	}
+
+	/**
+	 * Gets the songs satisfying a filter, in the order it asks. The conditions are checked on the
+	 * columns and only the matching songs are built.
+	 *
+	 * @param filter The conditions, order and maximum number of the songs.
+	 * @return A read only list of the matching songs.
+	 */
+	public List<Song> find(SongFilter filter)
+	{
+		List<Song> found = new ArrayList<>();
+		for (int row = 0; row < size; row++)
+		{
+			if (filter.matches(names[row], authors.get(authorIds[row]), seconds[row], bpms[row]))
+			{
+				found.add(get(row));
+			}
+		}
+		return Collections.unmodifiableList(filter.sortAndLimit(found));
+	}
+
+	/**
+	 * Copies the columns, so that they can be read after the lock guarding these ones is released.
+	 *
+	 * @return Columns with the same songs, not changed by the changes of these ones.
+	 */
+	public SongColumns copy()
+	{
+		SongColumns copy = new SongColumns(performer, authors, 0);
+		copy.names = Arrays.copyOf(names, size);
+		copy.authorIds = Arrays.copyOf(authorIds, size);
+		copy.seconds = Arrays.copyOf(seconds, size);
+		copy.bpms = Arrays.copyOf(bpms, size);
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Gets the songs as a read only list building each Song when it is read.
+	 * To be used on a copy (see copy()), the list follows the changes of the columns.
+	 *
+	 * @return The list of the songs, sorted by name.
+	 */
+	public List<Song> asList()
+	{
+		return new SongList();
+	}
+
+	/**
+	 * Read only list of the songs of the columns, building each Song when it is read.
+	 */
+	private class SongList extends AbstractList<Song> implements RandomAccess {
+
+		@Override
+		public Song get(int index)
+		{
+			if (index < 0 || index >= size)
+			{
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return SongColumns.this.get(index);
+		}
+
+		@Override
+		public int size()
+		{
+			return size;
+		}
+	}
+}
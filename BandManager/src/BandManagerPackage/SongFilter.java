@@ -0,0 +1,277 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class for the conditions and the order asked by a client for the songs of a band ("filter_songs" command).
+ * A filter is written as space separated key=value pairs, every one optional:
+ * <pre>
+ * bpm=90-120        BPM range, either end can be missing ("bpm=90-", "bpm=-120")
+ * length=2.30-4.00  length range, in minutes.seconds like the songs
+ * author=Weezer     author (case is ignored)
+ * prefix=Sta        beginning of the name (case is ignored)
+ * sort=bpm          order: name, author, length or bpm; "-bpm" for descending (ties by name)
+ * limit=50          maximum number of songs
+ * </pre>
+ * The same filter is evaluated on lists in memory (matches(), apply()) or turned into a parameterized
+ * SQL query (see DataAcces.findSongsQuery()), with the same results: text comparisons ignore case
+ * like the default collation of the database.
+ *
+ * @author Davide Reverberi
+ */
+public class SongFilter {
+
+	private static final String[] SORT_KEYS = {"name", "author", "length", "bpm"};	//Also the SQL columns
+
+	private Integer minBpm = null;
+	private Integer maxBpm = null;
+	private Integer minSeconds = null;		//Lengths in seconds, like the database
+	private Integer maxSeconds = null;
+	private String author = null;
+	private String prefix = null;
+	private String sort = "name";
+	private boolean descending = false;
+	private int limit;
+
+	/**
+	 * Constructor for the SongFilter class, a filter matching every song.
+	 *
+	 * @param limit The maximum number of songs.
+	 */
+	public SongFilter(int limit)
+	{
+		this.limit = limit;
+	}
+
+	/**
+	 * Reads a filter written by a client.
+	 *
+	 * @param line The key=value pairs.
+	 * @param maxLimit The largest number of songs the client can ask, also used when it asks none.
+	 * @return The filter.
+	 * @throws IllegalArgumentException If a pair is not valid.
+	 */
+	public static SongFilter parse(String line, int maxLimit)
+	{
+		SongFilter filter = new SongFilter(maxLimit);
+		for (String pair : line.trim().split("\\s+"))
+		{
+			if (pair.isEmpty())
+			{
+				continue;
+			}
+			int equals = pair.indexOf('=');
+			if (equals <= 0)
+			{
+				throw new IllegalArgumentException("Not a key=value pair: " + pair);
+			}
+			String key = pair.substring(0, equals).toLowerCase(Locale.ROOT);
+			String value = pair.substring(equals + 1);
+			try {
+				switch (key) {
+				case "bpm":
+				{
+					String[] range = range(value);
+					filter.minBpm = range[0].isEmpty() ? null : Integer.valueOf(range[0]);
+					filter.maxBpm = range[1].isEmpty() ? null : Integer.valueOf(range[1]);
+					break;
+				}
+				case "length":
+				{
+					String[] range = range(value);
+					filter.minSeconds = range[0].isEmpty() ? null : DataAcces.parseLength(range[0]);
+					filter.maxSeconds = range[1].isEmpty() ? null : DataAcces.parseLength(range[1]);
+					break;
+				}
+				case "author":
+					filter.author = value;
+					break;
+				case "prefix":
+					filter.prefix = value;
+					break;
+				case "sort":
+					filter.descending = value.startsWith("-");
+					filter.sort = (filter.descending ? value.substring(1) : value).toLowerCase(Locale.ROOT);
+					if (!List.of(SORT_KEYS).contains(filter.sort))
+					{
+						throw new IllegalArgumentException("Unknown sort key: " + value);
+					}
+					break;
+				case "limit":
+					filter.limit = Math.max(0, Math.min(maxLimit, Integer.parseInt(value)));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown filter: " + key);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Not a number in " + pair, e);
+			}
+		}
+		return filter;
+	}
+
+	/**
+	 * Splits a "from-to" range.
+	 *
+	 * @param value The range, either end can be missing.
+	 * @return The two ends, empty if missing.
+	 */
+	private static String[] range(String value)
+	{
+		int dash = value.indexOf('-');
+		if (dash == -1)
+		{
+			return new String[] {value, value};	//A single value
+		}
+		return new String[] {value.substring(0, dash), value.substring(dash + 1)};
+	}
+
+	/**
+	 * Tells whether a song satisfies the conditions of the filter.
+	 *
+	 * @param s The song.
+	 * @return true if the song matches.
+	 */
+	public boolean matches(Song s)
+	{
+		return matches(s.getName(), s.getAuthor(), DataAcces.lengthToSeconds(s.getLength()), s.getBpm());
+	}
+
+	/**
+	 * Tells whether the values of a song satisfy the conditions of the filter, without a Song object
+	 * (see SongColumns).
+	 *
+	 * @param name The name of the song.
+	 * @param songAuthor The author of the song.
+	 * @param seconds The length of the song in seconds.
+	 * @param bpm The BPM of the song.
+	 * @return true if the song matches.
+	 */
+	public boolean matches(String name, String songAuthor, int seconds, int bpm)
+	{
+		return (minBpm == null || bpm >= minBpm)
+				&& (maxBpm == null || bpm <= maxBpm)
+				&& (minSeconds == null || seconds >= minSeconds)
+				&& (maxSeconds == null || seconds <= maxSeconds)
+				&& (author == null || songAuthor.equalsIgnoreCase(author))
+				&& (prefix == null || name.regionMatches(true, 0, prefix, 0, prefix.length()));
+	}
+
+	/**
+	 * Gets the order asked by the filter.
+	 *
+	 * @return The comparator of the songs.
+	 */
+	public Comparator<Song> comparator()
+	{
+		Comparator<Song> byName = Comparator.comparing(Song::getName, String.CASE_INSENSITIVE_ORDER);
+		Comparator<Song> order;
+		switch (sort) {
+		case "author":
+			order = Comparator.comparing(Song::getAuthor, String.CASE_INSENSITIVE_ORDER);
+			break;
+		case "length":
+			order = Comparator.comparingInt(s -> DataAcces.lengthToSeconds(s.getLength()));
+			break;
+		case "bpm":
+			order = Comparator.comparingInt(Song::getBpm);
+			break;
+		default:
+			order = byName;
+			break;
+		}
+		return (descending ? order.reversed() : order).thenComparing(byName);
+	}
+
+	/**
+	 * Applies the filter to a list in memory.
+	 *
+	 * @param songs The songs of a band.
+	 * @return The matching songs, sorted, at most limit.
+	 */
+	public List<Song> apply(List<Song> songs)
+	{
+		List<Song> result = new ArrayList<>();
+		for (Song s : songs)
+		{
+			if (matches(s))
+			{
+				result.add(s);
+			}
+		}
+		return sortAndLimit(result);
+	}
+
+	/**
+	 * Sorts the matching songs in the order of the filter and keeps the first ones.
+	 *
+	 * @param matching The songs satisfying the conditions, sorted in place.
+	 * @return The first limit songs.
+	 */
+	public List<Song> sortAndLimit(List<Song> matching)
+	{
+		matching.sort(comparator());
+		return matching.size() > limit ? new ArrayList<>(matching.subList(0, limit)) : matching;
+	}
+
+	/**
+	 * Writes the conditions and the order of the filter in SQL, for the songs table.
+	 * The values are not written in the query but added to the parameters, in order.
+	 *
+	 * @param parameters Receives the values of the parameters of the query.
+	 * @return The SQL to append after "WHERE Performer = ?": conditions, ORDER BY and LIMIT.
+	 */
+	public String toSql(List<Object> parameters)
+	{
+		StringBuilder sql = new StringBuilder();
+		if (minBpm != null)
+		{
+			sql.append(" AND BPM >= ?");
+			parameters.add(minBpm);
+		}
+		if (maxBpm != null)
+		{
+			sql.append(" AND BPM <= ?");
+			parameters.add(maxBpm);
+		}
+		if (minSeconds != null)
+		{
+			sql.append(" AND Length >= ?");
+			parameters.add(minSeconds);
+		}
+		if (maxSeconds != null)
+		{
+			sql.append(" AND Length <= ?");
+			parameters.add(maxSeconds);
+		}
+		if (author != null)
+		{
+			sql.append(" AND Author = ?");
+			parameters.add(author);
+		}
+		if (prefix != null)
+		{
+			sql.append(" AND Name LIKE ?");
+			parameters.add(prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%");	//Prefix taken literally
+		}
+		String column = sort.equals("bpm") ? "BPM" : Character.toUpperCase(sort.charAt(0)) + sort.substring(1);	//Only the SORT_KEYS
+		sql.append(" ORDER BY ").append(column).append(descending ? " DESC" : "");
+		if (!sort.equals("name"))
+		{
+			sql.append(", Name");
+		}
+		sql.append(" LIMIT ?");
+		parameters.add(limit);
+		return sql.toString();
+	}
+}
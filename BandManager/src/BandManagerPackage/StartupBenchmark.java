@@ -0,0 +1,115 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for measuring how long the server takes before it can answer the first read of a band,
+ * with the store opened cold and with the memory-mapped snapshot (see MappedSnapshot).
+ * It fills a store with "songs" songs (and "events" events) spread over "bands" bands, closes it and writes
+ * the snapshot, then "runs" times:
+ * <pre>
+ * cold      opening the store like the server does (engine and indexes, see ServerLogic.openIndexed())
+ *           and reading the songs of a band
+ * snapshot  mapping the snapshot and reading the songs of the same band
+ * </pre>
+ * The store is chosen with the same options as the server ("store=log" by default, in "logdir";
+ * "store=mysql" with "dburl" needs a database with no BandManager data, since the songs are added to it).
+ * The first run also pays for the loading of the classes and the cold JIT, like a real startup;
+ * the following ones show the steady cost.
+ * Run with: java -cp bin BandManagerPackage.StartupBenchmark songs=100000 bands=100 runs=3
+ *
+ * @author Davide Reverberi
+ */
+public class StartupBenchmark {
+
+	private static final int BATCH = 10000;	//Songs added with each call, like a full add_songs_batch
+
+	/**
+	 * Fills the store, then measures and prints the time to the first read with and without the snapshot.
+	 *
+	 * @param args Options in the form "key=value": songs, events, bands, runs, and the store options of the server.
+	 * @throws IOException If the files of the benchmark can't be written.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Map<String, String> options = ServerLogic.parseOptions(args);
+		int songs = Integer.parseInt(options.getOrDefault("songs", "100000"));
+		int events = Integer.parseInt(options.getOrDefault("events", "10000"));
+		int bands = Integer.parseInt(options.getOrDefault("bands", "100"));
+		int runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+		options.putIfAbsent("store", "log");
+		options.put("demo", "false");
+		if (!options.containsKey("logdir"))
+		{
+			options.put("logdir", Files.createTempDirectory("bandmanager-bench").toString());
+		}
+		Path snapshotFile = Paths.get(options.get("logdir"), "bench.snapshot");
+		String band = String.format("Band%03d", 0);
+
+		long start = System.nanoTime();
+		RepertoireStore store = ServerLogic.openIndexed(options);
+		List<Song> batch = new ArrayList<>();
+		for (int i = 0; i < songs; i++)
+		{
+			batch.add(new Song("Song" + i, "Author" + (i % 500), 2 + (i % 4) + (i % 60) / 100f, 60 + (i % 120), String.format("Band%03d", i % bands)));
+			if (batch.size() == BATCH || i == songs - 1)
+			{
+				store.addSongs(batch);
+				batch.clear();
+			}
+		}
+		List<Event> eventBatch = new ArrayList<>();
+		for (int i = 0; i < events; i++)
+		{
+			eventBatch.add(new Event("Event" + i, "Place" + (i % 300), (1 + i % 28) + "-" + (1 + i % 12) + "-" + (2024 + i % 3), "Concerto", String.format("Band%03d", i % bands)));
+		}
+		store.addEvents(eventBatch);
+
+		Map<String, List<Song>> songsByPerformer = new HashMap<>();
+		Map<String, List<Event>> eventsByPerformer = new HashMap<>();
+		for (String performer : store.getPerformers())
+		{
+			songsByPerformer.put(performer, store.getSongs(performer));
+			eventsByPerformer.put(performer, store.getEvents(performer));
+		}
+		MappedSnapshot.write(snapshotFile, songsByPerformer, eventsByPerformer);
+		store.close();
+		System.out.printf("Prepared %d songs and %d events of %d bands in %s (store=%s) in %d ms, snapshot %d KB%n",
+				songs, events, bands, options.get("logdir"), options.get("store"), (System.nanoTime() - start) / 1_000_000,
+				Files.size(snapshotFile) / 1024);
+
+		for (int run = 1; run <= runs; run++)
+		{
+			start = System.nanoTime();
+			RepertoireStore cold = ServerLogic.openIndexed(options);
+			long opened = System.nanoTime();
+			int read = cold.getSongs(band).size();
+			long first = System.nanoTime();
+			cold.close();
+			System.out.printf("run %d  cold:     store opened in %7.1f ms, first read (%d songs) after %7.1f ms%n",
+					run, (opened - start) / 1e6, read, (first - start) / 1e6);
+
+			start = System.nanoTime();
+			MappedSnapshot snapshot = MappedSnapshot.open(snapshotFile);
+			opened = System.nanoTime();
+			read = snapshot.getSongs(band).size();
+			first = System.nanoTime();
+			System.out.printf("run %d  snapshot: file mapped in  %7.1f ms, first read (%d songs) after %7.1f ms%n",
+					run, (opened - start) / 1e6, read, (first - start) / 1e6);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * BandManager by Davide Reverberi (matr. 332781)
+ *
+ * UniPr, Software Engineering course.
+ * Last Modified: 1/03/2024
+ *
+ */
+package BandManagerPackage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class for a dictionary giving a number to each different string, so that columns of repeated
+ * strings (the authors of the songs, see SongColumns) keep an int for each row and each string only once.
+ * Numbers are never given back: a string stays in the dictionary even when no row uses it anymore.
+ *
+ * @author Davide Reverberi
+ */
+public class StringDictionary {
+
+	private final Map<String, Integer> ids = new HashMap<>();	//Number of each string
+	private volatile String[] strings = new String[16];		//String of each number
+	private int size = 0;										//Numbers given
+
+	/**
+	 * Gets the number of a string, giving it a new one the first time.
+	 *
+	 * @param s The string.
+	 * @return The number of the string.
+	 */
+	public synchronized int id(String s)
+	{
+		Integer id = ids.get(s);
+		if (id != null)
+		{
+			return id;
+		}
+		String[] current = strings;
+		if (size == current.length)
+		{
+			current = Arrays.copyOf(current, size * 2);
+		}
+		current[size] = s;
+		strings = current;	//Published after the string is written
+		ids.put(s, size);
+		return size++;
+	}
+
+	/**
+	 * Gets the string of a number. Not synchronized: a number is only read from rows written after id()
+	 * returned it, under the lock that guards the rows, so the string is visible to the reader.
+	 *
+	 * @param id A number given by id().
+	 * @return The string.
+	 */
+	public String get(int id)
+	{
+		return strings[id];
+	}
+
+	/**
+	 * Gets the number of different strings.
+	 *
+	 * @return The number of strings in the dictionary.
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+}